@@ -37,6 +37,7 @@ import org.apache.ode.bpel.connector.BpelServerConnector;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactory;
 import org.apache.ode.bpel.engine.BpelServerImpl;
 import org.apache.ode.bpel.engine.CountLRUDehydrationPolicy;
+import org.apache.ode.bpel.engine.SizeLFUDehydrationPolicy;
 import org.apache.ode.bpel.engine.cron.CronScheduler;
 import org.apache.ode.bpel.extvar.jdbc.JdbcExternalVariableModule;
 import org.apache.ode.bpel.iapi.*;
@@ -46,13 +47,22 @@ import org.apache.ode.bpel.pmapi.InstanceManagement;
 import org.apache.ode.bpel.pmapi.ProcessManagement;
 import org.apache.ode.il.config.OdeConfigProperties;
 import org.apache.ode.il.dbutil.Database;
+import org.apache.ode.scheduler.simple.DatabaseDelegate;
+import org.apache.ode.scheduler.simple.DatabaseException;
 import org.apache.ode.scheduler.simple.JdbcDelegate;
+import org.apache.ode.scheduler.simple.JournalDelegate;
 import org.apache.ode.scheduler.simple.SimpleScheduler;
+import org.apache.ode.scheduler.simple.SkipLockedJdbcDelegate;
 import org.apache.ode.store.ClusterProcessStoreImpl;
 import org.apache.ode.store.ProcessStoreImpl;
 import org.apache.ode.utils.GUID;
 import org.apache.ode.utils.fs.TempFileManager;
+import org.apache.ode.utils.metrics.MetricsMBean;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.apache.ode.utils.metrics.MetricsReporter;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.sql.DataSource;
@@ -62,10 +72,15 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Server class called by our Axis hooks to handle all ODE lifecycle management.
@@ -99,8 +114,17 @@ public class ODEServer {
 
     protected ExecutorService _executorService;
 
+    /** Runs the outbound partner invocations, apart from the scheduler and engine threads. */
+    protected ExecutorService _outboundExecutorService;
+
+    /** Times out the requests waiting for an asynchronous reply, see {@link ODEService}. */
+    protected ScheduledExecutorService _replyTimeoutService;
+
     protected Scheduler _scheduler;
 
+    /** Scheduler journal, if the scheduler uses one; closed once the scheduler is stopped. */
+    protected JournalDelegate _journal;
+
     protected CronScheduler _cronScheduler;
 
     protected Database _db;
@@ -113,6 +137,8 @@ public class ODEServer {
 
     private ManagementService _mgtService;
 
+    private ObjectName _metricsName;
+
     protected ClusterUrlTransformer _clusterUrlTransformer;
 
     protected MultiThreadedHttpConnectionManager httpConnectionManager;
@@ -190,6 +216,8 @@ public class ODEServer {
         initBpelServer(eprContext);
         __log.debug("Initializing HTTP connection manager");
         initHttpConnectionManager();
+        __log.debug("Initializing metrics");
+        initMetrics();
 
         // Register BPEL event listeners configured in axis2.properties file.
         registerEventListeners();
@@ -312,6 +340,16 @@ public class ODEServer {
                     __log.debug("Error stopping poller.", t);
                 }
 
+            if (_metricsName != null)
+                try {
+                    __log.debug("unregistering metrics MBean.");
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(_metricsName);
+                    _metricsName = null;
+                } catch (Throwable t) {
+                    __log.debug("Error unregistering metrics MBean.", t);
+                }
+            MetricsRegistry.getInstance().stopReporter();
+
             if (_bpelServer != null)
                 try {
                     __log.debug("shutting down ODE server.");
@@ -340,6 +378,12 @@ public class ODEServer {
                     __log.debug("Scheduler couldn't be shutdown.", ex);
                 }
 
+            if (_journal != null) {
+                __log.debug("closing scheduler journal.");
+                _journal.close();
+                _journal = null;
+            }
+
             if (_store != null)
                 try {
                     _store.shutdown();
@@ -417,11 +461,21 @@ public class ODEServer {
                 __log.error("Unable to cleanup temp files.", t);
             }
 
+            if (_outboundExecutorService != null) {
+                _outboundExecutorService.shutdownNow();
+                _outboundExecutorService = null;
+            }
+
             if (_executorService != null) {
                 _executorService.shutdownNow();
                 _executorService = null;
             }
 
+            if (_replyTimeoutService != null) {
+                _replyTimeoutService.shutdownNow();
+                _replyTimeoutService = null;
+            }
+
             __log.info(__msgs.msgOdeShutdownCompleted());
         } finally {
             Thread.currentThread().setContextClassLoader(old);
@@ -521,15 +575,36 @@ public class ODEServer {
     protected Scheduler createScheduler() {
         SimpleScheduler scheduler;
         if (clusteringEnabled) {
-            scheduler = new SimpleScheduler(_clusterManager.getNodeID(), new JdbcDelegate(_db.getDataSource()), _odeConfig.getProperties(), clusteringEnabled);
+            scheduler = new SimpleScheduler(_clusterManager.getNodeID(), createDatabaseDelegate(), _odeConfig.getProperties(), clusteringEnabled);
             scheduler.setClusterManager(_clusterManager);
         } else
-            scheduler = new SimpleScheduler(new GUID().toString(), new JdbcDelegate(_db.getDataSource()), _odeConfig.getProperties());
+            scheduler = new SimpleScheduler(new GUID().toString(), createDatabaseDelegate(), _odeConfig.getProperties());
         scheduler.setExecutorService(_executorService);
         scheduler.setTransactionManager(_txMgr);
         return scheduler;
     }
 
+    protected DatabaseDelegate createDatabaseDelegate() {
+        switch (_odeConfig.getSchedulerDelegate()) {
+        case SKIPLOCKED:
+            return new SkipLockedJdbcDelegate(_db.getDataSource());
+        case JOURNAL:
+            if (clusteringEnabled) {
+                __log.warn("The scheduler journal is local to a node and can not be used with clustering; using JDBC.");
+                break;
+            }
+            try {
+                JournalDelegate journal = new JournalDelegate(new File(_workRoot, "scheduler.journal"));
+                journal.setTransactionManager(_txMgr);
+                _journal = journal;
+                return journal;
+            } catch (DatabaseException e) {
+                throw new ContextException("Unable to open the scheduler journal.", e);
+            }
+        }
+        return new JdbcDelegate(_db.getDataSource());
+    }
+
     private void initBpelServer(EndpointReferenceContextImpl eprContext) {
         if (__log.isDebugEnabled()) {
             __log.debug("ODE initializing");
@@ -549,6 +624,34 @@ public class ODEServer {
         else
             _executorService = Executors.newFixedThreadPool(_odeConfig.getThreadPoolMaxSize(), threadFactory);
 
+        ThreadFactory outboundThreadFactory = new ThreadFactory() {
+            int threadNumber = 0;
+            public synchronized Thread newThread(Runnable r) {
+                threadNumber += 1;
+                Thread t = new Thread(r, "ODEOutbound-"+threadNumber);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        if (_odeConfig.getOutboundThreadPoolMaxSize() == 0) {
+            _outboundExecutorService = Executors.newCachedThreadPool(outboundThreadFactory);
+        } else {
+            // idle threads are released, a partner latency spike only holds threads while it lasts
+            ThreadPoolExecutor outbound = new ThreadPoolExecutor(_odeConfig.getOutboundThreadPoolMaxSize(),
+                    _odeConfig.getOutboundThreadPoolMaxSize(), 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), outboundThreadFactory);
+            outbound.allowCoreThreadTimeOut(true);
+            _outboundExecutorService = outbound;
+        }
+
+        _replyTimeoutService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "ODEService-ReplyTimeouts");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
         {
             List<String> targets = new ArrayList<String>();
             Collections.addAll(targets, _odeConfig.getProperty("cluster.localRoute.targets", "").split(","));
@@ -576,15 +679,25 @@ public class ODEServer {
         _bpelServer.setBindingContext(new BindingContextImpl(this));
         _bpelServer.setScheduler(_scheduler);
         if (_odeConfig.isDehydrationEnabled()) {
-            CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
-            dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
-            dehy.setProcessMaxCount(_odeConfig.getDehydrationMaximumCount());
-            _bpelServer.setDehydrationPolicy(dehy);
+            if (_odeConfig.getDehydrationPolicy() == OdeConfigProperties.DehydrationStrategy.SIZE) {
+                SizeLFUDehydrationPolicy dehy = new SizeLFUDehydrationPolicy();
+                dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
+                dehy.setProcessMaxSize(_odeConfig.getDehydrationMaximumSize());
+                _bpelServer.setDehydrationPolicy(dehy);
+            } else {
+                CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
+                dehy.setProcessMaxAge(_odeConfig.getDehydrationMaximumAge());
+                dehy.setProcessMaxCount(_odeConfig.getDehydrationMaximumCount());
+                _bpelServer.setDehydrationPolicy(dehy);
+            }
         }
+        _bpelServer.setHydrationHistoryFile(new File(_workRoot, "hydration.history"));
         _bpelServer.setMigrationTransactionTimeout(_odeConfig.getMigrationTransactionTimeout());
         _bpelServer.setConfigProperties(_odeConfig.getProperties());
         _bpelServer.init();
         _bpelServer.setInstanceThrottledMaximumCount(_odeConfig.getInstanceThrottledMaximumCount());
+        _bpelServer.setExecutionSliceBudget(_odeConfig.getExecutionSliceMaximumTime(),
+                _odeConfig.getExecutionSliceMaximumReductions(), _odeConfig.getExecutionSliceMaximumCpuTime());
         _bpelServer.setProcessThrottledMaximumCount(_odeConfig.getProcessThrottledMaximumCount());
         _bpelServer.setProcessThrottledMaximumSize(_odeConfig.getProcessThrottledMaximumSize());
         _bpelServer.setHydrationLazy(_odeConfig.isHydrationLazy());
@@ -650,6 +763,32 @@ public class ODEServer {
         return _configRoot;
     }
 
+    private void initMetrics() {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        if (_odeConfig.isMetricsJmxEnabled()) {
+            try {
+                MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(MetricsMBean.OBJECT_NAME);
+                if (mbeanServer.isRegistered(name))
+                    mbeanServer.unregisterMBean(name);
+                mbeanServer.registerMBean(new MetricsMBean(metrics), name);
+                _metricsName = name;
+            } catch (Exception e) {
+                __log.warn("Couldn't register the metrics MBean: " + e);
+            }
+        }
+        String reporterCN = _odeConfig.getMetricsReporter();
+        if (reporterCN != null) {
+            try {
+                metrics.startReporter((MetricsReporter) Class.forName(reporterCN).newInstance(), _odeConfig.getMetricsReporterPeriod());
+                __log.info("Metrics reported every " + _odeConfig.getMetricsReporterPeriod() + "ms to " + reporterCN);
+            } catch (Exception e) {
+                __log.warn("Couldn't start the metrics reporter " + reporterCN + ", the class couldn't be "
+                        + "loaded properly: " + e);
+            }
+        }
+    }
+
     private void registerEventListeners() {
         String listenersStr = _odeConfig.getEventListeners();
         if (listenersStr != null) {
@@ -19,22 +19,22 @@
 
 package org.apache.ode.axis2;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.Map;
 
 import javax.transaction.TransactionManager;
 import javax.wsdl.Definition;
-import javax.wsdl.Operation;
 import javax.wsdl.Port;
-import javax.wsdl.PortType;
 import javax.wsdl.Service;
 import javax.wsdl.extensions.UnknownExtensibilityElement;
 import javax.wsdl.extensions.http.HTTPAddress;
 import javax.wsdl.extensions.soap.SOAPAddress;
 import javax.xml.namespace.QName;
 
-import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPFactory;
 import org.apache.axiom.soap.SOAPFault;
 import org.apache.axis2.AxisFault;
@@ -42,7 +42,9 @@ import org.apache.axis2.client.Options;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.description.AxisService;
 import org.apache.axis2.description.TwoChannelAxisOperation;
+import org.apache.axis2.engine.AxisEngine;
 import org.apache.axis2.transport.jms.JMSConstants;
+import org.apache.axis2.util.MessageContextBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.axis2.util.SoapMessageConverter;
@@ -83,10 +85,16 @@ public class ODEService {
     private String _portName;
     private WSAEndpoint _serviceRef;
     private SoapMessageConverter _converter;
+    private ExecutorService _executorService;
+    /** Timeouts of the requests waiting for an asynchronous reply. */
+    private ScheduledExecutorService _replyTimeouts;
 
     public ODEService(AxisService axisService, ProcessConf pconf, QName serviceName, String portName, BpelServer server,
-                      TransactionManager txManager) throws AxisFault {
+                      TransactionManager txManager, ExecutorService executorService,
+                      ScheduledExecutorService replyTimeouts) throws AxisFault {
         _axisService = axisService;
+        _executorService = executorService;
+        _replyTimeouts = replyTimeouts;
         _server = server;
         _txManager = txManager;
         _pconf = pconf;
@@ -104,9 +112,86 @@ public class ODEService {
 
     public void onAxisMessageExchange(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory)
             throws AxisFault {
+        Invocation invocation = invoke(msgContext, null, outMsgContext, soapFactory);
+
+        if (invocation.twoWay && !invocation.responded) {
+            // Waits for the response to arrive
+            if (invocation.future != null) {
+                try {
+                    invocation.future.get(getTimeout(), TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    // stop listening for a response nobody waits for anymore
+                    invocation.future.cancel(false);
+                    String errorMsg = "Timeout or execution error when waiting for response to MEX "
+                            + invocation.mexId + " " + e.toString();
+                    __log.error(errorMsg, e);
+                    throw new OdeFault(errorMsg);
+                }
+            }
+
+            if (outMsgContext != null) {
+                outMsgContext.setEnvelope(soapFactory.getDefaultEnvelope());
+                handleResponse(invocation.mexId, outMsgContext);
+            }
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #onAxisMessageExchange(MessageContext, MessageContext, SOAPFactory)} for
+     * request-response operations: returns as soon as the request is committed, the response (or a fault if the
+     * process does not reply in time) being sent later on with {@link AxisEngine#send(MessageContext)} when the
+     * message exchange completes. No thread is held while the process runs, pending requests only cost the memory
+     * of their message contexts.
+     *
+     * The response must be deliverable out of band, i.e. to a non-anonymous WS-Addressing ReplyTo.
+     */
+    public void onAxisMessageExchangeAsync(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory)
+            throws AxisFault {
+        final PendingReply reply = new PendingReply(msgContext, outMsgContext, soapFactory);
+        final Invocation invocation = invoke(msgContext, new MyRoleMessageExchange.ResponseListener() {
+            public void onResponse(final String mexId) {
+                // called after the commit of the process transaction, reply from another thread
+                _executorService.submit(new Callable<Object>() {
+                    public Object call() throws Exception {
+                        reply.send(mexId);
+                        return null;
+                    }
+                });
+            }
+        }, null, null);
+
+        if (!invocation.twoWay) {
+            reply.clear();
+        } else if (invocation.future == null) {
+            // failed or faulted right away
+            reply.send(invocation.mexId);
+        } else {
+            final long timeout = getTimeout();
+            _replyTimeouts.schedule(new Runnable() {
+                public void run() {
+                    if (invocation.future.cancel(false)) {
+                        String errorMsg = "Timeout when waiting for response to MEX " + invocation.mexId
+                                + " (" + timeout + " ms)";
+                        __log.error(errorMsg);
+                        reply.sendFault(new OdeFault(errorMsg));
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Create the message exchange for the request and invoke the engine, in a transaction. When given an
+     * output message context and the exchange already completed (e.g. an in-memory process run inline by the
+     * engine), the response is read in the same transaction.
+     */
+    @SuppressWarnings("unchecked")
+    private Invocation invoke(MessageContext msgContext, MyRoleMessageExchange.ResponseListener listener,
+                              MessageContext outMsgContext, SOAPFactory soapFactory) throws AxisFault {
         boolean success = true;
         MyRoleMessageExchange odeMex = null;
-        Future responseFuture = null;
+        Invocation invocation = new Invocation();
+        AxisFault fault = null;
         try {
             _txManager.begin();
             if (__log.isDebugEnabled()) __log.debug("Starting transaction.");
@@ -118,8 +203,6 @@ public class ODEService {
             odeMex = _server.getEngine().createMessageExchange("" + messageId, _serviceName,
                     msgContext.getAxisOperation().getName().getLocalPart());
             __log.debug("ODE routed to portType " + odeMex.getPortType() + " operation " + odeMex.getOperation() + " from service " + _serviceName);
-            PortType portType = odeMex.getPortType();
-            Operation operation = odeMex.getOperation();
             odeMex.setProperty("isTwoWay", Boolean.toString(msgContext.getAxisOperation() instanceof TwoChannelAxisOperation));
             if (odeMex.getOperation() != null) {
                 // Preparing message to send to ODE
@@ -133,9 +216,25 @@ public class ODEService {
                 }
 
                 // Invoke ODE
-                responseFuture = odeMex.invoke(odeRequest);
+                invocation.mexId = odeMex.getMessageExchangeId();
+                invocation.twoWay = odeMex.getOperation().getOutput() != null;
+                invocation.future = odeMex.invoke(odeRequest, listener);
+
+                if (invocation.twoWay && outMsgContext != null && odeMex.getStatus() != MessageExchange.Status.ASYNC) {
+                    // completed right away, no need for another transaction to read the response
+                    outMsgContext.setEnvelope(soapFactory.getDefaultEnvelope());
+                    try {
+                        onResponse(odeMex, outMsgContext);
+                    } catch (AxisFault af) {
+                        __log.warn("MEX produced a fault " + odeMex, af);
+                        fault = af;
+                    }
+                    invocation.responded = true;
+                    odeMex.release(true);
+                    odeMex = null;
+                }
 
-                __log.debug("Commiting ODE MEX " + odeMex);
+                __log.debug("Commiting ODE MEX " + invocation.mexId);
                 try {
                     if (__log.isDebugEnabled()) __log.debug("Commiting transaction.");
                     _txManager.commit();
@@ -164,65 +263,115 @@ public class ODEService {
                 }
             }
         }
+        if (!success) {
+            throw new OdeFault("Message was either unroutable or timed out!");
+        }
+        if (fault != null) {
+            throw fault;
+        }
+        return invocation;
+    }
 
-        if (odeMex.getOperation().getOutput() != null) {
-            // Waits for the response to arrive
-            try {
-                responseFuture.get(getTimeout(), TimeUnit.MILLISECONDS);
-            } catch (Exception e) {
-                String errorMsg = "Timeout or execution error when waiting for response to MEX "
-                        + odeMex + " " + e.toString();
-                __log.error(errorMsg, e);
-                throw new OdeFault(errorMsg);
-            }
-
-            if (outMsgContext != null) {
-                SOAPEnvelope envelope = soapFactory.getDefaultEnvelope();
-                outMsgContext.setEnvelope(envelope);
-
-                // Hopefully we have a response
-                __log.debug("Handling response for MEX " + odeMex);
-                boolean commit = false;
+    /**
+     * Read the response of a completed message exchange into the given message context, in a transaction.
+     */
+    private void handleResponse(String mexId, MessageContext outMsgContext) throws AxisFault {
+        // Hopefully we have a response
+        __log.debug("Handling response for MEX " + mexId);
+        boolean commit = false;
+        try {
+            if (__log.isDebugEnabled()) __log.debug("Starting transaction.");
+            _txManager.begin();
+        } catch (Exception ex) {
+            throw new OdeFault("Error starting transaction!", ex);
+        }
+        MyRoleMessageExchange odeMex = null;
+        try {
+            // Refreshing the message exchange
+            odeMex = (MyRoleMessageExchange) _server.getEngine().getMessageExchange(mexId);
+            onResponse(odeMex, outMsgContext);
+            commit = true;
+        } catch (AxisFault af) {
+            __log.warn("MEX produced a fault " + odeMex, af);
+            commit = true;
+            throw af;
+        } catch (Exception e) {
+            __log.error("Error processing response for MEX " + odeMex, e);
+            throw new OdeFault("An exception occured when invoking ODE.", e);
+        } finally {
+            if (odeMex != null) odeMex.release(commit);
+            if (commit) {
                 try {
-                    if (__log.isDebugEnabled()) __log.debug("Starting transaction.");
-                    _txManager.begin();
-                } catch (Exception ex) {
-                    throw new OdeFault("Error starting transaction!", ex);
+                    if (__log.isDebugEnabled()) __log.debug("Comitting transaction.");
+                    _txManager.commit();
+                } catch (Exception e) {
+                    throw new OdeFault("Commit failed!", e);
                 }
+            } else {
                 try {
-                    // Refreshing the message exchange
-                    odeMex = (MyRoleMessageExchange) _server.getEngine().getMessageExchange(odeMex.getMessageExchangeId());
-                    onResponse(odeMex, outMsgContext);
-                    commit = true;
-                } catch (AxisFault af) {
-                    __log.warn("MEX produced a fault " + odeMex, af);
-                    commit = true;
-                    throw af;
-                } catch (Exception e) {
-                    __log.error("Error processing response for MEX " + odeMex, e);
-                    throw new OdeFault("An exception occured when invoking ODE.", e);
-                } finally {
-                    odeMex.release(commit);
-                    if (commit) {
-                        try {
-                            if (__log.isDebugEnabled()) __log.debug("Comitting transaction.");
-                            _txManager.commit();
-                        } catch (Exception e) {
-                            throw new OdeFault("Commit failed!", e);
-                        }
-                    } else {
-                        try {
-                            _txManager.rollback();
-                        } catch (Exception ex) {
-                            throw new OdeFault("Rollback failed!", ex);
-                        }
-                    }
+                    _txManager.rollback();
+                } catch (Exception ex) {
+                    throw new OdeFault("Rollback failed!", ex);
                 }
             }
-            if (!success) {
-                throw new OdeFault("Message was either unroutable or timed out!");
+        }
+    }
+
+    /**
+     * State of a request handed to the engine.
+     */
+    private static class Invocation {
+        String mexId;
+        boolean twoWay;
+        Future future;
+        /** Whether the response was already read into the output message context. */
+        boolean responded;
+    }
+
+    /**
+     * Request waiting for an asynchronous reply. The message contexts are released once the reply is sent,
+     * the timeout task possibly outliving the exchange.
+     */
+    private class PendingReply {
+        private MessageContext _msgContext;
+        private MessageContext _outMsgContext;
+        private SOAPFactory _soapFactory;
+
+        PendingReply(MessageContext msgContext, MessageContext outMsgContext, SOAPFactory soapFactory) {
+            _msgContext = msgContext;
+            _outMsgContext = outMsgContext;
+            _soapFactory = soapFactory;
+        }
+
+        synchronized void send(String mexId) {
+            if (_msgContext == null) return;
+            try {
+                _outMsgContext.setEnvelope(_soapFactory.getDefaultEnvelope());
+                handleResponse(mexId, _outMsgContext);
+                if (__log.isDebugEnabled()) __log.debug("Reply message " + _outMsgContext.getEnvelope());
+                AxisEngine.send(_outMsgContext);
+                clear();
+            } catch (AxisFault af) {
+                sendFault(af);
             }
         }
+
+        synchronized void sendFault(AxisFault fault) {
+            if (_msgContext == null) return;
+            try {
+                AxisEngine.sendFault(MessageContextBuilder.createFaultMessageContext(_msgContext, fault));
+            } catch (AxisFault af) {
+                __log.error("Error sending fault for " + _msgContext.getAxisOperation().getName(), af);
+            } finally {
+                clear();
+            }
+        }
+
+        synchronized void clear() {
+            _msgContext = null;
+            _outMsgContext = null;
+            _soapFactory = null;
+        }
     }
 
     public boolean respondsTo(QName serviceName, QName portTypeName) {
@@ -38,6 +38,8 @@ import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.neethi.Policy;
 import org.apache.neethi.PolicyEngine;
 import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.PartnerEndpointGuard;
+import org.apache.ode.axis2.util.PartnerResponseCache;
 import org.apache.ode.axis2.util.SoapMessageConverter;
 import org.apache.ode.axis2.util.AxisUtils;
 import org.apache.ode.bpel.engine.BpelServerImpl;
@@ -53,6 +55,9 @@ import org.apache.ode.bpel.iapi.ProcessConf;
 import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.il.OMUtils;
 import org.apache.ode.utils.*;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.uuid.UUID;
 import org.apache.ode.utils.wsdl.Messages;
 import org.w3c.dom.Document;
@@ -68,9 +73,13 @@ import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.lang.reflect.Field;
 
 /**
@@ -85,8 +94,21 @@ public class SoapExternalService implements ExternalService {
 
     private static final org.apache.ode.utils.wsdl.Messages msgs = Messages.getMessages(Messages.class);
 
+    private static final Histogram __invokeTime = MetricsRegistry.getInstance().histogram("partner.invoke.time");
 
-    private static ThreadLocal<ServiceClient> _cachedClients = new ThreadLocal<ServiceClient>();
+    private static final Counter __invokeErrors = MetricsRegistry.getInstance().counter("partner.invoke.errors");
+
+    private static final int DEFAULT_CLIENT_POOL_SIZE = 10;
+
+    private static final int DEFAULT_CLIENT_POOL_WARMUP = 1;
+
+    // idle service clients, checked out for the preparation of each invocation
+    private final ConcurrentLinkedQueue<ServiceClient> _idleClients = new ConcurrentLinkedQueue<ServiceClient>();
+    private final AtomicInteger _idleClientCount = new AtomicInteger();
+    private volatile int _clientPoolSize = DEFAULT_CLIENT_POOL_SIZE;
+    private Counter _clientsCreated;
+    private Counter _clientsInUse;
+    private Counter _clientsIdle;
     private WatchDog<Map, OptionsObserver> _axisOptionsWatchDog;
     private WatchDog<Long, ServiceFileObserver> _axisServiceWatchDog;
     private ConfigurationContext _configContext;
@@ -122,6 +144,8 @@ public class SoapExternalService implements ExternalService {
         File fileToWatch = new File(_pconf.getBaseURI().resolve(_serviceName.getLocalPart() + ".axis2"));
         _axisServiceWatchDog = WatchDog.watchFile(fileToWatch, new ServiceFileObserver(fileToWatch));
         _axisOptionsWatchDog = new WatchDog<Map, OptionsObserver>(new EndpointPropertiesMutable(), new OptionsObserver());
+        _axisServiceWatchDog.watchInBackground();
+        _axisOptionsWatchDog.watchInBackground();
         _configContext.setProperty(HTTPConstants.MUTTITHREAD_HTTP_CONNECTION_MANAGER, connManager);
         // make sure the client is not shared, see also org.apache.ode.axis2.Properties.Axis2
         _configContext.setProperty(HTTPConstants.REUSE_HTTP_CLIENT, "false");
@@ -132,14 +156,36 @@ public class SoapExternalService implements ExternalService {
             throw new IllegalArgumentException(msgs.msgPortDefinitionNotFound(serviceName, portName));
         endpointReference = EndpointFactory.convertToWSA(ODEService.createServiceRef(eprElmt));
         endpointUrl = endpointReference.getUrl();
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String endpointName = PartnerEndpointGuard.endpointName(serviceName, portName);
+        _clientsCreated = metrics.counter("partner.clients." + endpointName + ".created");
+        _clientsInUse = metrics.counter("partner.clients." + endpointName + ".inuse");
+        _clientsIdle = metrics.counter("partner.clients." + endpointName + ".idle");
+        warmUpServiceClients();
     }
 
 
     public void invoke(final PartnerRoleMessageExchange odeMex) {
         boolean isTwoWay = odeMex.getMessageExchangePattern() == org.apache.ode.bpel.iapi.MessageExchange.MessageExchangePattern.REQUEST_RESPONSE;
+        Map<String, String> properties = _pconf.getEndpointProperties(endpointReference);
+        _clientPoolSize = intProperty(properties, Properties.PROP_SOAP_CLIENT_POOL_SIZE, DEFAULT_CLIENT_POOL_SIZE);
+        final PartnerResponseCache cache = PartnerResponseCache.forEndpoint(_serviceName, _portName, properties);
+        final String cacheKey = cache == null ? null : cache.keyFor(odeMex);
+        if (cacheKey != null && cache.reply(odeMex, cacheKey)) return;
+
+        final PartnerEndpointGuard guard = PartnerEndpointGuard.forEndpoint(_serviceName, _portName, properties);
+        String rejection = guard.tryAcquire();
+        if (rejection != null) {
+            __log.warn(rejection + " (mex=" + odeMex + ")");
+            odeMex.replyWithFailure(MessageExchange.FailureType.COMMUNICATION_ERROR, rejection, null);
+            return;
+        }
+        boolean submitted = false;
+        ServiceClient client = null;
         try {
 
-            ServiceClient client = getServiceClient();
+            client = checkoutServiceClient();
 
             // Override options are passed to the axis MessageContext so we can
             // retrieve them in our session out changeHandler.
@@ -196,25 +242,33 @@ public class SoapExternalService implements ExternalService {
                 _sched.registerSynchronizer(new Scheduler.Synchronizer() {
                     public void afterCompletion(boolean success) {
                         // If the TX is rolled back, then we don't send the request.
-                        if (!success) return;
+                        if (!success) {
+                            guard.release();
+                            return;
+                        }
 
                         // The invocation must happen in a separate thread, holding on the afterCompletion
                         // blocks other operations that could have been listed there as well.
-                        _executorService.submit(new Callable<Object>() {
+                        guard.submit(_executorService, new Callable<Object>() {
                             public Object call() throws Exception {
+                                long start = System.nanoTime();
                                 try {
                                     operationClient.execute(true);
+                                    __invokeTime.record(MetricsRegistry.micros(start));
+                                    guard.recordSuccess();
                                     MessageContext response = operationClient.getMessageContext(WSDLConstants.MESSAGE_LABEL_IN_VALUE);
                                     MessageContext flt = operationClient.getMessageContext(WSDLConstants.MESSAGE_LABEL_FAULT_VALUE);
                                     if (response != null && __log.isDebugEnabled())
                                         __log.debug("Service response:\n" + response.getEnvelope().toString());
 
                                     if (flt != null) {
-                                        reply(mexId, operation, flt, true);
+                                        reply(mexId, operation, flt, true, null, null);
                                     } else {
-                                        reply(mexId, operation, response, response.isFault());
+                                        reply(mexId, operation, response, response.isFault(), cache, cacheKey);
                                     }
                                 } catch (Throwable t) {
+                                    __invokeErrors.inc();
+                                    guard.recordFailure();
                                     String errmsg = "Error sending message (mex=" + odeMex + "): " + t.getMessage();
                                     __log.error(errmsg, t);
                                     replyWithFailure(mexId, MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg);
@@ -233,14 +287,21 @@ public class SoapExternalService implements ExternalService {
                     public void beforeCompletion() {
                     }
                 });
+                submitted = true;
                 odeMex.replyAsync();
 
             } else { /** one-way case * */
-                _executorService.submit(new Callable<Object>() {
+                submitted = true;
+                guard.submit(_executorService, new Callable<Object>() {
                     public Object call() throws Exception {
+                        long start = System.nanoTime();
                         try {
                             operationClient.execute(true);
+                            __invokeTime.record(MetricsRegistry.micros(start));
+                            guard.recordSuccess();
                         } catch (Throwable t) {
+                            __invokeErrors.inc();
+                            guard.recordFailure();
                             String errmsg = "Error sending message (mex=" + odeMex + "): " + t.getMessage();
                             __log.error(errmsg, t);
                         } finally {
@@ -256,48 +317,99 @@ public class SoapExternalService implements ExternalService {
                 odeMex.replyOneWayOk();
             }
         } catch (Throwable t) {
+            if (!submitted) guard.release();
             String errmsg = "Error sending message to Axis2 for ODE mex " + odeMex;
             __log.error(errmsg, t);
             odeMex.replyWithFailure(MessageExchange.FailureType.COMMUNICATION_ERROR, errmsg, null);
+        } finally {
+            if (client != null) checkinServiceClient(client);
         }
     }
 
-    private ServiceClient getServiceClient() throws AxisFault {
+    /**
+     * Take an idle service client configured for the current axis2 service and options, or create one.
+     * Clients are only needed to prepare an invocation, they are returned with {@link #checkinServiceClient}
+     * before the request is sent.
+     */
+    private ServiceClient checkoutServiceClient() throws AxisFault {
         try {
-            // call manually the check procedure
-            // we dont want a dedicated thread for that
-            _axisServiceWatchDog.check();
-            _axisOptionsWatchDog.check();
+            // the watchdogs are checked in the background, only load the config the first time (or after a failure)
+            if (!_axisServiceWatchDog.getObserver().isInitialized()) _axisServiceWatchDog.check();
+            if (!_axisOptionsWatchDog.getObserver().isInitialized()) _axisOptionsWatchDog.check();
         } catch (RuntimeException e) {
             throw AxisFault.makeFault(e.getCause() != null ? e.getCause() : e);
         }
         AxisService anonymousService = _axisServiceWatchDog.getObserver().get();
-        ServiceClient client = _cachedClients.get();
-        if (client == null || !client.getAxisService().getName().equals(anonymousService.getName())) {
+        ServiceClient client;
+        while ((client = _idleClients.poll()) != null) {
+            _idleClientCount.decrementAndGet();
+            _clientsIdle.dec();
+            if (client.getAxisService().getName().equals(anonymousService.getName())) break;
+            // the service has changed, discard the client
+            if (__log.isDebugEnabled()) __log.debug("Clean up and discard ServiceClient");
+            synchronized (_axisConfig) {
+                client.cleanup();
+            }
+        }
+        if (client == null) {
             // avoid race conditions in AxisConfiguration
             synchronized (_axisConfig) {
-                // if the service has changed, discard the client and create a new one
-                if (client != null) {
-                    if (__log.isDebugEnabled()) __log.debug("Clean up and discard ServiceClient");
-                    client.cleanup();
-                }
                 if (__log.isDebugEnabled())
                     __log.debug("Create a new ServiceClient for " + anonymousService.getName());
                 client = new ServiceClient(_configContext, null);
                 client.setAxisService(anonymousService);
             }
-            _cachedClients.set(client);
+            _clientsCreated.inc();
         }
+        _clientsInUse.inc();
 
         // apply the options to the service client
         client.setOptions(_axisOptionsWatchDog.getObserver().get());
         return client;
     }
 
-    private void applySecurityPolicy(Options options) {
-        if (options!=null && options.getProperty(Properties.PROP_SECURITY_POLICY) != null) {
+    private void checkinServiceClient(ServiceClient client) {
+        _clientsInUse.dec();
+        if (_idleClientCount.incrementAndGet() <= _clientPoolSize) {
+            _idleClients.offer(client);
+            _clientsIdle.inc();
+        } else {
+            // enough idle clients, the service is still used by them so just drop this one
+            _idleClientCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Prepare service clients when the process is activated, so that the first invocations do not pay for them.
+     */
+    private void warmUpServiceClients() {
+        Map<String, String> properties = _pconf.getEndpointProperties(endpointReference);
+        _clientPoolSize = intProperty(properties, Properties.PROP_SOAP_CLIENT_POOL_SIZE, DEFAULT_CLIENT_POOL_SIZE);
+        int warmup = Math.min(_clientPoolSize, intProperty(properties, Properties.PROP_SOAP_CLIENT_POOL_WARMUP, DEFAULT_CLIENT_POOL_WARMUP));
+        List<ServiceClient> clients = new ArrayList<ServiceClient>(Math.max(0, warmup));
+        try {
+            for (int i = 0; i < warmup; i++) clients.add(checkoutServiceClient());
+        } catch (AxisFault e) {
+            __log.warn("Unable to prepare service clients for " + _serviceName + "#" + _portName + ", they will be created on first use", e);
+        } finally {
+            for (ServiceClient client : clients) checkinServiceClient(client);
+        }
+    }
+
+    private int intProperty(Map<String, String> properties, String name, int dflt) {
+        String value = properties == null ? null : properties.get(name);
+        if (value == null) return dflt;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            __log.warn("Mal-formatted Property: [" + name + "=" + value + "]. Integer expected. Property will be skipped.");
+            return dflt;
+        }
+    }
+
+    private void applySecurityPolicy(Options options, AxisService service) {
+        if (options!=null && service!=null && options.getProperty(Properties.PROP_SECURITY_POLICY) != null) {
             String policy = (String) options.getProperty(Properties.PROP_SECURITY_POLICY);
-            AxisService service = _axisServiceWatchDog.getObserver().get();
             AxisUtils.applySecurityPolicy(service, policy);
         }
     }
@@ -431,7 +543,8 @@ public class SoapExternalService implements ExternalService {
     }
 
     public void close() {
-        // nothing
+        _axisServiceWatchDog.stopWatching();
+        _axisOptionsWatchDog.stopWatching();
     }
 
     public String getPortName() {
@@ -459,7 +572,8 @@ public class SoapExternalService implements ExternalService {
         }
     }
 
-    private void reply(final String odeMexId, final Operation operation, final MessageContext reply, final boolean isFault) {
+    private void reply(final String odeMexId, final Operation operation, final MessageContext reply, final boolean isFault,
+                       final PartnerResponseCache cache, final String cacheKey) {
         // ODE MEX needs to be invoked in a TX.
         try {
             _sched.execTransaction(new Callable<Void>() {
@@ -493,6 +607,7 @@ public class SoapExternalService implements ExternalService {
                         } else {
                             Message response = odeMex.createMessage(odeMex.getOperation().getOutput().getMessage().getQName());
                             _converter.parseSoapResponse(response, reply.getEnvelope(), operation);
+                            if (cacheKey != null) cache.put(cacheKey, response);
                             if (__log.isInfoEnabled()) __log.info("Response:\n" + (response.getMessage() != null ?
                                     DOMUtils.domToString(response.getMessage()) : "empty"));
                             odeMex.reply(response);
@@ -527,64 +642,77 @@ public class SoapExternalService implements ExternalService {
         }
 
         public void init() {
+            object = createService();
+        }
+
+        private AxisService createService() {
             // create an anonymous axis service that will be used by the ServiceClient
             // this service will be added to the AxisConfig so do not reuse the name of the external service
             // as it could blow up if the service is deployed in the same axis2 instance
             String serviceName = "axis_service_for_" + _serviceName + "#" + _portName + "_" + new GUID().toString();
-            object = new AxisService(serviceName);
-            object.setParent(_axisConfig);
+            AxisService service = new AxisService(serviceName);
+            service.setParent(_axisConfig);
 
             OutOnlyAxisOperation outOnlyOperation = new OutOnlyAxisOperation(ServiceClient.ANON_OUT_ONLY_OP);
-            object.addOperation(outOnlyOperation);
+            service.addOperation(outOnlyOperation);
 
             OutInAxisOperation outInOperation = new OutInAxisOperation(ServiceClient.ANON_OUT_IN_OP);
-            object.addOperation(outInOperation);
+            service.addOperation(outInOperation);
 
             // set a right default action *after* operations have been added to the service.
             outOnlyOperation.setSoapAction("");
             outInOperation.setSoapAction("");
+            return service;
         }
 
         public void onUpdate() {
             // axis2 service configuration
             // if the config file has been modified (i.e added or updated), re-create a ServiceClient
             // and load the new config.
-            init(); // create a new ServiceClient instance
+            // the new service is only published once configured, readers do not lock
+            AxisService service = createService();
             try {
-                String name = object.getName();
-                AxisUtils.configureService(_configContext, object, file.toURI().toURL());
+                String name = service.getName();
+                AxisUtils.configureService(_configContext, service, file.toURI().toURL());
                 // do not allow the service.xml file to change the service name
-                object.setName(name);
+                service.setName(name);
             } catch (Exception e) {
                 if (__log.isWarnEnabled()) __log.warn("Exception while configuring service: " + _serviceName, e);
                 throw new RuntimeException("Exception while configuring service: " + _serviceName, e);
             }
-            Options options = _axisOptionsWatchDog.getObserver().get();
-            applySecurityPolicy(options);
+            applySecurityPolicy(_axisOptionsWatchDog.getObserver().get(), service);
+            object = service;
         }
     }
 
     private class OptionsObserver extends WatchDog.DefaultObserver<Options> {
 
         public void init() {
-            object = new Options();
+            object = createOptions();
+        }
+
+        private Options createOptions() {
+            Options options = new Options();
             // set defaults values
-            object.setExceptionToBeThrownOnSOAPFault(false);
+            options.setExceptionToBeThrownOnSOAPFault(false);
 
             // this value does NOT override Properties.PROP_HTTP_CONNECTION_TIMEOUT
             // nor Properties.PROP_HTTP_SOCKET_TIMEOUT.
             // it will be applied only if the laters are not set.
-            object.setTimeOutInMilliSeconds(60000);
+            options.setTimeOutInMilliSeconds(60000);
+            return options;
         }
 
         public void onUpdate() {
-            init();
+            // the new options are only published once complete, readers do not lock
+            Options options = createOptions();
 
             // note: don't make this map an instance attribute, so we always get the latest version
             final Map<String, String> properties = _pconf.getEndpointProperties(endpointReference);
-            Properties.Axis2.translate(properties, object);
+            Properties.Axis2.translate(properties, options);
 
-            applySecurityPolicy(object);
+            applySecurityPolicy(options, _axisServiceWatchDog.getObserver().get());
+            object = options;
         }
     }
 
@@ -20,6 +20,7 @@
 package org.apache.ode.axis2.hooks;
 
 import org.apache.axis2.AxisFault;
+import org.apache.axis2.addressing.EndpointReference;
 import org.apache.axis2.context.MessageContext;
 import org.apache.axis2.description.AxisOperation;
 import org.apache.axis2.engine.AxisEngine;
@@ -49,6 +50,12 @@ public class ODEMessageReceiver extends AbstractMessageReceiver {
             // pass on the endpoint properties for output context
             outMsgContext.getOptions().setParent(_service.getOptions());
             outMsgContext.getOperationContext().addMessageContext(outMsgContext);
+            if (hasOutOfBandReply(msgContext)) {
+                // the reply goes to a separate connection, don't hold the transport thread
+                // while the process runs; the response is sent when the exchange completes.
+                _service.onAxisMessageExchangeAsync(msgContext, outMsgContext, getSOAPFactory(msgContext));
+                return;
+            }
             invokeBusinessLogic(msgContext, outMsgContext);
             if (__log.isDebugEnabled()) {
                 __log.debug("Reply for " + msgContext.getAxisService().getName() + "."
@@ -74,6 +81,15 @@ public class ODEMessageReceiver extends AbstractMessageReceiver {
         _service = service;
     }
 
+    /**
+     * @return true if the response is addressed to a non-anonymous WS-Addressing ReplyTo endpoint
+     */
+    private boolean hasOutOfBandReply(MessageContext msgContext) {
+        EndpointReference replyTo = msgContext.getReplyTo();
+        return replyTo != null && replyTo.getAddress() != null && !replyTo.hasAnonymousAddress()
+                && !replyTo.hasNoneAddress();
+    }
+
     private boolean hasResponse(AxisOperation op) {
         switch (op.getAxisSpecificMEPConstant()) {
             case WSDLConstants.MEP_CONSTANT_IN_OUT:
@@ -31,6 +31,8 @@ import org.apache.ode.axis2.ODEService;
 import org.apache.ode.utils.Properties;
 import org.apache.ode.axis2.OdeFault;
 import org.apache.ode.axis2.util.ClusterUrlTransformer;
+import org.apache.ode.axis2.util.PartnerEndpointGuard;
+import org.apache.ode.axis2.util.PartnerResponseCache;
 import org.apache.ode.bpel.epr.EndpointFactory;
 import org.apache.ode.bpel.epr.WSAEndpoint;
 import org.apache.ode.bpel.epr.MutableEndpoint;
@@ -42,6 +44,8 @@ import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
 import org.apache.ode.bpel.iapi.ProcessConf;
 import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.wsdl.Messages;
 import org.apache.ode.utils.wsdl.WsdlUtils;
 import org.w3c.dom.Element;
@@ -69,6 +73,8 @@ public class HttpExternalService implements ExternalService {
     private static final Logger log = LoggerFactory.getLogger(ExternalService.class);
     private static final Messages msgs = Messages.getMessages(Messages.class);
 
+    private static final Histogram __invokeTime = MetricsRegistry.getInstance().histogram("partner.invoke.time");
+
     private MultiThreadedHttpConnectionManager connections;
 
     protected ExecutorService executorService;
@@ -149,9 +155,21 @@ public class HttpExternalService implements ExternalService {
 
     public void invoke(PartnerRoleMessageExchange odeMex) {
         if (log.isDebugEnabled()) log.debug("Preparing " + getClass().getSimpleName() + " invocation...");
+        // note: don't make this map an instance attribute, so we always get the latest version
+        final Map<String, String> properties = pconf.getEndpointProperties(endpointReference);
+        final PartnerResponseCache cache = PartnerResponseCache.forEndpoint(serviceName, portName, properties);
+        String cacheKey = cache == null ? null : cache.keyFor(odeMex);
+        if (cacheKey != null && cache.reply(odeMex, cacheKey)) return;
+
+        final PartnerEndpointGuard guard = PartnerEndpointGuard.forEndpoint(serviceName, portName, properties);
+        String rejection = guard.tryAcquire();
+        if (rejection != null) {
+            log.warn("[Service: " + serviceName + ", Port: " + portName + ", Operation: " + odeMex.getOperationName() + "] " + rejection);
+            odeMex.replyWithFailure(MessageExchange.FailureType.COMMUNICATION_ERROR, rejection, null);
+            return;
+        }
+        boolean submitted = false;
         try {
-            // note: don't make this map an instance attribute, so we always get the latest version
-            final Map<String, String> properties = pconf.getEndpointProperties(endpointReference);
             final HttpParams params = Properties.HttpClient.translate(properties);
 
             // base baseUrl
@@ -190,34 +208,42 @@ public class HttpExternalService implements ExternalService {
             boolean isTwoWay = odeMex.getMessageExchangePattern() == MessageExchange.MessageExchangePattern.REQUEST_RESPONSE;
             if (isTwoWay) {
                 // two way
-                executionCallable = new HttpExternalService.TwoWayCallable(client, method, odeMex.getMessageExchangeId(), odeMex.getOperation());
+                executionCallable = new HttpExternalService.TwoWayCallable(client, method, odeMex.getMessageExchangeId(), odeMex.getOperation(), guard, cache, cacheKey);
                 scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
                     public void afterCompletion(boolean success) {
                         // If the TX is rolled back, then we don't send the request.
-                        if (!success) return;
+                        if (!success) {
+                            guard.release();
+                            return;
+                        }
                         // The invocation must happen in a separate thread
-                        executorService.submit(executionCallable);
+                        guard.submit(executorService, executionCallable);
                     }
 
                     public void beforeCompletion() {
                     }
                 });
+                submitted = true;
                 odeMex.replyAsync();
             } else {
                 // one way, just execute and forget
-                executionCallable = new HttpExternalService.OneWayCallable(client, method, odeMex.getMessageExchangeId(), odeMex.getOperation());
-                executorService.submit(executionCallable);
+                executionCallable = new HttpExternalService.OneWayCallable(client, method, odeMex.getMessageExchangeId(), odeMex.getOperation(), guard);
+                submitted = true;
+                guard.submit(executorService, executionCallable);
                 odeMex.replyOneWayOk();
             }
         } catch (UnsupportedEncodingException e) {
+            if (!submitted) guard.release();
             String errmsg = "The returned HTTP encoding isn't supported " + odeMex;
             log.error("[Service: " + serviceName + ", Port: " + portName + ", Operation: " + odeMex.getOperationName() + "] " + errmsg, e);
             odeMex.replyWithFailure(MessageExchange.FailureType.FORMAT_ERROR, errmsg, null);
         } catch (URIException e) {
+            if (!submitted) guard.release();
             String errmsg = "Error sending message to " + getClass().getSimpleName() + " for ODE mex " + odeMex;
             log.error("[Service: " + serviceName + ", Port: " + portName + ", Operation: " + odeMex.getOperationName() + "] " + errmsg, e);
             odeMex.replyWithFailure(MessageExchange.FailureType.FORMAT_ERROR, errmsg, null);
         } catch (Exception e) {
+            if (!submitted) guard.release();
             String errmsg = "Unknown HTTP call error for ODE mex " + odeMex;
             log.error("[Service: " + serviceName + ", Port: " + portName + ", Operation: " + odeMex.getOperationName() + "] " + errmsg, e);
             odeMex.replyWithFailure(MessageExchange.FailureType.OTHER, errmsg, null);
@@ -229,12 +255,14 @@ public class HttpExternalService implements ExternalService {
         String mexId;
         Operation operation;
         HttpClient client;
+        PartnerEndpointGuard guard;
 
-        public OneWayCallable(HttpClient client, HttpMethod method, String mexId, Operation operation) {
+        public OneWayCallable(HttpClient client, HttpMethod method, String mexId, Operation operation, PartnerEndpointGuard guard) {
             this.method = method;
             this.mexId = mexId;
             this.operation = operation;
             this.client = client;
+            this.guard = guard;
         }
 
         public Void call() throws Exception {
@@ -245,11 +273,16 @@ public class HttpExternalService implements ExternalService {
                     log.debug(HttpHelper.requestToString(method));
                 }
 
+                long start = System.nanoTime();
                 final int statusCode = client.executeMethod(method);
                 // invoke getResponseBody to force the loading of the body
                 // Actually the processResponse may happen in a separate thread and
                 // as a result the connection might be closed before the body processing (see the finally clause below).
                 byte[] responseBody = method.getResponseBody();
+                __invokeTime.record(MetricsRegistry.micros(start));
+                // a server error counts against the endpoint, a client error does not
+                if (statusCode >= 500) guard.recordFailure();
+                else guard.recordSuccess();
                 // ... and process the response
                 if (log.isDebugEnabled()) {
                     log.debug("Received response for MEX " + mexId);
@@ -257,6 +290,7 @@ public class HttpExternalService implements ExternalService {
                 }
                 processResponse(statusCode);
             } catch (final IOException e) {
+                guard.recordFailure();
                 // ODE MEX needs to be invoked in a TX.
                 try {
                     scheduler.execTransaction(new Callable<Void>() {
@@ -296,8 +330,13 @@ public class HttpExternalService implements ExternalService {
     }
 
     private class TwoWayCallable extends OneWayCallable {
-        public TwoWayCallable(org.apache.commons.httpclient.HttpClient client, HttpMethod method, String mexId, Operation operation) {
-            super(client, method, mexId, operation);
+        PartnerResponseCache cache;
+        String cacheKey;
+
+        public TwoWayCallable(org.apache.commons.httpclient.HttpClient client, HttpMethod method, String mexId, Operation operation, PartnerEndpointGuard guard, PartnerResponseCache cache, String cacheKey) {
+            super(client, method, mexId, operation, guard);
+            this.cache = cache;
+            this.cacheKey = cacheKey;
         }
 
         public void processResponse(final int statusCode) {
@@ -360,6 +399,7 @@ public class HttpExternalService implements ExternalService {
             Message odeResponse = odeMex.createMessage(outputMsgName);
 
             httpMethodConverter.parseHttpResponse(odeResponse, method, opDef);
+            if (cacheKey != null) cache.put(cacheKey, odeResponse);
 
             // finally send the message
             try {
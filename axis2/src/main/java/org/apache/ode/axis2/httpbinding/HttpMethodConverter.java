@@ -35,7 +35,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.utils.Properties;
 import org.apache.ode.axis2.util.URLEncodedTransformer;
-import org.apache.ode.axis2.util.UrlReplacementTransformer;
 import org.apache.ode.bpel.epr.MutableEndpoint;
 import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
 import org.apache.ode.utils.DOMUtils;
@@ -51,7 +50,6 @@ import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
 import javax.wsdl.Binding;
-import javax.wsdl.BindingInput;
 import javax.wsdl.BindingOperation;
 import javax.wsdl.BindingOutput;
 import javax.wsdl.Definition;
@@ -60,7 +58,6 @@ import javax.wsdl.Message;
 import javax.wsdl.Operation;
 import javax.wsdl.Part;
 import javax.wsdl.extensions.UnknownExtensibilityElement;
-import javax.wsdl.extensions.http.HTTPOperation;
 import javax.wsdl.extensions.mime.MIMEContent;
 import javax.xml.namespace.QName;
 import java.io.IOException;
@@ -71,6 +68,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HttpMethodConverter {
 
@@ -82,11 +80,54 @@ public class HttpMethodConverter {
     protected QName serviceName;
     protected String portName;
 
+    // request templates of the binding operations, by operation name, input name and output name
+    // (the operations of the process model are distinct objects from the ones of this definition)
+    private final ConcurrentHashMap<String, HttpRequestTemplate> templates = new ConcurrentHashMap<String, HttpRequestTemplate>();
+
     public HttpMethodConverter(Definition definition, QName serviceName, String portName) {
         this.definition = definition;
         this.binding = definition.getService(serviceName).getPort(portName).getBinding();
         this.serviceName = serviceName;
         this.portName = portName;
+
+        // compile the request templates once for all
+        for (Iterator it = binding.getBindingOperations().iterator(); it.hasNext();) {
+            BindingOperation bindingOperation = (BindingOperation) it.next();
+            try {
+                templates.put(templateKey(bindingOperation.getOperation()), new HttpRequestTemplate(binding, bindingOperation));
+            } catch (RuntimeException e) {
+                // report the error when the operation is invoked
+                if (log.isDebugEnabled()) log.debug("Unable to compile the request template of operation " + bindingOperation.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Key of the template of an operation: its name, input name and output name, as looked up by
+     * {@link Binding#getBindingOperation(String, String, String)}.
+     */
+    private static String templateKey(Operation operation) {
+        String inputName = operation.getInput() == null ? null : operation.getInput().getName();
+        String outputName = operation.getOutput() == null ? null : operation.getOutput().getName();
+        return operation.getName() + '\n' + inputName + '\n' + outputName;
+    }
+
+    protected HttpRequestTemplate getTemplate(Operation operation) {
+        String key = templateKey(operation);
+        HttpRequestTemplate template = templates.get(key);
+        if (template == null) {
+            BindingOperation bindingOperation = binding.getBindingOperation(operation.getName(), operation.getInput().getName(), operation.getOutput().getName());
+            template = new HttpRequestTemplate(binding, bindingOperation);
+            HttpRequestTemplate existing = templates.putIfAbsent(key, template);
+            if (existing != null) template = existing;
+        }
+        return template;
+    }
+
+    protected HttpRequestTemplate getTemplate(BindingOperation bindingOperation) {
+        HttpRequestTemplate template = templates.get(templateKey(bindingOperation.getOperation()));
+        // a binding operation of another binding is not cached
+        return template != null && template.bindingOperation == bindingOperation ? template : new HttpRequestTemplate(binding, bindingOperation);
     }
 
 
@@ -96,7 +137,7 @@ public class HttpMethodConverter {
 
     public HttpMethod createHttpRequest(PartnerRoleMessageExchange odeMex, HttpParams params, String baseUrl) throws UnsupportedEncodingException {
         Operation operation = odeMex.getOperation();
-        BindingOperation bindingOperation = binding.getBindingOperation(operation.getName(), operation.getInput().getName(), operation.getOutput().getName());
+        HttpRequestTemplate template = getTemplate(operation);
 
         // message to be sent
         Element message = odeMex.getRequest().getMessage();
@@ -105,12 +146,8 @@ public class HttpMethodConverter {
         // extract part values into a map and check that all parts are assigned a value
         Map<String, Element> partElements = extractPartElements(msgDef, message);
 
-        // http method type
-        // the operation may override the verb, this is an extension for RESTful BPEL
-        String verb = WsdlUtils.resolveVerb(binding, bindingOperation);
-
         // build the http method itself
-        HttpMethod method = prepareHttpMethod(bindingOperation, verb, partElements, odeMex.getRequest().getHeaderParts(), baseUrl, params);
+        HttpMethod method = prepareHttpMethod(template, partElements, odeMex.getRequest().getHeaderParts(), baseUrl, params);
 
         return method;
     }
@@ -123,37 +160,26 @@ public class HttpMethodConverter {
      * See usages of HostParams.DEFAULT_HEADERS
      * See org.apache.commons.httpclient.HttpMethodDirector#executeMethod(org.apache.commons.httpclient.HttpMethod)
      */
-    protected HttpMethod prepareHttpMethod(BindingOperation opBinding, String verb, Map<String, Element> partValues, Map<String, Node> headers,
+    protected HttpMethod prepareHttpMethod(HttpRequestTemplate template, Map<String, Element> partValues, Map<String, Node> headers,
                                            final String rootUri, HttpParams params) throws UnsupportedEncodingException {
         if (log.isDebugEnabled()) log.debug("Preparing http request...");
         // convenience variables...
-        BindingInput bindingInput = opBinding.getBindingInput();
-        HTTPOperation httpOperation = (HTTPOperation) WsdlUtils.getOperationExtension(opBinding);
-        MIMEContent content = WsdlUtils.getMimeContent(bindingInput.getExtensibilityElements());
-        String contentType = content == null ? null : content.getType();
-        boolean useUrlEncoded = WsdlUtils.useUrlEncoded(bindingInput) || PostMethod.FORM_URL_ENCODED_CONTENT_TYPE.equalsIgnoreCase(contentType);
-        boolean useUrlReplacement = WsdlUtils.useUrlReplacement(bindingInput);
+        String verb = template.verb;
+        String contentType = template.contentType;
+        boolean useUrlEncoded = template.useUrlEncoded;
 
         // the http method to be built and returned
         HttpMethod method = null;
 
         // the 4 elements the http method may be made of
-        String relativeUri = httpOperation.getLocationURI();
         String queryPath = null;
         RequestEntity requestEntity;
         String encodedParams = null;
 
-        // ODE supports uri template in both port and operation location.
-        // so assemble the final url *before* replacement
-        String completeUri = rootUri;
-        if (StringUtils.isNotEmpty(relativeUri)) {
-            completeUri = completeUri + (completeUri.endsWith("/") || relativeUri.startsWith("/") ? "" : "/") + relativeUri;
-        }
+        // insert part values in the url if urlReplacement is used
+        String completeUri = template.completeUri(rootUri, partValues);
 
-        if (useUrlReplacement) {
-            // insert part values in the url
-            completeUri = new UrlReplacementTransformer().transform(completeUri, partValues);
-        } else if (useUrlEncoded) {
+        if (!template.useUrlReplacement && useUrlEncoded) {
             // encode part values
             encodedParams = new URLEncodedTransformer().transform(partValues);
         }
@@ -195,7 +221,7 @@ public class HttpMethodConverter {
                 requestEntity = new StringRequestEntity(encodedParams, PostMethod.FORM_URL_ENCODED_CONTENT_TYPE, contentCharset);
             } else {
                 // get the part to be put in the body
-                Part part = opBinding.getOperation().getInput().getMessage().getPart(content.getPart());
+                Part part = template.bodyPart;
                 Element partValue = partValues.get(part.getName());
 
                 if (part.getElementName() == null) {
@@ -229,7 +255,7 @@ public class HttpMethodConverter {
         method.setQueryString(queryPath);
 
         // set headers
-        setHttpRequestHeaders(method, opBinding, partValues, headers, params);
+        setHttpRequestHeaders(method, template, partValues, headers, params);
         return method;
     }
 
@@ -251,9 +277,10 @@ public class HttpMethodConverter {
      *
      */
     public void setHttpRequestHeaders(HttpMethod method, BindingOperation opBinding, Map<String, Element> partValues, Map<String, Node> headers, HttpParams params) {
-        BindingInput inputBinding = opBinding.getBindingInput();
-        Message inputMessage = opBinding.getOperation().getInput().getMessage();
+        setHttpRequestHeaders(method, getTemplate(opBinding), partValues, headers, params);
+    }
 
+    protected void setHttpRequestHeaders(HttpMethod method, HttpRequestTemplate template, Map<String, Element> partValues, Map<String, Node> headers, HttpParams params) {
         // Do not let HttpClient manage the default headers
         // Actually the default headers should be overriden by any headers set from the process.
         // (Not to mention that, for a given header, HttpClient do not overwrite any previous values but simply append the default value)
@@ -275,20 +302,17 @@ public class HttpMethodConverter {
         }
 
         // process parts that are bound to message parts
-        Collection<UnknownExtensibilityElement> headerBindings = WsdlUtils.getHttpHeaders(inputBinding.getExtensibilityElements());
-        for (Iterator<UnknownExtensibilityElement> iterator = headerBindings.iterator(); iterator.hasNext();) {
-            Element binding = iterator.next().getElement();
-            String headerName = binding.getAttribute("name");
-            String partName = binding.getAttribute("part");
-            String value = binding.getAttribute("value");
+        for (HttpRequestTemplate.HeaderBinding binding : template.headerBindings) {
+            String headerName = binding.name;
+            String partName = binding.partName;
+            String value = binding.value;
 
             /* Header binding may use a part or a static value */
             String headerValue;
             if (StringUtils.isNotEmpty(partName)) {
                 // 'part' attribute is used
                 // get the part to be put in the header
-                Part part = inputMessage.getPart(partName);
-                Element partWrapper = partValues.get(part.getName());
+                Element partWrapper = partValues.get(partName);
                 if (DOMUtils.isEmptyElement(partWrapper)) {
                     headerValue = "";
                 } else {
@@ -324,10 +348,9 @@ public class HttpMethodConverter {
                 method.setRequestHeader(headerName, HttpHelper.replaceCRLFwithLWS(headerValue));
         }
 
-        MIMEContent outputContent = WsdlUtils.getMimeContent(opBinding.getBindingOutput().getExtensibilityElements());
         // set Accept header if output content type is set
-        if (outputContent != null) {
-            method.setRequestHeader("Accept", outputContent.getType());
+        if (template.acceptType != null) {
+            method.setRequestHeader("Accept", template.acceptType);
         }
 
     }
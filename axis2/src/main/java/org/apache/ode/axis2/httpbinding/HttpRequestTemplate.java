@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.axis2.httpbinding;
+
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.lang.StringUtils;
+import org.apache.ode.axis2.util.UrlReplacementTransformer;
+import org.apache.ode.utils.wsdl.WsdlUtils;
+import org.w3c.dom.Element;
+
+import javax.wsdl.Binding;
+import javax.wsdl.BindingInput;
+import javax.wsdl.BindingOperation;
+import javax.wsdl.Message;
+import javax.wsdl.Part;
+import javax.wsdl.extensions.UnknownExtensibilityElement;
+import javax.wsdl.extensions.http.HTTPOperation;
+import javax.wsdl.extensions.mime.MIMEContent;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of an HTTP request which only depend on the binding of its operation: verb, encodings, location, body part
+ * and header bindings. Templates are compiled once per operation, so that building a request only takes the
+ * substitution of the message values.
+ */
+class HttpRequestTemplate {
+
+    final BindingOperation bindingOperation;
+    final String verb;
+    final String contentType;
+    final boolean useUrlEncoded;
+    final boolean useUrlReplacement;
+    final String relativeUri;
+    /** the part sent as the request body, if any */
+    final Part bodyPart;
+    /** the part names in the order of the message part values, i.e. the replacement order */
+    final Collection<String> partNames;
+    final List<HeaderBinding> headerBindings;
+    /** the content type of the operation output, null if none */
+    final String acceptType;
+
+    /** the complete uri template compiled for the last root uri, root uris are usually the same for all requests */
+    private volatile CompiledUri compiledUri;
+
+    /**
+     * A {@linkplain org.apache.ode.utils.Namespaces#ODE_HTTP_EXTENSION_NS}{@code :header} element of the input binding.
+     */
+    static class HeaderBinding {
+        final String name;
+        final String partName;
+        final String value;
+
+        HeaderBinding(Element binding) {
+            this.name = binding.getAttribute("name");
+            this.partName = binding.getAttribute("part");
+            this.value = binding.getAttribute("value");
+        }
+    }
+
+    private static class CompiledUri {
+        final String rootUri;
+        final UrlReplacementTransformer.Template template;
+
+        CompiledUri(String rootUri, UrlReplacementTransformer.Template template) {
+            this.rootUri = rootUri;
+            this.template = template;
+        }
+    }
+
+    HttpRequestTemplate(Binding binding, BindingOperation opBinding) {
+        this.bindingOperation = opBinding;
+        // the operation may override the verb, this is an extension for RESTful BPEL
+        this.verb = WsdlUtils.resolveVerb(binding, opBinding);
+
+        BindingInput bindingInput = opBinding.getBindingInput();
+        HTTPOperation httpOperation = (HTTPOperation) WsdlUtils.getOperationExtension(opBinding);
+        MIMEContent content = WsdlUtils.getMimeContent(bindingInput.getExtensibilityElements());
+        this.contentType = content == null ? null : content.getType();
+        this.useUrlEncoded = WsdlUtils.useUrlEncoded(bindingInput) || PostMethod.FORM_URL_ENCODED_CONTENT_TYPE.equalsIgnoreCase(contentType);
+        this.useUrlReplacement = WsdlUtils.useUrlReplacement(bindingInput);
+        this.relativeUri = httpOperation.getLocationURI();
+
+        Message inputMessage = opBinding.getOperation().getInput().getMessage();
+        this.bodyPart = content == null ? null : inputMessage.getPart(content.getPart());
+
+        // same map type as the part values, so that parts are replaced in the same order
+        Map<String, Object> parts = new HashMap<String, Object>();
+        for (Iterator iterator = inputMessage.getParts().values().iterator(); iterator.hasNext();) {
+            parts.put(((Part) iterator.next()).getName(), null);
+        }
+        this.partNames = new ArrayList<String>(parts.keySet());
+
+        List<HeaderBinding> headers = new ArrayList<HeaderBinding>();
+        for (UnknownExtensibilityElement e : WsdlUtils.getHttpHeaders(bindingInput.getExtensibilityElements())) {
+            headers.add(new HeaderBinding(e.getElement()));
+        }
+        this.headerBindings = headers;
+
+        MIMEContent outputContent = WsdlUtils.getMimeContent(opBinding.getBindingOutput().getExtensibilityElements());
+        this.acceptType = outputContent == null ? null : outputContent.getType();
+    }
+
+    /**
+     * @return the request uri: root uri and operation location, with the part values inserted if the binding uses urlReplacement
+     */
+    String completeUri(String rootUri, Map<String, Element> partValues) {
+        if (!useUrlReplacement) return concat(rootUri);
+
+        CompiledUri compiled = compiledUri;
+        if (compiled == null || !compiled.rootUri.equals(rootUri)) {
+            // ODE supports uri template in both port and operation location.
+            // so compile the complete url
+            compiled = new CompiledUri(rootUri, new UrlReplacementTransformer().compile(concat(rootUri), partNames));
+            compiledUri = compiled;
+        }
+        return compiled.template.expand(partValues);
+    }
+
+    private String concat(String rootUri) {
+        String completeUri = rootUri;
+        if (StringUtils.isNotEmpty(relativeUri)) {
+            completeUri = completeUri + (completeUri.endsWith("/") || relativeUri.startsWith("/") ? "" : "/") + relativeUri;
+        }
+        return completeUri;
+    }
+}
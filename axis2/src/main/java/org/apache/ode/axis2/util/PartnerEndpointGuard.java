@@ -0,0 +1,271 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.axis2.util;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.utils.Properties;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Isolates the invocations of a partner endpoint from the other endpoints: a bulkhead bounds the number of
+ * concurrent (and waiting) invocations of the endpoint, so that a slow partner can not take every outbound thread,
+ * and a circuit breaker fails invocations right away while the partner keeps failing, instead of having each of them
+ * wait for a timeout. When the circuit has been open for the configured time, one trial invocation is let through;
+ * it closes the circuit if it succeeds and opens it again otherwise.
+ *
+ * Guards are configured with the endpoint properties (see {@link Properties#PROP_PARTNER_MAX_CONCURRENT_CALLS},
+ * {@link Properties#PROP_PARTNER_CIRCUIT_BREAKER_FAILURES}), which leave both disabled by default. A guard is shared
+ * by all the external services of an endpoint (service and port) that have the same configuration; its configuration
+ * never changes, a process with other endpoint properties (or reloaded ones) gets a guard of its own.
+ *
+ * An invocation first reserves its place with {@link #tryAcquire()}, when the message exchange is sent. The
+ * reservation is then either given up with {@link #release()} (e.g. the transaction rolled back) or turned into an
+ * actual call with {@link #submit(ExecutorService, Callable)}, which reports its outcome with
+ * {@link #recordSuccess()} or {@link #recordFailure()}.
+ */
+public class PartnerEndpointGuard {
+    private static final Logger __log = LoggerFactory.getLogger(PartnerEndpointGuard.class);
+
+    private static final ConcurrentMap<String, PartnerEndpointGuard> __guards = new ConcurrentHashMap<String, PartnerEndpointGuard>();
+
+    private static final long DEFAULT_OPEN_TIME = 30000;
+
+    private final String _name;
+
+    private final int _maxConcurrent;
+
+    private final int _maxQueued;
+
+    private final int _failureThreshold;
+
+    private final long _openTime;
+
+    private int _reserved;
+
+    private int _running;
+
+    private final LinkedList<Runnable> _queue = new LinkedList<Runnable>();
+
+    private final AtomicInteger _consecutiveFailures = new AtomicInteger();
+
+    /** Time until which the circuit is open, 0 when closed. */
+    private final AtomicLong _openUntil = new AtomicLong();
+
+    private final Histogram _time;
+
+    private final Counter _inFlight;
+
+    private final Counter _rejected;
+
+    PartnerEndpointGuard(String name, Map<String, String> properties) {
+        this(name, intProperty(properties, Properties.PROP_PARTNER_MAX_CONCURRENT_CALLS, 0),
+                intProperty(properties, Properties.PROP_PARTNER_MAX_QUEUED_CALLS, 0),
+                intProperty(properties, Properties.PROP_PARTNER_CIRCUIT_BREAKER_FAILURES, 0),
+                openTime(properties));
+    }
+
+    private PartnerEndpointGuard(String name, int maxConcurrent, int maxQueued, int failureThreshold, long openTime) {
+        _name = name;
+        _maxConcurrent = maxConcurrent;
+        _maxQueued = maxQueued;
+        _failureThreshold = failureThreshold;
+        _openTime = openTime;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        _time = metrics.histogram("partner.endpoint." + name + ".time");
+        _inFlight = metrics.counter("partner.endpoint." + name + ".inflight");
+        _rejected = metrics.counter("partner.endpoint." + name + ".rejected");
+    }
+
+    /**
+     * Get the guard of an endpoint for the given endpoint properties, the guards of an endpoint are keyed by their
+     * configuration.
+     */
+    public static PartnerEndpointGuard forEndpoint(QName serviceName, String portName, Map<String, String> properties) {
+        String name = endpointName(serviceName, portName);
+        int maxConcurrent = intProperty(properties, Properties.PROP_PARTNER_MAX_CONCURRENT_CALLS, 0);
+        int maxQueued = intProperty(properties, Properties.PROP_PARTNER_MAX_QUEUED_CALLS, 0);
+        int failureThreshold = intProperty(properties, Properties.PROP_PARTNER_CIRCUIT_BREAKER_FAILURES, 0);
+        long openTime = openTime(properties);
+        String key = name + "[" + maxConcurrent + "," + maxQueued + "," + failureThreshold + "," + openTime + "]";
+        PartnerEndpointGuard guard = __guards.get(key);
+        if (guard == null) {
+            guard = new PartnerEndpointGuard(name, maxConcurrent, maxQueued, failureThreshold, openTime);
+            PartnerEndpointGuard existing = __guards.putIfAbsent(key, guard);
+            if (existing != null) guard = existing;
+        }
+        return guard;
+    }
+
+    public static String endpointName(QName serviceName, String portName) {
+        String name = serviceName.getLocalPart() + "." + portName;
+        if (serviceName.getNamespaceURI().length() > 0)
+            name = "{" + serviceName.getNamespaceURI() + "}" + name;
+        return name;
+    }
+
+    private static long openTime(Map<String, String> properties) {
+        long openTime = intProperty(properties, Properties.PROP_PARTNER_CIRCUIT_BREAKER_OPEN_TIME, (int) DEFAULT_OPEN_TIME);
+        return openTime > 0 ? openTime : DEFAULT_OPEN_TIME;
+    }
+
+    private static int intProperty(Map<String, String> properties, String name, int dflt) {
+        String value = properties == null ? null : properties.get(name);
+        if (value == null) return dflt;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            __log.warn("Invalid value for endpoint property " + name + ": " + value);
+            return dflt;
+        }
+    }
+
+    /**
+     * Reserve a place for an invocation.
+     * @return null if the invocation may proceed, otherwise the reason why it is rejected
+     */
+    public String tryAcquire() {
+        long openUntil = _openUntil.get();
+        if (openUntil != 0) {
+            long now = now();
+            // once the open time is over, the first invocation is the trial one and the circuit stays open for the others
+            if (now < openUntil || !_openUntil.compareAndSet(openUntil, now + _openTime)) {
+                _rejected.inc();
+                return "Circuit open for partner endpoint " + _name + " after repeated failures";
+            }
+            if (__log.isDebugEnabled()) __log.debug("Sending trial invocation to partner endpoint " + _name);
+        }
+        synchronized (this) {
+            if (_maxConcurrent > 0 && _reserved + _running + _queue.size() >= _maxConcurrent + Math.max(0, _maxQueued)) {
+                _rejected.inc();
+                return "Too many concurrent invocations of partner endpoint " + _name;
+            }
+            _reserved++;
+        }
+        return null;
+    }
+
+    /**
+     * Give up a reservation that will not be submitted.
+     */
+    public synchronized void release() {
+        if (_reserved > 0) _reserved--;
+    }
+
+    /**
+     * Run a reserved invocation on the executor, once the number of running invocations of the endpoint allows it.
+     */
+    public void submit(final ExecutorService executor, final Callable<?> call) {
+        Runnable task = new Runnable() {
+            public void run() {
+                long start = System.nanoTime();
+                _inFlight.inc();
+                try {
+                    call.call();
+                } catch (Throwable t) {
+                    __log.error("Unexpected error invoking partner endpoint " + _name, t);
+                } finally {
+                    _inFlight.dec();
+                    _time.record(MetricsRegistry.micros(start));
+                    completed(executor);
+                }
+            }
+        };
+        synchronized (this) {
+            if (_reserved > 0) _reserved--;
+            if (_maxConcurrent > 0 && _running >= _maxConcurrent) {
+                _queue.add(task);
+                return;
+            }
+            _running++;
+        }
+        dispatch(executor, task);
+    }
+
+    private void completed(ExecutorService executor) {
+        Runnable next;
+        synchronized (this) {
+            next = _queue.poll();
+            if (next == null) {
+                _running--;
+                return;
+            }
+        }
+        dispatch(executor, next);
+    }
+
+    private void dispatch(ExecutorService executor, Runnable task) {
+        try {
+            executor.submit(task);
+        } catch (RuntimeException e) {
+            completed(executor);
+            throw e;
+        }
+    }
+
+    public void recordSuccess() {
+        _consecutiveFailures.set(0);
+        if (_openUntil.getAndSet(0) != 0)
+            __log.info("Circuit closed for partner endpoint " + _name);
+    }
+
+    public void recordFailure() {
+        int threshold = _failureThreshold;
+        if (threshold <= 0) return;
+        if (_openUntil.get() != 0 || _consecutiveFailures.incrementAndGet() >= threshold) {
+            _consecutiveFailures.set(0);
+            _openUntil.set(now() + _openTime);
+            __log.warn("Circuit opened for partner endpoint " + _name + " for " + _openTime + "ms");
+        }
+    }
+
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    public boolean isOpen() {
+        return _openUntil.get() != 0;
+    }
+
+    public synchronized int getQueuedCount() {
+        return _queue.size();
+    }
+
+    public synchronized int getRunningCount() {
+        return _running;
+    }
+
+    public String getName() {
+        return _name;
+    }
+}
@@ -0,0 +1,509 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.axis2.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.epr.MutableEndpoint;
+import org.apache.ode.bpel.iapi.Message;
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.Properties;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Cache of the responses of idempotent partner operations, so that identical requests to reference data partners
+ * are answered without a network call. The operations to cache are listed in the endpoint properties
+ * (see {@link Properties#PROP_PARTNER_CACHE_OPERATIONS}); nothing is cached by default.
+ *
+ * Responses are keyed on a digest of the operation, the endpoint address and the request message and headers
+ * (including any authentication part), in a form that does not depend on namespace prefixes, and kept (message and header parts) for the configured time to live. Once expired, a response may still be returned for the
+ * configured stale time while a single invocation goes to the partner and refreshes it. Only successful responses
+ * are cached, faults and failures always reach the process.
+ *
+ * A cache is shared by all the external services of an endpoint (service and port) that have the same cache
+ * configuration and the same credentials in their endpoint properties; its configuration never changes, a process
+ * with other endpoint properties (or reloaded ones) gets a cache of its own. Hits, misses, stale hits and evictions
+ * are published as <code>partner.cache.&lt;endpoint&gt;.*</code> counters.
+ */
+public class PartnerResponseCache {
+    private static final Logger __log = LoggerFactory.getLogger(PartnerResponseCache.class);
+
+    private static final ConcurrentMap<String, PartnerResponseCache> __caches = new ConcurrentHashMap<String, PartnerResponseCache>();
+
+    private static final long DEFAULT_TTL = 60000;
+
+    private static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final String DIRECT_STORE = "direct";
+
+    private static final String XMLNS_NS = "http://www.w3.org/2000/xmlns/";
+
+    /** Elements of the serialized form of a response: the message followed by its header parts. */
+    private static final String RESPONSE_ELEMENT = "response";
+    private static final String HEADER_ELEMENT = "header";
+    private static final String HEADER_PART_ATTRIBUTE = "part";
+
+    /**
+     * A response read from the cache.
+     */
+    public static class CachedResponse {
+        private final Element _message;
+        private final Map<String, Element> _headerParts;
+
+        CachedResponse(Element message, Map<String, Element> headerParts) {
+            _message = message;
+            _headerParts = headerParts;
+        }
+
+        public Element getMessage() {
+            return _message;
+        }
+
+        public Map<String, Element> getHeaderParts() {
+            return _headerParts;
+        }
+    }
+
+    private static class Entry {
+        final ByteBuffer response;
+        final long created;
+        /** Time until which an invocation is refreshing the expired response. */
+        long refreshUntil;
+
+        Entry(ByteBuffer response, long created) {
+            this.response = response;
+            this.created = created;
+        }
+    }
+
+    private final String _name;
+
+    private final Set<String> _operations;
+
+    private final long _ttl;
+
+    private final long _staleTime;
+
+    private final int _maxEntries;
+
+    private final long _maxBytes;
+
+    private final boolean _direct;
+
+    /** Entries in access order, the least recently used first. */
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private long _bytes;
+
+    private final Counter _hits;
+
+    private final Counter _misses;
+
+    private final Counter _staleHits;
+
+    private final Counter _evictions;
+
+    PartnerResponseCache(String name, Map<String, String> properties) {
+        this(name, operations(properties), ttl(properties),
+                Math.max(0, longProperty(properties, Properties.PROP_PARTNER_CACHE_STALE_TIME, 0)),
+                (int) longProperty(properties, Properties.PROP_PARTNER_CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES),
+                longProperty(properties, Properties.PROP_PARTNER_CACHE_MAX_BYTES, 0),
+                DIRECT_STORE.equalsIgnoreCase(properties.get(Properties.PROP_PARTNER_CACHE_STORE)));
+    }
+
+    private PartnerResponseCache(String name, Set<String> operations, long ttl, long staleTime, int maxEntries,
+                                 long maxBytes, boolean direct) {
+        _name = name;
+        _operations = operations;
+        _ttl = ttl;
+        _staleTime = staleTime;
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+        _direct = direct;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        _hits = metrics.counter("partner.cache." + name + ".hits");
+        _misses = metrics.counter("partner.cache." + name + ".misses");
+        _staleHits = metrics.counter("partner.cache." + name + ".stale");
+        _evictions = metrics.counter("partner.cache." + name + ".evictions");
+    }
+
+    /**
+     * Get the cache of an endpoint for the given endpoint properties, the caches of an endpoint are keyed by their
+     * configuration and by the credentials in the endpoint properties.
+     * @return the cache, or null if the endpoint properties do not cache any operation
+     */
+    public static PartnerResponseCache forEndpoint(QName serviceName, String portName, Map<String, String> properties) {
+        if (properties == null || properties.get(Properties.PROP_PARTNER_CACHE_OPERATIONS) == null) return null;
+        Set<String> operations = operations(properties);
+        if (operations.isEmpty()) return null;
+
+        String name = PartnerEndpointGuard.endpointName(serviceName, portName);
+        long ttl = ttl(properties);
+        long staleTime = Math.max(0, longProperty(properties, Properties.PROP_PARTNER_CACHE_STALE_TIME, 0));
+        int maxEntries = (int) longProperty(properties, Properties.PROP_PARTNER_CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES);
+        long maxBytes = longProperty(properties, Properties.PROP_PARTNER_CACHE_MAX_BYTES, 0);
+        boolean direct = DIRECT_STORE.equalsIgnoreCase(properties.get(Properties.PROP_PARTNER_CACHE_STORE));
+        String key = name + operations + "[" + ttl + "," + staleTime + "," + maxEntries + "," + maxBytes + ","
+                + direct + "," + credentials(properties) + "]";
+        PartnerResponseCache cache = __caches.get(key);
+        if (cache == null) {
+            cache = new PartnerResponseCache(name, operations, ttl, staleTime, maxEntries, maxBytes, direct);
+            PartnerResponseCache existing = __caches.putIfAbsent(key, cache);
+            if (existing != null) cache = existing;
+        }
+        return cache;
+    }
+
+    private static Set<String> operations(Map<String, String> properties) {
+        String operations = properties.get(Properties.PROP_PARTNER_CACHE_OPERATIONS);
+        Set<String> names = new TreeSet<String>();
+        if (operations != null) {
+            for (String name : operations.trim().split("\\s*,\\s*"))
+                if (name.length() > 0) names.add(name);
+        }
+        return names;
+    }
+
+    private static long ttl(Map<String, String> properties) {
+        long ttl = longProperty(properties, Properties.PROP_PARTNER_CACHE_TTL, DEFAULT_TTL);
+        return ttl > 0 ? ttl : DEFAULT_TTL;
+    }
+
+    /**
+     * Digest of the endpoint properties that carry credentials (default HTTP headers, proxy and security policy),
+     * so that callers with different credentials never share responses.
+     */
+    static String credentials(Map<String, String> properties) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (Map.Entry<String, String> property : new TreeMap<String, String>(properties).entrySet()) {
+                String name = property.getKey();
+                if (name.startsWith(Properties.PROP_HTTP_HEADER_PREFIX) || name.startsWith(Properties.PROP_HTTP_PROXY_PREFIX)
+                        || name.equals(Properties.PROP_SECURITY_POLICY)) {
+                    update(digest, name);
+                    update(digest, property.getValue());
+                }
+            }
+            return hex(new StringBuilder(), digest.digest()).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long longProperty(Map<String, String> properties, String name, long dflt) {
+        String value = properties.get(name);
+        if (value == null) return dflt;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            __log.warn("Invalid value for endpoint property " + name + ": " + value);
+            return dflt;
+        }
+    }
+
+    /**
+     * @return the cache key of the request if its operation is cached, null otherwise
+     */
+    public String keyFor(PartnerRoleMessageExchange odeMex) {
+        if (odeMex.getMessageExchangePattern() != MessageExchange.MessageExchangePattern.REQUEST_RESPONSE
+                || !_operations.contains(odeMex.getOperationName()))
+            return null;
+        Message request = odeMex.getRequest();
+        String url = odeMex.getEndpointReference() instanceof MutableEndpoint
+                ? ((MutableEndpoint) odeMex.getEndpointReference()).getUrl() : null;
+        return key(odeMex.getOperationName(), url, request.getMessage(), request.getHeaderParts());
+    }
+
+    static String key(String operation, String url, Element message, Map<String, Node> headers) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            update(digest, operation);
+            update(digest, url);
+            update(digest, message);
+            if (headers != null) {
+                // header parts in a stable order
+                for (Map.Entry<String, Node> header : new TreeMap<String, Node>(headers).entrySet()) {
+                    update(digest, header.getKey());
+                    update(digest, header.getValue());
+                }
+            }
+            return hex(new StringBuilder(operation).append(':'), digest.digest()).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+        if (value != null) digest.update(value.getBytes("UTF-8"));
+        // separator, so that the boundaries of the values are part of the key
+        digest.update((byte) 0);
+    }
+
+    /**
+     * Digest a DOM tree by expanded names, sorted attributes and merged text, so that namespace prefixes,
+     * namespace declarations, attribute order and the split of text nodes do not change the key.
+     */
+    private static void update(MessageDigest digest, Node node) throws UnsupportedEncodingException {
+        if (node == null) {
+            update(digest, (String) null);
+            return;
+        }
+        if (node.getNodeType() == Node.DOCUMENT_NODE) node = ((Document) node).getDocumentElement();
+        if (node.getNodeType() != Node.ELEMENT_NODE) {
+            update(digest, node.getNodeValue());
+            return;
+        }
+        update(digest, "<{" + (node.getNamespaceURI() == null ? "" : node.getNamespaceURI()) + "}" + localName(node));
+        NamedNodeMap attributes = node.getAttributes();
+        Map<String, String> sorted = new TreeMap<String, String>();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attr = attributes.item(i);
+            if (XMLNS_NS.equals(attr.getNamespaceURI())) continue;
+            sorted.put("{" + (attr.getNamespaceURI() == null ? "" : attr.getNamespaceURI()) + "}" + localName(attr),
+                    attr.getNodeValue());
+        }
+        for (Map.Entry<String, String> attr : sorted.entrySet()) {
+            update(digest, attr.getKey());
+            update(digest, attr.getValue());
+        }
+        StringBuilder text = new StringBuilder();
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+            case Node.TEXT_NODE:
+            case Node.CDATA_SECTION_NODE:
+                text.append(child.getNodeValue());
+                break;
+            case Node.ELEMENT_NODE:
+                if (text.length() > 0) {
+                    update(digest, text.toString());
+                    text.setLength(0);
+                }
+                update(digest, child);
+                break;
+            default:
+                // comments and processing instructions are not part of the request
+            }
+        }
+        if (text.length() > 0) update(digest, text.toString());
+        update(digest, ">");
+    }
+
+    private static String localName(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static StringBuilder hex(StringBuilder buffer, byte[] bytes) {
+        for (byte b : bytes) {
+            buffer.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return buffer;
+    }
+
+    /**
+     * Reply to the message exchange with the cached response, if any.
+     * @return true if the message exchange got its response from the cache
+     */
+    public boolean reply(PartnerRoleMessageExchange odeMex, String key) {
+        CachedResponse cached = lookup(key);
+        if (cached == null) return false;
+        if (__log.isDebugEnabled()) __log.debug("Cached response for MEX " + odeMex);
+        Message response = odeMex.createMessage(odeMex.getOperation().getOutput().getMessage().getQName());
+        response.setMessage(cached.getMessage());
+        for (Map.Entry<String, Element> header : cached.getHeaderParts().entrySet())
+            response.setHeaderPart(header.getKey(), header.getValue());
+        odeMex.reply(response);
+        return true;
+    }
+
+    /**
+     * @return a copy of the cached response message, or null if there is none or if the caller should refresh it
+     */
+    public Element get(String key) {
+        CachedResponse cached = lookup(key);
+        return cached == null ? null : cached.getMessage();
+    }
+
+    /**
+     * @return a copy of the cached response, or null if there is none or if the caller should refresh it
+     */
+    public CachedResponse lookup(String key) {
+        long now = System.currentTimeMillis();
+        Entry entry;
+        boolean stale = false;
+        synchronized (this) {
+            entry = _entries.get(key);
+            if (entry != null) {
+                long age = now - entry.created;
+                if (age > _ttl + _staleTime) {
+                    remove(key);
+                    entry = null;
+                } else if (age > _ttl) {
+                    if (entry.refreshUntil <= now) {
+                        // this invocation refreshes the response, the others get the stale one meanwhile
+                        entry.refreshUntil = now + _ttl;
+                        entry = null;
+                    } else {
+                        stale = true;
+                    }
+                }
+            }
+        }
+        if (entry == null) {
+            _misses.inc();
+            return null;
+        }
+        try {
+            ByteBuffer buffer = entry.response.duplicate();
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            Element root = DOMUtils.parse(new ByteArrayInputStream(bytes)).getDocumentElement();
+            Element message = null;
+            Map<String, Element> headers = new LinkedHashMap<String, Element>();
+            for (Element child = DOMUtils.getFirstChildElement(root); child != null; child = DOMUtils.getNextSiblingElement(child)) {
+                if (message == null) {
+                    message = child;
+                } else {
+                    Element part = DOMUtils.getFirstChildElement(child);
+                    if (part != null) headers.put(child.getAttribute(HEADER_PART_ATTRIBUTE), part);
+                }
+            }
+            _hits.inc();
+            if (stale) _staleHits.inc();
+            return new CachedResponse(message, headers);
+        } catch (Exception e) {
+            __log.warn("Dropping unreadable cached response " + key, e);
+            synchronized (this) {
+                if (_entries.get(key) == entry) remove(key);
+            }
+            _misses.inc();
+            return null;
+        }
+    }
+
+    /**
+     * Cache the message and header parts of a response.
+     */
+    public void put(String key, Message response) {
+        if (response == null) return;
+        put(key, response.getMessage(), response.getHeaderParts());
+    }
+
+    public void put(String key, Element response) {
+        put(key, response, null);
+    }
+
+    public void put(String key, Element response, Map<String, Node> headers) {
+        if (response == null) return;
+        Document doc = DOMUtils.newDocument();
+        Element root = doc.createElement(RESPONSE_ELEMENT);
+        doc.appendChild(root);
+        root.appendChild(doc.importNode(response, true));
+        if (headers != null) {
+            for (Map.Entry<String, Node> header : headers.entrySet()) {
+                if (header.getValue() == null) continue;
+                Element part = doc.createElement(HEADER_ELEMENT);
+                part.setAttribute(HEADER_PART_ATTRIBUTE, header.getKey());
+                part.appendChild(doc.importNode(header.getValue(), true));
+                root.appendChild(part);
+            }
+        }
+
+        byte[] bytes;
+        try {
+            bytes = DOMUtils.domToString(root).getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        if (_maxBytes > 0 && bytes.length > _maxBytes) return;
+        ByteBuffer buffer;
+        if (_direct) {
+            buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            buffer.flip();
+        } else {
+            buffer = ByteBuffer.wrap(bytes);
+        }
+
+        synchronized (this) {
+            remove(key);
+            _entries.put(key, new Entry(buffer, System.currentTimeMillis()));
+            _bytes += bytes.length;
+            Iterator<Map.Entry<String, Entry>> eldest = _entries.entrySet().iterator();
+            while ((_maxEntries > 0 && _entries.size() > _maxEntries) || (_maxBytes > 0 && _bytes > _maxBytes)) {
+                _bytes -= eldest.next().getValue().response.capacity();
+                eldest.remove();
+                _evictions.inc();
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = _entries.remove(key);
+        if (entry != null) _bytes -= entry.response.capacity();
+    }
+
+    public synchronized void clear() {
+        _entries.clear();
+        _bytes = 0;
+    }
+
+    public synchronized int size() {
+        return _entries.size();
+    }
+
+    public synchronized long getSizeInBytes() {
+        return _bytes;
+    }
+
+    public boolean isCached(String operation) {
+        return _operations.contains(operation);
+    }
+
+    public String getName() {
+        return _name;
+    }
+}
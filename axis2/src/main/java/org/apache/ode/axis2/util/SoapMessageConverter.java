@@ -380,6 +380,14 @@ public class SoapMessageConverter {
 
         List<Part> bodyParts = msg.getOrderedParts(bodyDef.getParts());
 
+        // parts are converted straight into the message document, without intermediate DOM copies
+        Element msgElmt = message.getMessage();
+        if (msgElmt == null) {
+            Document doc = DOMUtils.newDocument();
+            msgElmt = doc.createElement("message");
+            doc.appendChild(msgElmt);
+        }
+
         if (_isRPC) {
             QName rpcWrapQName = new QName(bodyDef.getNamespaceURI(), rpcWrapper);
             OMElement partWrapper = soapBody.getFirstChildWithName(rpcWrapQName);
@@ -392,7 +400,7 @@ public class SoapMessageConverter {
                 OMElement srcPart = partWrapper.getFirstChildWithName(new QName(null, pdef.getName()));
                 if (srcPart == null)
                     throw new OdeFault(__msgs.msgSOAPBodyDoesNotContainRequiredPart(pdef.getName()));
-                message.setPart(srcPart.getLocalName(), OMUtils.toDOM(srcPart));
+                OMUtils.appendDOM(srcPart, msgElmt);
             }
 
         } else {
@@ -408,12 +416,12 @@ public class SoapMessageConverter {
                     throw new OdeFault(__msgs.msgBindingDefinesNonElementDocListParts());
                 if (!srcPart.getQName().equals(partDef.getElementName()))
                     throw new OdeFault(__msgs.msgUnexpectedElementInSOAPBody(srcPart.getQName(), partDef.getElementName()));
-                Document doc = DOMUtils.newDocument();
-                Element destPart = doc.createElementNS(null, partDef.getName());
-                destPart.appendChild(doc.importNode(OMUtils.toDOM(srcPart), true));
-                message.setPart(partDef.getName(), destPart);
+                Element destPart = msgElmt.getOwnerDocument().createElementNS(null, partDef.getName());
+                msgElmt.appendChild(destPart);
+                OMUtils.appendDOM(srcPart, destPart);
             }
         }
+        message.setMessage(msgElmt);
     }
 
     public void extractSoapHeaderParts(org.apache.ode.bpel.iapi.Message message,
@@ -546,10 +554,9 @@ public class SoapMessageConverter {
         odeMsgEl.appendChild(partel);
 
         if (detail.getFirstChildWithName(pdef.getElementName()) != null) {
-            partel.appendChild(odeMsgEl.getOwnerDocument().importNode(
-                    OMUtils.toDOM(detail.getFirstChildWithName(pdef.getElementName())), true));
+            OMUtils.appendDOM(detail.getFirstChildWithName(pdef.getElementName()), partel);
         } else {
-            partel.appendChild(odeMsgEl.getOwnerDocument().importNode(OMUtils.toDOM(detail),true));
+            OMUtils.appendDOM(detail, partel);
         }
 
         return fdef;
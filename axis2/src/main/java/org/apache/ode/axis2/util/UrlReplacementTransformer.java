@@ -27,6 +27,7 @@ import org.apache.ode.utils.DOMUtils;
 import org.w3c.dom.Element;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -60,63 +61,37 @@ public class UrlReplacementTransformer {
      *          if a replacement value is null in the map or if a part pattern is found more than once
      */
     public String transform(String baseUri, Map<String, Element> values) {
-        // the list containing the final split result
+        return compile(baseUri, values.keySet()).expand(values);
+    }
+
+    /**
+     * Split the uri template around the patterns of the given parts once, so that it can be expanded for any
+     * part values without looking up the patterns again.
+     *
+     * @param baseUri   - the base uri template containing part names enclosed within single curly braces or parentheses
+     * @param partNames - the names of the parts to be replaced, in the order they are looked up
+     */
+    public Template compile(String baseUri, Collection<String> partNames) {
+        // the list containing the final split result: literal segments, each replaced segment being a part name
         List<String> result = new ArrayList<String>();
+        // the patterns found in the uri, for the parts with no simple value
+        List<String> patterns = new ArrayList<String>();
 
         // initial value
         result.add(baseUri);
 
         // replace each part exactly once
-        for (Map.Entry<String, Element> e : values.entrySet()) {
-
-            String partName = e.getKey();
-            String replacementValue;
-            {
-                Element value = e.getValue();
-                if (DOMUtils.isEmptyElement(value)) {
-                    replacementValue = "";
-                } else {
-                    /*
-                    The expected part value could be a simple type
-                    or an element of a simple type.
-                    So if a element is there, take its text content
-                    else take the text content of the part element itself
-                    */
-                    Element childElement = DOMUtils.getFirstChildElement(value);
-                    if (childElement != null) {
-                        replacementValue = DOMUtils.getTextContent(childElement);
-                    } else {
-                        replacementValue = DOMUtils.getTextContent(value);
-                    }
-                }
-            }
-
-            // if it is not a simple type, skip it
-            if (replacementValue != null) {
-                try {
-                    replacementValue = URIUtil.encodeWithinQuery(replacementValue);
-                } catch (URIException urie) {
-                    // this exception is never thrown by the code of httpclient
-                    if (log.isWarnEnabled()) log.warn(urie.getMessage(), urie);
-                }
-
-                // first, search for parentheses
-                String partPattern = "\\(" + partName + "\\)";
-                if (!replace(result, partPattern, replacementValue)) {
-                    // if parentheses not found, try braces
-                    partPattern = "\\{" + partName + "\\}";
-                    replace(result, partPattern, replacementValue);
-                }
+        for (String partName : partNames) {
+            // first, search for parentheses
+            if (!replace(result, patterns, "\\(" + partName + "\\)", "(" + partName + ")", partName)) {
+                // if parentheses not found, try braces
+                replace(result, patterns, "\\{" + partName + "\\}", "{" + partName + "}", partName);
             }
         }
-
-        // join all the array elements to form the final url
-        StringBuilder sb = new StringBuilder(128);
-        for (String aResult : result) sb.append(aResult);
-        return sb.toString();
+        return new Template(result, patterns);
     }
 
-    private boolean replace(List<String> result, String partPattern, String replacementValue) {
+    private boolean replace(List<String> result, List<String> patterns, String partPattern, String pattern, String partName) {
         // !!!  i=i+2      replacement values will be skipped,
         // so replaced values do not trigger additional matches
         for (int i = 0; i < result.size(); i = i + 2) {
@@ -128,10 +103,11 @@ public class UrlReplacementTransformer {
 
                 // remove the matching segment
                 result.remove(i);
-                // replace it with the replacement value
+                // replace it with the part
                 result.add(i, matches[0]);
-                result.add(i + 1, replacementValue);
+                result.add(i + 1, partName);
                 result.add(i + 2, matches[1]);
+                patterns.add(i / 2, pattern);
 
                 // pattern found and replaced, we're done for this pattern
                 // move on to the next part
@@ -140,4 +116,71 @@ public class UrlReplacementTransformer {
         }
         return false;
     }
+
+    /**
+     * An uri template split around its part patterns.
+     */
+    public static class Template {
+        // literal segments at even indexes, part names at odd indexes
+        private final String[] segments;
+        private final String[] patterns;
+
+        Template(List<String> segments, List<String> patterns) {
+            this.segments = segments.toArray(new String[segments.size()]);
+            this.patterns = patterns.toArray(new String[patterns.size()]);
+        }
+
+        /**
+         * @param values - a map<String, Element>, the key is a part name, the value the replacement value for the part name. If the value is not a simple type, the part pattern is left as is.
+         * @return the encoded uri
+         */
+        public String expand(Map<String, Element> values) {
+            StringBuilder sb = new StringBuilder(128);
+            for (int i = 0; i < segments.length; i++) {
+                if (i % 2 == 0) {
+                    sb.append(segments[i]);
+                    continue;
+                }
+                String replacementValue = values.containsKey(segments[i]) ? simpleValue(values.get(segments[i])) : null;
+                if (replacementValue == null) {
+                    // if it is not a simple type, skip it
+                    sb.append(patterns[i / 2]);
+                } else {
+                    try {
+                        sb.append(URIUtil.encodeWithinQuery(replacementValue));
+                    } catch (URIException urie) {
+                        // this exception is never thrown by the code of httpclient
+                        if (log.isWarnEnabled()) log.warn(urie.getMessage(), urie);
+                        sb.append(replacementValue);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return true if the template has no part to replace
+         */
+        public boolean isLiteral() {
+            return segments.length == 1;
+        }
+    }
+
+    private static String simpleValue(Element value) {
+        if (DOMUtils.isEmptyElement(value)) {
+            return "";
+        }
+        /*
+        The expected part value could be a simple type
+        or an element of a simple type.
+        So if a element is there, take its text content
+        else take the text content of the part element itself
+        */
+        Element childElement = DOMUtils.getFirstChildElement(value);
+        if (childElement != null) {
+            return DOMUtils.getTextContent(childElement);
+        } else {
+            return DOMUtils.getTextContent(value);
+        }
+    }
 }
@@ -18,6 +18,8 @@
  */
 package org.apache.ode.axis2;
 
+import java.io.StringReader;
+
 import javax.wsdl.Definition;
 import javax.wsdl.Operation;
 import javax.wsdl.PortType;
@@ -39,10 +41,13 @@ import org.apache.ode.axis2.util.SoapMessageConverter;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.bpel.engine.MessageImpl;
 import org.apache.ode.bpel.memdao.MessageDAOImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
 public class SoapMessageConverterTest extends TestCase {
+    private static final Logger log = LoggerFactory.getLogger(SoapMessageConverterTest.class);
 
     Definition wsdl1, wsdlHW;
     String wsdl1tns = "http://documentum.com/ws/2005/services";
@@ -169,4 +174,59 @@ public class SoapMessageConverterTest extends TestCase {
         System.out.println(DOMUtils.domToString(msg));
     }
 
+    /** Large and deeply namespaced payloads are converted in a single pass, namespaces preserved. */
+    public void testLargeNamespacedRequest() throws Exception {
+        SoapMessageConverter portmaper1 = new SoapMessageConverter(wsdlHW, new QName(wsdlHW
+                .getTargetNamespace(), "HelloService"), "HelloPort");
+
+        final int depth = 40;
+        StringBuilder payload = new StringBuilder();
+        payload.append("<SOAP-ENV:Envelope xmlns:SOAP-ENV=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:env=\"urn:env\">");
+        payload.append("<SOAP-ENV:Body><ns1:hello xmlns:ns1=\"http://ode/bpel/unit-test.wsdl\"><TestPart xmlns=\"\">");
+        int values = 0;
+        for (; payload.length() < 5 * 1024 * 1024; ++values) {
+            for (int i = 0; i < depth; ++i)
+                payload.append("<p").append(i).append(":e xmlns:p").append(i).append("=\"urn:ns").append(i)
+                        .append("\" type=\"").append(i == 0 ? "env" : "p" + (i - 1)).append(":t\">");
+            payload.append("value ").append(values);
+            for (int i = depth - 1; i >= 0; --i)
+                payload.append("</p").append(i).append(":e>");
+        }
+        payload.append("</TestPart></ns1:hello></SOAP-ENV:Body></SOAP-ENV:Envelope>");
+
+        XMLStreamReader sr = XMLInputFactory.newInstance().createXMLStreamReader(new StringReader(payload.toString()));
+        StAXSOAPModelBuilder builder = OMXMLBuilderFactory.createStAXSOAPModelBuilder(new SOAP11Factory(), sr);
+        SOAPEnvelope se = builder.getSOAPEnvelope();
+
+        MessageImpl odeMsg = new MessageImpl(new MessageDAOImpl(null));
+        long start = System.currentTimeMillis();
+        portmaper1.parseSoapRequest(odeMsg, se, opHello);
+        if (log.isDebugEnabled())
+            log.debug("testLargeNamespacedRequest: converted " + payload.length() + " chars in "
+                    + (System.currentTimeMillis() - start) + " ms");
+
+        Element part = odeMsg.getPart("TestPart");
+        assertNotNull(part);
+        // namespaces in scope of the part are declared on it
+        assertEquals("urn:env", part.lookupNamespaceURI("env"));
+        Element deepest = part;
+        for (int i = 0; i < depth; ++i) {
+            deepest = DOMUtils.getFirstChildElement(deepest);
+            assertEquals("urn:ns" + i, deepest.getNamespaceURI());
+        }
+        String type = deepest.getAttribute("type");
+        assertEquals("urn:ns" + (depth - 2), deepest.lookupNamespaceURI(type.substring(0, type.indexOf(':'))));
+        assertEquals("value 0", deepest.getTextContent());
+
+        // nothing is lost on the way: every value is converted, in order
+        int converted = 0;
+        Element last = null;
+        for (Element e = DOMUtils.getFirstChildElement(part); e != null; e = DOMUtils.getNextSiblingElement(e)) {
+            converted++;
+            last = e;
+        }
+        assertEquals(values, converted);
+        assertEquals("value " + (values - 1), last.getTextContent());
+    }
+
 }
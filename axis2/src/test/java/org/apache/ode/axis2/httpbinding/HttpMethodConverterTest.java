@@ -107,6 +107,19 @@ public class HttpMethodConverterTest extends TestCase {
         assertTrue(expectedUri.equalsIgnoreCase(httpMethod.getURI().toString()));
     }
 
+    public void testTemplateOfOperationFromAnotherDefinition() throws Exception {
+        // the process model holds its own copy of the operations
+        URL wsdlURL = getClass().getResource("/http-method-builder.wsdl");
+        WSDLReader wsdlReader = WSDLFactory.newInstance().newWSDLReader();
+        wsdlReader.setFeature("javax.wsdl.verbose", false);
+        Definition copy = wsdlReader.readWSDL(wsdlURL.toURI().toString());
+        Operation op = copy.getBinding(deliciousBinding.getQName()).getBindingOperation("getTag", null, null).getOperation();
+
+        HttpRequestTemplate template = deliciousBuilder.getTemplate(deliciousBinding.getBindingOperation("getTag", null, null).getOperation());
+        assertSame(template, deliciousBuilder.getTemplate(op));
+        assertSame(template, deliciousBuilder.getTemplate(op));
+    }
+
     public void testGetTagWithNoPart() throws Exception {
         String uri = ((HTTPAddress) deliciousPort.getExtensibilityElements().get(0)).getLocationURI();
         Element msgEl;
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.axis2.util;
+
+import junit.framework.TestCase;
+import org.apache.ode.utils.Properties;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+public class PartnerEndpointGuardTest extends TestCase {
+
+    /** Executor holding on to the submitted tasks until they are explicitly run. */
+    private static class ManualExecutor extends AbstractExecutorService {
+        List<Runnable> tasks = new ArrayList<Runnable>();
+
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runNext() {
+            tasks.remove(0).run();
+        }
+
+        public void shutdown() {
+        }
+
+        public List<Runnable> shutdownNow() {
+            return tasks;
+        }
+
+        public boolean isShutdown() {
+            return false;
+        }
+
+        public boolean isTerminated() {
+            return false;
+        }
+
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    /** Guard with a clock that only moves when told to. */
+    private static class ManualClockGuard extends PartnerEndpointGuard {
+        long time = 1000000;
+
+        ManualClockGuard(String name, Map<String, String> properties) {
+            super(name, properties);
+        }
+
+        long now() {
+            return time;
+        }
+    }
+
+    private static final Callable<Object> NOOP = new Callable<Object>() {
+        public Object call() {
+            return null;
+        }
+    };
+
+    private static Map<String, String> properties(String... props) {
+        Map<String, String> properties = new HashMap<String, String>();
+        for (int i = 0; i < props.length; i += 2)
+            properties.put(props[i], props[i + 1]);
+        return properties;
+    }
+
+    private ManualClockGuard guard(String name, String... props) {
+        return new ManualClockGuard(name, properties(props));
+    }
+
+    public void testUnguardedByDefault() {
+        PartnerEndpointGuard guard = guard("test.unguarded");
+        ManualExecutor executor = new ManualExecutor();
+        for (int i = 0; i < 100; i++) {
+            assertNull(guard.tryAcquire());
+            guard.submit(executor, NOOP);
+            guard.recordFailure();
+        }
+        assertEquals(100, executor.tasks.size());
+        assertFalse(guard.isOpen());
+    }
+
+    public void testBulkhead() {
+        PartnerEndpointGuard guard = guard("test.bulkhead",
+                Properties.PROP_PARTNER_MAX_CONCURRENT_CALLS, "2",
+                Properties.PROP_PARTNER_MAX_QUEUED_CALLS, "1");
+        ManualExecutor executor = new ManualExecutor();
+        for (int i = 0; i < 3; i++) {
+            assertNull(guard.tryAcquire());
+            guard.submit(executor, NOOP);
+        }
+        assertNotNull("Bulkhead full", guard.tryAcquire());
+        assertEquals(2, executor.tasks.size());
+        assertEquals(2, guard.getRunningCount());
+        assertEquals(1, guard.getQueuedCount());
+
+        // a completed call dispatches the queued one
+        executor.runNext();
+        assertEquals(2, executor.tasks.size());
+        assertEquals(0, guard.getQueuedCount());
+        assertNull(guard.tryAcquire());
+        guard.release();
+
+        executor.runNext();
+        executor.runNext();
+        assertEquals(0, guard.getRunningCount());
+    }
+
+    public void testReleasedReservation() {
+        PartnerEndpointGuard guard = guard("test.release",
+                Properties.PROP_PARTNER_MAX_CONCURRENT_CALLS, "1");
+        assertNull(guard.tryAcquire());
+        assertNotNull(guard.tryAcquire());
+        guard.release();
+        assertNull(guard.tryAcquire());
+    }
+
+    public void testCircuitBreaker() throws Exception {
+        ManualClockGuard guard = guard("test.breaker",
+                Properties.PROP_PARTNER_CIRCUIT_BREAKER_FAILURES, "3",
+                Properties.PROP_PARTNER_CIRCUIT_BREAKER_OPEN_TIME, "100");
+        guard.recordFailure();
+        guard.recordFailure();
+        guard.recordSuccess();
+        guard.recordFailure();
+        guard.recordFailure();
+        assertFalse("Failures are not consecutive", guard.isOpen());
+        guard.recordFailure();
+        assertTrue(guard.isOpen());
+        assertNotNull(guard.tryAcquire());
+
+        guard.time += 99;
+        assertNotNull("Still open", guard.tryAcquire());
+        guard.time += 1;
+        assertNull("Trial invocation", guard.tryAcquire());
+        assertNotNull("Only one trial invocation", guard.tryAcquire());
+        guard.recordFailure();
+        assertNotNull("Failed trial opens the circuit again", guard.tryAcquire());
+
+        guard.time += 100;
+        assertNull(guard.tryAcquire());
+        guard.recordSuccess();
+        assertFalse(guard.isOpen());
+        assertNull(guard.tryAcquire());
+    }
+
+    public void testSharedByEndpoint() {
+        QName service = new QName("urn:test", "Service");
+        Map<String, String> none = properties();
+        assertSame(PartnerEndpointGuard.forEndpoint(service, "Port", none),
+                PartnerEndpointGuard.forEndpoint(service, "Port", properties()));
+        assertNotSame(PartnerEndpointGuard.forEndpoint(service, "Port", none),
+                PartnerEndpointGuard.forEndpoint(service, "OtherPort", none));
+    }
+
+    public void testKeyedByConfiguration() {
+        QName service = new QName("urn:test", "ConfiguredService");
+        PartnerEndpointGuard limited = PartnerEndpointGuard.forEndpoint(service, "Port",
+                properties(Properties.PROP_PARTNER_MAX_CONCURRENT_CALLS, "1"));
+        PartnerEndpointGuard unlimited = PartnerEndpointGuard.forEndpoint(service, "Port", properties());
+        assertNotSame(limited, unlimited);
+
+        // a process with other endpoint properties does not reconfigure the guard of the first one
+        assertNull(limited.tryAcquire());
+        assertNotNull(limited.tryAcquire());
+        assertNull(unlimited.tryAcquire());
+        assertNull(unlimited.tryAcquire());
+        assertSame(limited, PartnerEndpointGuard.forEndpoint(service, "Port",
+                properties(Properties.PROP_PARTNER_MAX_CONCURRENT_CALLS, "1")));
+    }
+}
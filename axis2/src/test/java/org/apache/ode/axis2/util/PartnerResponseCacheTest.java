@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.axis2.util;
+
+import junit.framework.TestCase;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.Properties;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.QName;
+import java.util.HashMap;
+import java.util.Map;
+
+public class PartnerResponseCacheTest extends TestCase {
+
+    private static Map<String, String> properties(String... props) {
+        Map<String, String> properties = new HashMap<String, String>();
+        properties.put(Properties.PROP_PARTNER_CACHE_OPERATIONS, "getRate, getCountry");
+        for (int i = 0; i < props.length; i += 2)
+            properties.put(props[i], props[i + 1]);
+        return properties;
+    }
+
+    private PartnerResponseCache cache(String name, String... props) {
+        return new PartnerResponseCache(name, properties(props));
+    }
+
+    private Element message(String content) throws Exception {
+        return DOMUtils.stringToDOM("<message><part xmlns:ns=\"urn:test\"><ns:value>" + content + "</ns:value></part></message>");
+    }
+
+    public void testKey() throws Exception {
+        String key = PartnerResponseCache.key("getRate", "http://localhost/rates", message("EUR"), null);
+        assertEquals(key, PartnerResponseCache.key("getRate", "http://localhost/rates", message("EUR"), null));
+        assertFalse(key.equals(PartnerResponseCache.key("getRate", "http://localhost/rates", message("USD"), null)));
+        assertFalse(key.equals(PartnerResponseCache.key("getRate", "http://localhost/rates2", message("EUR"), null)));
+        assertFalse(key.equals(PartnerResponseCache.key("getCountry", "http://localhost/rates", message("EUR"), null)));
+
+        Map<String, Node> headers = new HashMap<String, Node>();
+        headers.put("session", message("1"));
+        String withHeader = PartnerResponseCache.key("getRate", "http://localhost/rates", message("EUR"), headers);
+        assertFalse(key.equals(withHeader));
+        headers.put("session", message("2"));
+        assertFalse(withHeader.equals(PartnerResponseCache.key("getRate", "http://localhost/rates", message("EUR"), headers)));
+    }
+
+    public void testCanonicalKey() throws Exception {
+        String key = PartnerResponseCache.key("getRate", null, DOMUtils.stringToDOM(
+                "<message><part xmlns:ns=\"urn:test\"><ns:value a=\"1\" b=\"2\">EUR</ns:value></part></message>"), null);
+        assertEquals("Prefixes and attribute order do not matter", key, PartnerResponseCache.key("getRate", null, DOMUtils.stringToDOM(
+                "<message><part><x:value xmlns:x=\"urn:test\" b=\"2\" a=\"1\"><![CDATA[EU]]>R</x:value></part></message>"), null));
+        assertFalse("Namespaces do", key.equals(PartnerResponseCache.key("getRate", null, DOMUtils.stringToDOM(
+                "<message><part xmlns:ns=\"urn:other\"><ns:value a=\"1\" b=\"2\">EUR</ns:value></part></message>"), null)));
+
+        String alice = PartnerResponseCache.key("getRate", null, DOMUtils.stringToDOM(
+                "<message><auth><authenticate xmlns=\"urn:ode.apache.org/authentication\"><username>alice</username></authenticate></auth></message>"), null);
+        assertFalse("Credentials in the request are part of the key", alice.equals(PartnerResponseCache.key("getRate", null, DOMUtils.stringToDOM(
+                "<message><auth><authenticate xmlns=\"urn:ode.apache.org/authentication\"><username>bob</username></authenticate></auth></message>"), null)));
+    }
+
+    public void testOptIn() {
+        PartnerResponseCache cache = cache("test.optin");
+        assertTrue(cache.isCached("getRate"));
+        assertFalse(cache.isCached("setRate"));
+        assertNull(PartnerResponseCache.forEndpoint(new QName("urn:test", "OptIn"), "Port", new HashMap<String, String>()));
+    }
+
+    public void testKeyedByConfiguration() throws Exception {
+        QName service = new QName("urn:test", "Rates");
+        PartnerResponseCache cache = PartnerResponseCache.forEndpoint(service, "Port", properties());
+        assertSame(cache, PartnerResponseCache.forEndpoint(service, "Port", properties()));
+        cache.put("k", message("1.2"));
+
+        // another process, without caching or with other settings, leaves the cache alone
+        assertNull(PartnerResponseCache.forEndpoint(service, "Port", new HashMap<String, String>()));
+        assertNotSame(cache, PartnerResponseCache.forEndpoint(service, "Port", properties(Properties.PROP_PARTNER_CACHE_TTL, "5")));
+        assertNotSame("Other credentials", cache, PartnerResponseCache.forEndpoint(service, "Port",
+                properties(Properties.PROP_HTTP_HEADER_PREFIX + "Authorization", "Basic Ym9iOnNlY3JldA==")));
+        assertEquals("1.2", cache.get("k").getTextContent());
+    }
+
+    public void testTimeToLive() throws Exception {
+        PartnerResponseCache cache = cache("test.ttl", Properties.PROP_PARTNER_CACHE_TTL, "100");
+        assertNull(cache.get("k"));
+        cache.put("k", message("1.2"));
+        Element cached = cache.get("k");
+        assertNotNull(cached);
+        assertEquals("1.2", cached.getTextContent());
+        assertEquals("urn:test", DOMUtils.getFirstChildElement(DOMUtils.getFirstChildElement(cached)).getNamespaceURI());
+
+        Thread.sleep(150);
+        assertNull(cache.get("k"));
+        assertEquals(0, cache.size());
+    }
+
+    public void testStaleWhileRevalidate() throws Exception {
+        PartnerResponseCache cache = cache("test.stale",
+                Properties.PROP_PARTNER_CACHE_TTL, "100",
+                Properties.PROP_PARTNER_CACHE_STALE_TIME, "10000");
+        cache.put("k", message("1.2"));
+        Thread.sleep(150);
+        assertNull("First caller refreshes the response", cache.get("k"));
+        assertEquals("Others get the stale response", "1.2", cache.get("k").getTextContent());
+        cache.put("k", message("1.3"));
+        assertEquals("1.3", cache.get("k").getTextContent());
+    }
+
+    public void testBounds() throws Exception {
+        PartnerResponseCache cache = cache("test.bounds", Properties.PROP_PARTNER_CACHE_MAX_ENTRIES, "2");
+        cache.put("a", message("a"));
+        cache.put("b", message("b"));
+        cache.get("a");
+        cache.put("c", message("c"));
+        assertEquals(2, cache.size());
+        assertNull("Least recently used entry evicted", cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+
+        long size = cache.getSizeInBytes();
+        cache = cache("test.bytes", Properties.PROP_PARTNER_CACHE_MAX_BYTES, String.valueOf(size));
+        cache.put("a", message("a"));
+        cache.put("b", message("b"));
+        cache.put("c", message("c"));
+        assertEquals(2, cache.size());
+        assertTrue(cache.getSizeInBytes() <= size);
+    }
+
+    public void testHeaderParts() throws Exception {
+        PartnerResponseCache cache = cache("test.headers");
+        Map<String, Node> headers = new HashMap<String, Node>();
+        headers.put("session", DOMUtils.stringToDOM("<ns:session xmlns:ns=\"urn:test\">42</ns:session>"));
+        cache.put("k", message("1.2"), headers);
+
+        PartnerResponseCache.CachedResponse cached = cache.lookup("k");
+        assertNotNull(cached);
+        assertEquals("1.2", cached.getMessage().getTextContent());
+        assertEquals(1, cached.getHeaderParts().size());
+        Element session = cached.getHeaderParts().get("session");
+        assertNotNull("Header part survives a cache hit", session);
+        assertEquals("urn:test", session.getNamespaceURI());
+        assertEquals("session", session.getLocalName());
+        assertEquals("42", session.getTextContent());
+
+        cache.put("k", message("1.3"));
+        assertTrue(cache.lookup("k").getHeaderParts().isEmpty());
+    }
+
+    public void testDirectStore() throws Exception {
+        PartnerResponseCache cache = cache("test.direct", Properties.PROP_PARTNER_CACHE_STORE, "direct");
+        cache.put("k", message("1.2"));
+        assertEquals("1.2", cache.get("k").getTextContent());
+        assertEquals("1.2", cache.get("k").getTextContent());
+    }
+}
@@ -25,6 +25,7 @@ import org.apache.ode.utils.DOMUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -124,4 +125,20 @@ public class UrlReplacementTransformerTest extends TestCase {
 
     }
 
+    public void testCompiledTemplate() {
+        Document doc = DOMUtils.newDocument();
+        UrlReplacementTransformer.Template template = new UrlReplacementTransformer().compile("o1/A(part1)B{part2}/", Arrays.asList("part1", "part2"));
+        assertFalse(template.isLiteral());
+        for (String[] values : new String[][]{{"3", "14"}, {"159 and", "$10"}}) {
+            Map<String, Element> parts = new HashMap<String, Element>();
+            for (int k = 0; k < values.length; k++) {
+                Element element = doc.createElement("part" + (k + 1));
+                element.setTextContent(values[k]);
+                parts.put("part" + (k + 1), element);
+            }
+            assertEquals(new UrlReplacementTransformer().transform("o1/A(part1)B{part2}/", parts), template.expand(parts));
+        }
+        assertTrue(new UrlReplacementTransformer().compile("o1/A/B", Arrays.asList("part1")).isLiteral());
+    }
+
 }
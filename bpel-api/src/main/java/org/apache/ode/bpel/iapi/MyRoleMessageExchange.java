@@ -72,6 +72,27 @@ public interface MyRoleMessageExchange extends MessageExchange {
     @SuppressWarnings("unchecked")
     Future invoke(Message request);
 
+    /**
+     * Same as {@link #invoke(Message)}, except that the given listener is notified once the
+     * response (or fault, or failure) of a request-response operation has been committed, so
+     * that the integration layer does not have to park a thread on the returned future.
+     * Cancelling the future (e.g. on timeout) guarantees the listener will not be called,
+     * unless the cancellation returns <code>false</code> because the response is already there.
+     *
+     * @param request request message
+     * @param listener listener called with the message exchange id, from the thread that
+     *        committed the response: it should not block nor start a transaction itself
+     */
+    @SuppressWarnings("unchecked")
+    Future invoke(Message request, ResponseListener listener);
+
+    /**
+     * Notified of the availability of the response of a {@link MyRoleMessageExchange}.
+     */
+    public interface ResponseListener {
+        void onResponse(String mexId);
+    }
+
     /**
      * Complete the message, exchange: indicates that the client has receive the
      * response (if any).
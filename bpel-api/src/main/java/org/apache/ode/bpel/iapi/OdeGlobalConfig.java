@@ -23,6 +23,13 @@ public class OdeGlobalConfig {
     public static boolean queueInOutMessages() {
         return Boolean.parseBoolean(System.getProperty("org.apache.ode.queueInOutMessages", "true"));
     }
+    /**
+     * Whether request-response invocations of in-memory processes are run right away on the calling thread,
+     * in the caller's transaction, rather than scheduled.
+     */
+    public static boolean inlineInMemoryInvocations() {
+        return Boolean.parseBoolean(System.getProperty("org.apache.ode.inlineInMemoryInvocations", "false"));
+    }
     public static boolean autoRetireProcess() {
         return Boolean.parseBoolean(System.getProperty("org.apache.ode.autoRetireProcess", "false"));
     }
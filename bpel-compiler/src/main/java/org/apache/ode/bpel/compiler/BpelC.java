@@ -62,6 +62,12 @@ public class BpelC {
 
     public static final String PROCESS_CUSTOM_PROPERTIES = "customProps";
 
+    /**
+     * System property opting in for the indexed model format, which loads the rarely used parts of
+     * the compiled process lazily.
+     */
+    public static final String INDEXED_MODEL = "org.apache.ode.compiler.indexedModel";
+
     private CompileListener _compileListener;
     public OutputStream _outputStream = null;
 
@@ -72,6 +78,12 @@ public class BpelC {
     private Map<String,Object> _compileProperties;
     private boolean _dryRun = false;
 
+    private static OmSerdeFactory.SerializeFormat getSerializeFormat() {
+        return Boolean.parseBoolean(System.getProperty(INDEXED_MODEL, "false"))
+            ? OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA_INDEXED
+            : OmSerdeFactory.FORMAT_SERIALIZED_DEFAULT;
+    }
+
     public static BpelC newBpelCompiler() {
         return new BpelC();
     }
@@ -287,7 +299,7 @@ public class BpelC {
 
             try {
             	DeSerializer serializer = new DeSerializer();
-            	serializer.serialize(_outputStream, oprocess);
+            	serializer.serialize(_outputStream, oprocess, getSerializeFormat());
             } finally {
                 // close & mark myself invalid
                 this.invalidate();
@@ -440,7 +452,7 @@ public class BpelC {
 
             try {
                	DeSerializer serializer = new DeSerializer();
-            	serializer.serialize(_outputStream, oprocess);
+            	serializer.serialize(_outputStream, oprocess, getSerializeFormat());
             } finally {
                 // close & mark myself invalid
                 this.invalidate();
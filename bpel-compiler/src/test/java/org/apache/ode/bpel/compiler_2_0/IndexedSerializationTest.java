@@ -0,0 +1,10 @@
+package org.apache.ode.bpel.compiler_2_0;
+
+import org.apache.ode.bpel.obj.serde.OmSerdeFactory;
+
+public class IndexedSerializationTest extends JavaSerializationTest{
+	public IndexedSerializationTest(){
+		this.format = OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA_INDEXED;
+		this.pathSuffix = "indexed";
+	}
+}
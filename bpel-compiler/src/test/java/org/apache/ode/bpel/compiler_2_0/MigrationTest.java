@@ -1,6 +1,7 @@
 package org.apache.ode.bpel.compiler_2_0;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.net.URI;
@@ -54,6 +55,14 @@ public class MigrationTest extends GoodCompileTest{
     		traverser.accept(checker);
     		traverser.traverseObject(migrated);
       		assertEquals(true, checker.isNewest());
+
+      		// the migrated model is cached next to the old cbp, and read from there next time
+      		assertTrue(new File(oldCbpFile.getPath() + DeSerializer.MIGRATED_SUFFIX).exists());
+      		OProcess cached = new DeSerializer(oldCbpFile).deserialize();
+    		de = new DeepEqualityHelper();
+    		de.addCustomComparator(new ExtensibeImplEqualityComp());
+    		de.addCustomComparator(new DomElementComparator());
+      		assertEquals(Boolean.TRUE, de.deepEquals(nu, cached));
      } catch (Exception ex) {
             ex.printStackTrace();
             Assert.fail("Compilation or migration did not succeed.");
@@ -25,16 +25,16 @@ import java.util.Map;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.transform.Source;
 
 import org.apache.axiom.om.OMAbstractFactory;
-import org.apache.axiom.om.OMAttribute;
 import org.apache.axiom.om.OMContainer;
 import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMException;
 import org.apache.axiom.om.OMFactory;
 import org.apache.axiom.om.OMNamespace;
-import org.apache.axiom.om.OMNode;
-import org.apache.axiom.om.OMText;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.utils.DOMUtils;
@@ -76,86 +76,120 @@ public class OMUtils {
         return toDOM(element,doc,true);
     }
 
-    @SuppressWarnings("unchecked")
     public static Element toDOM(OMElement element, Document doc, boolean deepNS) {
+        return toDOM(element, doc, null, deepNS);
+    }
+
+    /**
+     * Convert an element and append it to the given DOM node, without any intermediate copy:
+     * the element is converted in a single pass over its StAX events (reading through the AXIOM
+     * tree if already built, or building it from the underlying parser otherwise) straight into the
+     * document of <code>parent</code>. Namespaces are handled as in {@link #toDOM(OMElement, Document)}.
+     *
+     * @return the appended element
+     */
+    public static Element appendDOM(OMElement element, Node parent) {
+        Document doc = parent.getNodeType() == Node.DOCUMENT_NODE ? (Document) parent : parent.getOwnerDocument();
+        return toDOM(element, doc, parent, true);
+    }
+
+    /**
+     * Streaming conversion: the root element gets all the namespaces in scope if <code>deepNS</code>,
+     * the other elements get their own namespace declarations, plus the declarations of the
+     * prefixes used in their qualified attribute values.
+     */
+    private static Element toDOM(OMElement element, Document doc, Node parent, boolean deepNS) {
+        XMLStreamReader reader = element.getXMLStreamReader();
+        Element root = null;
+        Node current = parent;
+        int depth = 0;
+        try {
+            int event = reader.getEventType();
+            while (true) {
+                switch (event) {
+                case XMLStreamConstants.START_ELEMENT:
+                    Element domElement = createElement(reader, doc, depth == 0, deepNS ? element : null);
+                    if (root == null) {
+                        root = domElement;
+                        if (parent != null) parent.appendChild(domElement);
+                    } else {
+                        current.appendChild(domElement);
+                    }
+                    current = domElement;
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    current = current.getParentNode();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    if (depth > 0) current.appendChild(doc.createTextNode(reader.getText()));
+                    break;
+                case XMLStreamConstants.CDATA:
+                    if (depth > 0) current.appendChild(doc.createCDATASection(reader.getText()));
+                    break;
+                }
+                if ((root != null && depth == 0) || !reader.hasNext())
+                    break;
+                event = reader.next();
+            }
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new OMException("Error converting element " + element.getQName() + " to DOM", e);
+        }
+
+        if (__log.isTraceEnabled())
+            __log.trace("toDOM: converted element (deepNS=" + deepNS + "): " + DOMUtils.domToString(root));
+        return root;
+    }
+
+    private static Element createElement(XMLStreamReader reader, Document doc, boolean isRoot, OMElement deepNSElement) {
         //
         //  Fix regarding lost qnames on response of invoke activity:
         //    * copy an element including its prefix.
         //    * add all namespase attributes.
         //
-        String domElementNsUri = element.getQName().getNamespaceURI();
-        String domElementQName;
-        if (element.getQName().getPrefix() == null || element.getQName().getPrefix().trim().length() == 0) {
-            domElementQName = element.getQName().getLocalPart();
-        } else {
-            domElementQName = element.getQName().getPrefix() + ":" + element.getQName().getLocalPart();
-        }
-        if (__log.isTraceEnabled())
-            __log.trace("toDOM: creating element with nsUri=" + domElementNsUri
-                    + " qname=" + domElementQName
-                    + " from omElement, name=" + element.getLocalName());
-
-        final Element domElement = doc.createElementNS(
-                domElementNsUri,
-                domElementQName);
-        
+        String nsUri = reader.getNamespaceURI();
+        String prefix = reader.getPrefix();
+        String qname = prefix == null || prefix.trim().length() == 0 ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+        Element domElement = doc.createElementNS(nsUri == null || nsUri.length() == 0 ? null : nsUri, qname);
 
-        if (deepNS) {
+        if (isRoot && deepNSElement != null) {
             NSContext nscontext = new NSContext();
-            buildNScontext(nscontext, element);
-            DOMUtils.injectNamespacesWithAllPrefixes(domElement,nscontext);
+            buildNScontext(nscontext, deepNSElement);
+            DOMUtils.injectNamespacesWithAllPrefixes(domElement, nscontext);
         } else {
-            if (element.getAllDeclaredNamespaces() != null) {
-                for (Iterator<OMNamespace> i = element.getAllDeclaredNamespaces(); i.hasNext(); ) {
-                    OMNamespace omns = i.next();
-                    if (omns.getPrefix().equals(""))
-                        domElement.setAttributeNS(DOMUtils.NS_URI_XMLNS, "xmlns", omns.getNamespaceURI() == null ? "" : omns.getNamespaceURI());
-                    else
-                        domElement.setAttributeNS(DOMUtils.NS_URI_XMLNS, "xmlns:"+ omns.getPrefix(), omns.getNamespaceURI());
-                }
-
+            for (int i = 0; i < reader.getNamespaceCount(); ++i) {
+                String nsPrefix = reader.getNamespacePrefix(i);
+                String uri = reader.getNamespaceURI(i);
+                if (nsPrefix == null || nsPrefix.length() == 0)
+                    domElement.setAttributeNS(DOMUtils.NS_URI_XMLNS, "xmlns", uri == null ? "" : uri);
+                else
+                    domElement.setAttributeNS(DOMUtils.NS_URI_XMLNS, "xmlns:" + nsPrefix, uri);
             }
         }
-        if (__log.isTraceEnabled())
-            __log.trace("toDOM: created root element (deepNS=" + deepNS + "): " + DOMUtils.domToString(domElement));
-
-        for (Iterator i = element.getAllAttributes(); i.hasNext();) {
-            final OMAttribute attr = (OMAttribute) i.next();
-            Attr newAttr;
-            if (attr.getNamespace() != null) newAttr = doc.createAttributeNS(attr.getNamespace().getNamespaceURI(), attr.getLocalName());
-            else newAttr = doc.createAttributeNS(null,attr.getLocalName());
 
-            newAttr.appendChild(doc.createTextNode(attr.getAttributeValue()));
-            domElement.setAttributeNodeNS(newAttr);
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            String attrNs = reader.getAttributeNamespace(i);
+            String attrPrefix = reader.getAttributePrefix(i);
+            String value = reader.getAttributeValue(i);
+            if (attrNs == null || attrNs.length() == 0)
+                domElement.setAttributeNS(null, reader.getAttributeLocalName(i), value);
+            else
+                domElement.setAttributeNS(attrNs, attrPrefix == null || attrPrefix.length() == 0
+                        ? reader.getAttributeLocalName(i) : attrPrefix + ":" + reader.getAttributeLocalName(i), value);
 
             // Case of qualified attribute values, we're forced to add corresponding namespace declaration manually...
-            int colonIdx = attr.getAttributeValue().indexOf(":");
+            int colonIdx = value.indexOf(":");
             if (colonIdx > 0) {
-                OMNamespace attrValNs = element.findNamespaceURI(attr.getAttributeValue().substring(0, colonIdx));
-                if (attrValNs != null)
-                    domElement.setAttributeNS(DOMUtils.NS_URI_XMLNS, "xmlns:"+ attrValNs.getPrefix(), attrValNs.getNamespaceURI());
-            }
-        }
-
-        for (Iterator<OMNode> i = element.getChildren(); i.hasNext();) {
-            OMNode omn = i.next();
-
-            switch (omn.getType()) {
-            case OMNode.CDATA_SECTION_NODE:
-                domElement.appendChild(doc.createCDATASection(((OMText)omn).getText()));
-                break;
-            case OMNode.TEXT_NODE:
-                domElement.appendChild(doc.createTextNode(((OMText)omn).getText()));
-                break;
-            case OMNode.ELEMENT_NODE:
-                domElement.appendChild(toDOM((OMElement)omn,doc, false));
-                break;
+                String valuePrefix = value.substring(0, colonIdx);
+                String valueNs = reader.getNamespaceURI(valuePrefix);
+                if (valueNs != null && valueNs.length() > 0)
+                    domElement.setAttributeNS(DOMUtils.NS_URI_XMLNS, "xmlns:" + valuePrefix, valueNs);
             }
-
         }
-
         return domElement;
-
     }
 
     @SuppressWarnings("unchecked")
@@ -70,6 +70,8 @@ public class OdeConfigProperties {
 
     public static final String PROP_THREAD_POOL_SIZE = "threads.pool.size";
 
+    public static final String PROP_OUTBOUND_THREAD_POOL_SIZE = "outbound.threads.pool.size";
+
     public static final String PROP_CONNECTOR_PORT = "jca.port";
 
     public static final String PROP_CONNECTOR_NAME = "jca.name";
@@ -90,8 +92,14 @@ public class OdeConfigProperties {
 
     public static final String PROP_PROCESS_DEHYDRATION_MAXIMUM_COUNT = "process.dehydration.maximum.count";
 
+    public static final String PROP_PROCESS_DEHYDRATION_MAXIMUM_SIZE = "process.dehydration.maximum.size";
+
+    public static final String PROP_PROCESS_DEHYDRATION_POLICY = "process.dehydration.policy";
+
     public static final String PROP_PROCESS_HYDRATION_LAZY = "process.hydration.lazy";
 
+    public static final String PROP_PROCESS_LOAD_THREADS = "process.load.threads";
+
     public static final String PROP_PROCESS_HYDRATION_LAZY_MINIMUM_SIZE = "process.hydration.lazy.minimum.size";
 
     public static final String PROP_PROCESS_HYDRATION_THROTTLED_MAXIMUM_COUNT = "process.hydration.throttled.maximum.count";
@@ -100,12 +108,26 @@ public class OdeConfigProperties {
 
     public static final String PROP_PROCESS_INSTANCE_THROTTLED_MAXIMUM_COUNT = "process.instance.throttled.maximum.count";
 
+    public static final String PROP_EXECUTION_SLICE_MAXIMUM_TIME = "process.execution.slice.maximum.time";
+
+    public static final String PROP_EXECUTION_SLICE_MAXIMUM_REDUCTIONS = "process.execution.slice.maximum.reductions";
+
+    public static final String PROP_EXECUTION_SLICE_MAXIMUM_CPU_TIME = "process.execution.slice.maximum.cputime";
+
+    public static final String PROP_METRICS_JMX = "metrics.jmx";
+
+    public static final String PROP_METRICS_REPORTER = "metrics.reporter";
+
+    public static final String PROP_METRICS_REPORTER_PERIOD = "metrics.reporter.period";
+
     public static final String PROP_DAOCF = "dao.factory";
 
     public static final String PROP_MIGRATION_TRANSACTION_TIMEOUT = "migration.transaction.timeout";
 
     public static final String DEFAULT_TX_FACTORY_CLASS_NAME = "org.apache.ode.il.EmbeddedGeronimoFactory";
 
+    public static final String PROP_SCHEDULER_DELEGATE = "scheduler.delegate";
+
     public static final String PROP_CLUSTERING_ENABLED = "clustering.enabled";
 
     public static final String PROP_CLUSTERING_IMPL_CLASS = "clustering.impl.class";
@@ -160,6 +182,31 @@ public class OdeConfigProperties {
         H2
     }
 
+    /**
+     * Possible process dehydration policies.
+     */
+    public enum DehydrationStrategy {
+        /** Bounded process count, least recently used processes dehydrated first */
+        COUNT,
+
+        /** Bounded process size, least frequently used processes per byte dehydrated first */
+        SIZE
+    }
+
+    /**
+     * Possible scheduler database delegates.
+     */
+    public enum SchedulerDelegate {
+        /** Plain JDBC; ready jobs are assigned to nodes by a periodic upgrade pass */
+        JDBC,
+
+        /** JDBC with row claiming (SELECT ... FOR UPDATE SKIP LOCKED) where the database supports it */
+        SKIPLOCKED,
+
+        /** Local append-only journal file (single-node deployments only) */
+        JOURNAL
+    }
+
 
     public OdeConfigProperties(File cfgFile, String prefix) {
         _cfgFile = cfgFile;
@@ -271,6 +318,13 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_THREAD_POOL_SIZE, "0"));
     }
 
+    /**
+     * @return the maximum number of concurrent outbound partner invocations, 0 for no limit.
+     */
+    public int getOutboundThreadPoolMaxSize() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_OUTBOUND_THREAD_POOL_SIZE, "0"));
+    }
+
     public int getPoolMaxSize() {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_POOL_MAX, "10"));
     }
@@ -299,6 +353,11 @@ public class OdeConfigProperties {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_CLUSTERING_ENABLED, "false"));
     }
 
+    public SchedulerDelegate getSchedulerDelegate() {
+        return SchedulerDelegate.valueOf(getProperty(OdeConfigProperties.PROP_SCHEDULER_DELEGATE, SchedulerDelegate.JDBC.toString()).trim()
+                .toUpperCase());
+    }
+
     public String getClusteringImplClass() {
         return getProperty(OdeConfigProperties.PROP_CLUSTERING_IMPL_CLASS, DEFAULT_CLUSTERING_IMPL_CLASS_NAME);
     }
@@ -323,6 +382,15 @@ public class OdeConfigProperties {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_DEHYDRATION, "false"));
     }
 
+    public DehydrationStrategy getDehydrationPolicy() {
+        return DehydrationStrategy.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_POLICY, DehydrationStrategy.COUNT.toString()).trim()
+                .toUpperCase());
+    }
+
+    public long getDehydrationMaximumSize() {
+        return Long.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_MAXIMUM_SIZE, ""+256L*1024*1024));
+    }
+
     public long getDehydrationMaximumAge() {
         return Long.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_MAXIMUM_AGE, ""+20*60*1000));
     }
@@ -331,6 +399,10 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(PROP_PROCESS_DEHYDRATION_MAXIMUM_COUNT, ""+1000));
     }
 
+    public int getProcessLoadThreads() {
+        return Integer.valueOf(getProperty(PROP_PROCESS_LOAD_THREADS, ""+Runtime.getRuntime().availableProcessors()));
+    }
+
     public boolean isHydrationLazy() {
         return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_LAZY, "true"));
     }
@@ -347,6 +419,34 @@ public class OdeConfigProperties {
         return Integer.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_INSTANCE_THROTTLED_MAXIMUM_COUNT, String.valueOf(Integer.MAX_VALUE)));
     }
 
+    public long getExecutionSliceMaximumTime() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_EXECUTION_SLICE_MAXIMUM_TIME, "2000000"));
+    }
+
+    public int getExecutionSliceMaximumReductions() {
+        return Integer.valueOf(getProperty(OdeConfigProperties.PROP_EXECUTION_SLICE_MAXIMUM_REDUCTIONS, String.valueOf(Integer.MAX_VALUE)));
+    }
+
+    public long getExecutionSliceMaximumCpuTime() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_EXECUTION_SLICE_MAXIMUM_CPU_TIME, "0"));
+    }
+
+    public boolean isMetricsJmxEnabled() {
+        return Boolean.valueOf(getProperty(OdeConfigProperties.PROP_METRICS_JMX, "true"));
+    }
+
+    /**
+     * @return the class name of the {@link org.apache.ode.utils.metrics.MetricsReporter} the engine
+     *         metrics are periodically pushed to, null if none.
+     */
+    public String getMetricsReporter() {
+        return getProperty(OdeConfigProperties.PROP_METRICS_REPORTER);
+    }
+
+    public long getMetricsReporterPeriod() {
+        return Long.valueOf(getProperty(OdeConfigProperties.PROP_METRICS_REPORTER_PERIOD, "60000"));
+    }
+
     public long getProcessThrottledMaximumSize() {
         return Long.valueOf(getProperty(OdeConfigProperties.PROP_PROCESS_HYDRATION_THROTTLED_MAXIMUM_SIZE, String.valueOf(Long.MAX_VALUE)));
     }
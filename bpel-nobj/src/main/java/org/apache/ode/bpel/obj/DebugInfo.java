@@ -89,8 +89,7 @@ public class DebugInfo extends ExtensibleImpl  implements Serializable{
 	@SuppressWarnings("unchecked")
 	@JsonIgnore
 	public HashMap<QName, Object> getExtensibilityElements() {
-		return (HashMap<QName, Object>) fieldContainer
-				.get(EXTENSIBILITYELEMENTS);
+		return (HashMap<QName, Object>) getLazyField(EXTENSIBILITYELEMENTS);
 	}
 
 	@JsonIgnore
@@ -57,6 +57,24 @@ public class ExtensibleImpl  implements Extensible<Object>, Serializable{
 		return fieldContainer.get(name);
 	}
 
+	/**
+	 * Get a field that may not have been loaded with the model, loading it if necessary.
+	 * @see LazyField
+	 */
+	protected Object getLazyField(String name) {
+		Object o = fieldContainer.get(name);
+		if (o instanceof LazyField) {
+			synchronized (this) {
+				o = fieldContainer.get(name);
+				if (o instanceof LazyField) {
+					o = ((LazyField) o).load();
+					fieldContainer.put(name, o);
+				}
+			}
+		}
+		return o;
+	}
+
 	@Override
 	public Object delField(String fieldName) {
 		return fieldContainer.remove(fieldName);
@@ -0,0 +1,13 @@
+package org.apache.ode.bpel.obj;
+
+/**
+ * Placeholder for the value of a field that was left out when the model was deserialized,
+ * and is loaded the first time it is read.
+ * @see ExtensibleImpl#getLazyField(String)
+ */
+public interface LazyField {
+	/**
+	 * Load the value of the field.
+	 */
+	Object load();
+}
@@ -42,7 +42,7 @@ public class OXslSheet extends OBase  implements Serializable{
 
 	@JsonIgnore
 	public String getSheetBody() {
-		Object o = fieldContainer.get(SHEETBODY);
+		Object o = getLazyField(SHEETBODY);
 		return o == null ? null : (String)o;
 	}
 
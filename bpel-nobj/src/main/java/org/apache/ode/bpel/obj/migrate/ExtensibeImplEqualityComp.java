@@ -10,6 +10,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.obj.DebugInfo;
 import org.apache.ode.bpel.obj.ExtensibleImpl;
+import org.apache.ode.bpel.obj.LazyField;
 import org.apache.ode.bpel.obj.OProcess;
 
 /**
@@ -80,6 +81,8 @@ public class ExtensibeImplEqualityComp implements EqualityComparator{
 			Entry entry = itor.next();
 			if (entry.getValue() == null){
 				itor.remove();
+			} else if (entry.getValue() instanceof LazyField){
+				entry.setValue(((LazyField)entry.getValue()).load());
 			}
 		}
 	}
@@ -13,7 +13,9 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 import javax.xml.namespace.QName;
 
@@ -22,7 +24,9 @@ import org.slf4j.LoggerFactory;
 import org.apache.ode.bpel.o.Serializer;
 import org.apache.ode.bpel.obj.OProcess;
 import org.apache.ode.bpel.obj.OProcessWrapper;
+import org.apache.ode.bpel.obj.migrate.LegacySerializerAdapter;
 import org.apache.ode.bpel.obj.migrate.ObjectTraverser;
+import org.apache.ode.bpel.obj.migrate.OmOld2new;
 import org.apache.ode.bpel.obj.migrate.OmUpgradeVisitor;
 import org.apache.ode.bpel.obj.migrate.UpgradeChecker;
 import org.apache.ode.bpel.obj.serde.OmSerdeFactory.SerializeFormat;
@@ -36,6 +40,15 @@ import org.apache.ode.bpel.obj.serde.OmSerdeFactory.SerializeFormat;
 public class DeSerializer {
 	private static final Logger __log = LoggerFactory.getLogger(DeSerializer.class);
 
+	/** Suffix of the file caching the migrated model of a cbp file compiled by an older release. */
+	public static final String MIGRATED_SUFFIX = ".migrated";
+
+	/** Header of the migrated model cache identifying the source cbp file and the migration code. */
+	private static final String MIGRATION_STAMP_HEADER = "migrationStamp";
+
+	/** Checksum of the migration code, or <code>null</code> if it can't be computed (caching disabled). */
+	private static final String MIGRATION_CODE_STAMP = computeMigrationCodeStamp();
+
 	private OProcessWrapper wrapper = new OProcessWrapper();
 	private InputStream is;
 	private File writeBackFile;
@@ -142,11 +155,23 @@ public class DeSerializer {
 	 * @return The deserialized OProcess
 	 */
 	public OProcess deserialize() {
+		boolean legacy = wrapper.getFormat() == SerializeFormat.FORMAT_SERIALIZED_LEGACY;
+		if (legacy && cbpFile != null) {
+			OProcess migrated = readMigrated();
+			if (migrated != null) {
+				try {
+					is.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				return migrated;
+			}
+		}
 		OmSerdeFactory factory = new OmSerdeFactory();
 		factory.setFormat(wrapper.getFormat());
 		OProcess process = null;
 		try {
-			OmDeserializer de = factory.createOmDeserializer(is);
+			OmDeserializer de = factory.createOmDeserializer(is, cbpFile);
 			process = de.deserialize();
 		} finally {
 			if (cbpFile != null) {
@@ -172,9 +197,118 @@ public class DeSerializer {
 			traverser.traverseObject(process);
 			writeBack();
 		}
+		if (legacy && cbpFile != null) {
+			writeMigrated(process);
+		}
 		return process;
 	}
 
+	private File getMigratedFile() {
+		return new File(cbpFile.getPath() + MIGRATED_SUFFIX);
+	}
+
+	/**
+	 * The validity stamp of the migrated model: changes with the source cbp file or the migration code.
+	 */
+	private String getMigrationStamp() {
+		if (MIGRATION_CODE_STAMP == null) return null;
+		return cbpFile.length() + ":" + cbpFile.lastModified() + ":" + MIGRATION_CODE_STAMP;
+	}
+
+	/**
+	 * Read the model migrated from the legacy cbp file by an earlier hydration.
+	 * @return the migrated model, or <code>null</code> if there is none or it is stale
+	 */
+	private OProcess readMigrated() {
+		String stamp = getMigrationStamp();
+		File migratedFile = getMigratedFile();
+		if (stamp == null || !migratedFile.exists()) {
+			return null;
+		}
+		try {
+			DeSerializer cache = new DeSerializer(migratedFile);
+			Map<String, Object> headers = cache.getWrapper().getOtherHeaders();
+			if (headers == null || !stamp.equals(headers.get(MIGRATION_STAMP_HEADER))) {
+				__log.debug("Migrated model " + migratedFile + " is stale, migrating " + cbpFile + " again");
+				cache.is.close();
+				return null;
+			}
+			return cache.deserialize();
+		} catch (Exception e) {
+			__log.warn("Could not read the migrated model " + migratedFile + ", migrating " + cbpFile + " again", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Save the model migrated from the legacy cbp file in the current format, next to it.
+	 */
+	private void writeMigrated(OProcess process) {
+		String stamp = getMigrationStamp();
+		if (stamp == null) {
+			return;
+		}
+		File migratedFile = getMigratedFile();
+		File tmp = new File(migratedFile.getPath() + ".tmp");
+		DeSerializer cache = new DeSerializer();
+		cache.wrapper.setGuid(wrapper.getGuid());
+		cache.wrapper.setType(wrapper.getType());
+		Map<String, Object> headers = new LinkedHashMap<String, Object>();
+		headers.put(MIGRATION_STAMP_HEADER, stamp);
+		cache.wrapper.setOtherHeaders(headers);
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(tmp);
+			cache.serialize(out, process);
+			out.close();
+			out = null;
+			if (!tmp.renameTo(migratedFile)) {
+				migratedFile.delete();
+				if (!tmp.renameTo(migratedFile)) {
+					__log.info("Could not save the migrated model " + migratedFile);
+				}
+			}
+		} catch (Exception e) {
+			__log.info("Could not save the migrated model " + migratedFile, e);
+		} finally {
+			if (out != null) {
+				try {
+					out.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			tmp.delete();
+		}
+	}
+
+	private static String computeMigrationCodeStamp() {
+		CRC32 crc = new CRC32();
+		Class<?>[] classes = { OmOld2new.class, OmUpgradeVisitor.class, LegacySerializerAdapter.class };
+		byte[] buf = new byte[4096];
+		for (Class<?> c : classes) {
+			InputStream in = c.getResourceAsStream(c.getSimpleName() + ".class");
+			if (in == null) {
+				return null;
+			}
+			try {
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					crc.update(buf, 0, n);
+				}
+			} catch (IOException e) {
+				return null;
+			} finally {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return Long.toHexString(crc.getValue());
+	}
+
 	private void writeBack() {
 		if (writeBackFile == null && cbpFile == null) {
 			// we dont kown where to writeback;
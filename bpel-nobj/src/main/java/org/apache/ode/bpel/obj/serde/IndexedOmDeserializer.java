@@ -0,0 +1,168 @@
+package org.apache.ode.bpel.obj.serde;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.ode.bpel.obj.OProcess;
+
+/**
+ * OModel deserializer for the indexed java serialization format. Only the model itself is
+ * deserialized; the parts written after it are loaded when first used. When reading from a
+ * file, the parts are read again from the file when loaded rather than kept in memory.
+ * Corresponding to format {@link OmSerdeFactory.SerializeFormat#FORMAT_SERIALIZED_JAVA_INDEXED}
+ * @see IndexedOmSerializer
+ */
+public class IndexedOmDeserializer implements OmDeserializer {
+	private InputStream is;
+	private File file;
+
+	/**
+	 * @param is the stream positioned at the start of the model
+	 * @param file the file <code>is</code> reads from, or <code>null</code>
+	 */
+	public IndexedOmDeserializer(InputStream is, File file) {
+		this.is = is;
+		this.file = file;
+	}
+
+	@Override
+	public OProcess deserialize() throws SerializaionRtException {
+		try {
+			DataInputStream in = new DataInputStream(is);
+			byte[] model = new byte[in.readInt()];
+			in.readFully(model);
+
+			final PartTable table;
+			if (file != null) {
+				table = new PartTable(file);
+			} else {
+				ByteArrayOutputStream rest = new ByteArrayOutputStream();
+				byte[] buf = new byte[4096];
+				int n;
+				while ((n = in.read(buf)) != -1) {
+					rest.write(buf, 0, n);
+				}
+				table = new PartTable(ByteBuffer.wrap(rest.toByteArray()));
+			}
+
+			ObjectInputStream ois = new JavaSerOmDeserializer.InterningObjectInputStream(new ByteArrayInputStream(model)) {
+				@Override
+				protected Object resolveObject(Object obj) throws IOException {
+					if (obj instanceof LazyPart) {
+						((LazyPart) obj).setTable(table);
+						return obj;
+					}
+					return super.resolveObject(obj);
+				}
+			};
+			return (OProcess) ois.readObject();
+		} catch (Exception e) {
+			SerializaionRtException se = new SerializaionRtException("error when deserializing process");
+			se.initCause(e);
+			throw se;
+		}
+	}
+
+	/**
+	 * Table of the parts, read from the end of the serialized model. The parts of a file are
+	 * read from it when loaded; the file is not kept open nor mapped in between. As the offsets
+	 * are only valid for the file that was loaded, its length and modification time are checked
+	 * before each read.
+	 */
+	static class PartTable {
+		private final File file;
+		private final long fileLength;
+		private final long lastModified;
+		private final ByteBuffer buffer;
+		private final long[] positions;
+		private final int[] lengths;
+
+		PartTable(File file) throws IOException {
+			// modification time first, a change while reading the length is then detected
+			this(file, null, file.lastModified(), file.length());
+		}
+
+		PartTable(ByteBuffer buffer) throws IOException {
+			this(null, buffer, 0, buffer.limit());
+		}
+
+		private PartTable(File file, ByteBuffer buffer, long lastModified, long end) throws IOException {
+			this.file = file;
+			this.buffer = buffer;
+			this.lastModified = lastModified;
+			this.fileLength = end;
+			if (end < IndexedOmSerializer.TRAILER_SIZE) {
+				throw new IOException("Part table not found");
+			}
+			ByteBuffer trailer = read(end - IndexedOmSerializer.TRAILER_SIZE, IndexedOmSerializer.TRAILER_SIZE);
+			if (trailer.getInt(4) != IndexedOmSerializer.TABLE_MAGIC) {
+				throw new IOException("Part table not found");
+			}
+			int count = trailer.getInt(0);
+			long start = end - IndexedOmSerializer.TRAILER_SIZE - (long) count * IndexedOmSerializer.TABLE_ENTRY_SIZE;
+			if (count < 0 || start < 0) {
+				throw new IOException("Corrupted part table");
+			}
+			ByteBuffer entries = read(start, count * IndexedOmSerializer.TABLE_ENTRY_SIZE);
+			positions = new long[count];
+			lengths = new int[count];
+			for (int i = 0; i < count; i++) {
+				positions[i] = end - entries.getLong();
+				lengths[i] = entries.getInt();
+			}
+		}
+
+		Object load(int index) {
+			if (index < 0 || index >= positions.length) {
+				throw new SerializaionRtException("No part " + index + " in the part table");
+			}
+			if (file != null && (file.length() != fileLength || file.lastModified() != lastModified)) {
+				throw new SerializaionRtException("Can not load part " + index + " of the process: " + file
+						+ " changed since the process was loaded, the process must be loaded again");
+			}
+			try {
+				ByteBuffer part = read(positions[index], lengths[index]);
+				byte[] bytes = new byte[part.remaining()];
+				part.get(bytes);
+				ObjectInputStream ois = new JavaSerOmDeserializer.InterningObjectInputStream(new ByteArrayInputStream(bytes));
+				return ois.readObject();
+			} catch (Exception e) {
+				SerializaionRtException se = new SerializaionRtException("error when loading part " + index + " of the process");
+				se.initCause(e);
+				throw se;
+			}
+		}
+
+		private ByteBuffer read(long position, int length) throws IOException {
+			if (buffer != null) {
+				ByteBuffer slice = buffer.duplicate();
+				slice.limit((int) position + length);
+				slice.position((int) position);
+				return slice.slice();
+			}
+			ByteBuffer bytes = ByteBuffer.allocate(length);
+			FileInputStream fis = new FileInputStream(file);
+			try {
+				FileChannel channel = fis.getChannel();
+				while (bytes.hasRemaining()) {
+					if (channel.read(bytes, position + bytes.position()) < 0) {
+						throw new EOFException("Unexpected end of " + file);
+					}
+				}
+			} finally {
+				fis.close();
+			}
+			bytes.flip();
+			return bytes;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+package org.apache.ode.bpel.obj.serde;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ode.bpel.obj.DebugInfo;
+import org.apache.ode.bpel.obj.ExtensibleImpl;
+import org.apache.ode.bpel.obj.LazyField;
+import org.apache.ode.bpel.obj.OBase;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.OXslSheet;
+
+/**
+ * OModel serializer writing the model with java serialization, except for the parts rarely used
+ * at runtime (stylesheet bodies, extensibility elements of the debug information), which are
+ * written after it and loaded on first access.
+ * Corresponding to format {@link OmSerdeFactory.SerializeFormat#FORMAT_SERIALIZED_JAVA_INDEXED}
+ *
+ * Layout:
+ * <pre>
+ *  int       length of the model
+ *  byte[]    model (java serialization), the parts being replaced by {@link LazyPart} references
+ *  byte[]    parts (java serialization, one stream per part)
+ *  (long, int)[]  part table: for each part, its position from the end of the file and its length
+ *  int       number of parts
+ *  int       {@link #TABLE_MAGIC}
+ * </pre>
+ * Positions are relative to the end of the file so that the parts can be read from the file
+ * without knowing where the model starts.
+ * @see IndexedOmDeserializer
+ */
+public class IndexedOmSerializer implements OmSerializer {
+	static final int TABLE_MAGIC = 0x4f504954;
+	static final int TABLE_ENTRY_SIZE = 12;
+	static final int TRAILER_SIZE = 8;
+
+	private static final String SHEET_BODY = "sheetBody";
+	private static final String EXTENSIBILITY_ELEMENTS = "extensibilityElements";
+
+	private OutputStream out;
+	private OProcess process;
+
+	private final List<ExtensibleImpl> owners = new ArrayList<ExtensibleImpl>();
+	private final List<String> names = new ArrayList<String>();
+	private final List<Object> values = new ArrayList<Object>();
+	private final Map<ExtensibleImpl, Boolean> collected = new IdentityHashMap<ExtensibleImpl, Boolean>();
+
+	public IndexedOmSerializer(OutputStream out, OProcess process) {
+		this.out = out;
+		this.process = process;
+	}
+
+	@Override
+	public void serialize() throws SerializaionRtException {
+		try {
+			// the parts are swapped for references in a copy, the model may be in use
+			OProcess copy = copy(process);
+			collectParts(copy);
+			for (OBase child : copy.getChildren()) {
+				collectParts(child);
+			}
+
+			// the parts, each in its own stream so that it can be read alone
+			ByteArrayOutputStream parts = new ByteArrayOutputStream();
+			int[] offsets = new int[values.size()];
+			int[] lengths = new int[values.size()];
+			for (int i = 0; i < values.size(); i++) {
+				offsets[i] = parts.size();
+				ObjectOutputStream oos = new ObjectOutputStream(parts);
+				oos.writeObject(values.get(i));
+				oos.close();
+				lengths[i] = parts.size() - offsets[i];
+				owners.get(i).addField(names.get(i), new LazyPart(i));
+			}
+
+			ByteArrayOutputStream model = new ByteArrayOutputStream();
+			ObjectOutputStream oos = new ObjectOutputStream(model);
+			oos.writeObject(copy);
+			oos.close();
+
+			int tail = parts.size() + values.size() * TABLE_ENTRY_SIZE + TRAILER_SIZE;
+			DataOutputStream dos = new DataOutputStream(out);
+			dos.writeInt(model.size());
+			model.writeTo(dos);
+			parts.writeTo(dos);
+			for (int i = 0; i < values.size(); i++) {
+				dos.writeLong(tail - offsets[i]);
+				dos.writeInt(lengths[i]);
+			}
+			dos.writeInt(values.size());
+			dos.writeInt(TABLE_MAGIC);
+			dos.flush();
+		} catch (Exception e) {
+			SerializaionRtException se = new SerializaionRtException("error when serialize process");
+			se.initCause(e);
+			throw se;
+		}
+	}
+
+	/**
+	 * Deep copy of the model; parts of a lazily loaded model are loaded in the copy.
+	 */
+	private static OProcess copy(OProcess process) throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(bytes);
+		oos.writeObject(process);
+		oos.close();
+		ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		return (OProcess) ois.readObject();
+	}
+
+	private void collectParts(OBase obase) {
+		if (obase instanceof OXslSheet) {
+			collectPart(obase, SHEET_BODY);
+		}
+		DebugInfo debugInfo = obase.getDebugInfo();
+		if (debugInfo != null) {
+			Object ext = debugInfo.getField(EXTENSIBILITY_ELEMENTS);
+			if (ext instanceof Map && !((Map<?, ?>) ext).isEmpty()) {
+				collectPart(debugInfo, EXTENSIBILITY_ELEMENTS);
+			}
+		}
+	}
+
+	private void collectPart(ExtensibleImpl owner, String name) {
+		Object value = owner.getField(name);
+		// debug information may be shared by several model objects
+		if (value == null || collected.put(owner, Boolean.TRUE) != null) {
+			return;
+		}
+		if (value instanceof LazyField) {
+			value = ((LazyField) value).load();
+		}
+		owners.add(owner);
+		names.add(name);
+		values.add(value);
+	}
+}
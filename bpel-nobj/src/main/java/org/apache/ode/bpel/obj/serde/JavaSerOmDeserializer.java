@@ -1,5 +1,6 @@
 package org.apache.ode.bpel.obj.serde;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 
@@ -20,7 +21,7 @@ public class JavaSerOmDeserializer implements OmDeserializer {
 	public OProcess deserialize() throws SerializaionRtException {
 		ObjectInputStream ois;
 		try {
-			ois = new ObjectInputStream(is);
+			ois = new InterningObjectInputStream(is);
 			OProcess process;
 			process = (OProcess)ois.readObject();
 			return process;
@@ -31,4 +32,20 @@ public class JavaSerOmDeserializer implements OmDeserializer {
 		}
 	}
 
+
+	/**
+	 * Replaces the immutable values read by their pooled copy.
+	 * @see ModelInterner
+	 */
+	static class InterningObjectInputStream extends ObjectInputStream {
+		InterningObjectInputStream(InputStream in) throws IOException {
+			super(in);
+			enableResolveObject(true);
+		}
+
+		@Override
+		protected Object resolveObject(Object obj) throws IOException {
+			return ModelInterner.getInstance().intern(obj);
+		}
+	}
 }
@@ -63,6 +63,7 @@ public class JsonOmDeserializer implements OmDeserializer {
 		addCustomDeserializer(Element.class, new DomElementDeserializerHack());
 		addCustomDeserializer(NSContext.class, new NSContextDeserializer(NSContext.class));
 		addCustomDeserializer(MessageImpl.class, new MessageDeserializer(MessageImpl.class));
+		addCustomDeserializer(QName.class, new QNameDeserializer());
 	}
 
 	public JsonOmDeserializer(InputStream is) {
@@ -203,10 +204,35 @@ public class JsonOmDeserializer implements OmDeserializer {
 			Map<String, String> map = jp.readValueAs(Map.class);
 			NSContext ctx = new NSContext();
 			ctx.register(map);
-			return ctx;
+			return ModelInterner.getInstance().internValue(ctx);
 		}
 		
 	}
+
+	/**
+	 * Pools the deserialized QNames.
+	 * @see ModelInterner
+	 */
+	public static class QNameDeserializer extends StdScalarDeserializer<QName>{
+		private static final long serialVersionUID = 4178416585473125612L;
+
+		protected QNameDeserializer() {
+			super(QName.class);
+		}
+
+		@Override
+		public QName deserialize(JsonParser jp, DeserializationContext ctxt)
+				throws IOException, JsonProcessingException {
+			JsonToken t = jp.getCurrentToken();
+			if (t == JsonToken.VALUE_STRING) {
+				ModelInterner interner = ModelInterner.getInstance();
+				QName qname = QName.valueOf(jp.getText().trim());
+				return interner.internValue(new QName(interner.internValue(qname.getNamespaceURI()),
+						interner.internValue(qname.getLocalPart()), interner.internValue(qname.getPrefix())));
+			}
+			throw ctxt.mappingException("Could not deserialize QName");
+		}
+	}
 	
 	/**
 	 * @see JsonOmSerializer.MessageSerializer
@@ -0,0 +1,49 @@
+package org.apache.ode.bpel.obj.serde;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+
+import org.apache.ode.bpel.obj.LazyField;
+
+/**
+ * Reference to a part of a model serialized in the
+ * {@link OmSerdeFactory.SerializeFormat#FORMAT_SERIALIZED_JAVA_INDEXED} format, which is
+ * loaded from the part table when the field holding it is first read.
+ * @see IndexedOmSerializer
+ */
+final class LazyPart implements LazyField, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Index of the part in the part table. */
+	private final int index;
+
+	/** Set when the model is deserialized. */
+	private transient IndexedOmDeserializer.PartTable table;
+
+	LazyPart(int index) {
+		this.index = index;
+	}
+
+	int getIndex() {
+		return index;
+	}
+
+	void setTable(IndexedOmDeserializer.PartTable table) {
+		this.table = table;
+	}
+
+	public Object load() {
+		if (table == null) {
+			throw new SerializaionRtException("Part " + index + " of the model is not bound to a part table");
+		}
+		return table.load(index);
+	}
+
+	/**
+	 * A lazily loaded model written again (in any Java serialization based format) contains the
+	 * parts themselves.
+	 */
+	private Object writeReplace() throws ObjectStreamException {
+		return table == null ? this : load();
+	}
+}
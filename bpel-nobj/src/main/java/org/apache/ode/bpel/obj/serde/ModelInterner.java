@@ -0,0 +1,102 @@
+package org.apache.ode.bpel.obj.serde;
+
+import java.lang.ref.WeakReference;
+import java.net.URI;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.utils.NSContext;
+
+/**
+ * Pool of the immutable values found in deserialized OModels (strings, QNames, URIs and
+ * namespace contexts). The versions of a process usually share most of their message and
+ * schema types, stylesheets, constants and namespace declarations; pooling these values
+ * while deserializing lets all the hydrated versions refer to a single copy of each.
+ *
+ * The model objects themselves ({@link org.apache.ode.bpel.obj.OBase}) are not shared, as
+ * they belong to their process (owner, id). Values are weakly referenced and leave the pool
+ * once no hydrated model uses them anymore.
+ */
+public final class ModelInterner {
+	private static final ModelInterner INSTANCE = new ModelInterner();
+
+	/** Number of independently locked partitions of the pool. */
+	private static final int STRIPES = 16;
+
+	private final Map<Object, WeakReference<Object>>[] pools;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	@SuppressWarnings("unchecked")
+	ModelInterner() {
+		pools = new Map[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			pools[i] = new WeakHashMap<Object, WeakReference<Object>>();
+		}
+	}
+
+	public static ModelInterner getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the pooled value equal to the given one if it is of a pooled type, the
+	 *         given object otherwise.
+	 */
+	public Object intern(Object obj) {
+		if (obj instanceof String || obj instanceof QName || obj instanceof URI
+				|| obj instanceof NSContext) {
+			return internValue(obj);
+		}
+		return obj;
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> T internValue(T value) {
+		if (value == null) return null;
+		Map<Object, WeakReference<Object>> pool = pools[(value.hashCode() & 0x7FFFFFFF) % STRIPES];
+		synchronized (pool) {
+			WeakReference<Object> ref = pool.get(value);
+			Object pooled = ref == null ? null : ref.get();
+			if (pooled != null && isSame(pooled, value)) {
+				hits.incrementAndGet();
+				return (T) pooled;
+			}
+			if (pooled == null) {
+				pool.put(value, new WeakReference<Object>(value));
+			}
+			misses.incrementAndGet();
+			return value;
+		}
+	}
+
+	private static boolean isSame(Object pooled, Object value) {
+		if (pooled.getClass() != value.getClass()) return false;
+		// QName.equals() ignores the prefix, which the model may rely on
+		if (value instanceof QName) return ((QName) pooled).getPrefix().equals(((QName) value).getPrefix());
+		return true;
+	}
+
+	/** Number of deserialized values replaced by a pooled one. */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/** Number of values added to the pool. */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Map<Object, WeakReference<Object>> pool : pools) {
+			synchronized (pool) {
+				size += pool.size();
+			}
+		}
+		return size;
+	}
+}
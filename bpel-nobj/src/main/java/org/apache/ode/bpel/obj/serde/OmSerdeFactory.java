@@ -1,5 +1,6 @@
 package org.apache.ode.bpel.obj.serde;
 
+import java.io.File;
 import java.io.InputStream;
 import java.io.OutputStream;
 
@@ -25,6 +26,9 @@ public class OmSerdeFactory {
 		case FORMAT_SERIALIZED_JAVA:
 			serializer = new JavaSerOmSerializer(out, process);
 			break;
+		case FORMAT_SERIALIZED_JAVA_INDEXED:
+			serializer = new IndexedOmSerializer(out, process);
+			break;
 		default:
 			throw new SerializaionRtException("Unsupported format");
 		}
@@ -32,6 +36,14 @@ public class OmSerdeFactory {
 	}
 
 	public OmDeserializer createOmDeserializer(InputStream is){
+		return createOmDeserializer(is, null);
+	}
+
+	/**
+	 * @param file the file <code>is</code> reads from, if any; formats loading parts of the
+	 * model lazily read them from it rather than keeping these parts in memory.
+	 */
+	public OmDeserializer createOmDeserializer(InputStream is, File file){
 		OmDeserializer deser = null;
 		switch (format) {
 		case FORMAT_SERIALIZED_JSON:
@@ -43,6 +55,9 @@ public class OmSerdeFactory {
 		case FORMAT_SERIALIZED_JAVA:
 			deser = new JavaSerOmDeserializer(is);
 			break;
+		case FORMAT_SERIALIZED_JAVA_INDEXED:
+			deser = new IndexedOmDeserializer(is, file);
+			break;
 		case FORMAT_SERIALIZED_LEGACY:
 			deser = new LegacySerializerAdapter(is);
 			break;
@@ -64,6 +79,8 @@ public class OmSerdeFactory {
 		FORMAT_SERIALIZED_JSON(0x10),
 		FORMAT_SERIALIZED_SMILE(0x11),
 		FORMAT_SERIALIZED_JAVA(0x20),
+		/** java serialization, rarely used parts of the model being indexed and loaded lazily; opt-in */
+		FORMAT_SERIALIZED_JAVA_INDEXED(0x21),
 		
 		/**convenient for legacy format */
 		FORMAT_SERIALIZED_LEGACY(0x90);
@@ -84,6 +101,8 @@ public class OmSerdeFactory {
 				return FORMAT_SERIALIZED_SMILE;
 			case 0x20:
 				return FORMAT_SERIALIZED_JAVA;
+			case 0x21:
+				return FORMAT_SERIALIZED_JAVA_INDEXED;
 			default:
 				return FORMAT_UNINITIALIZED;
 			}
@@ -0,0 +1,113 @@
+package org.apache.ode.bpel.obj.serde;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.util.HashMap;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.obj.DebugInfo;
+import org.apache.ode.bpel.obj.LazyField;
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.bpel.obj.OXslSheet;
+import org.junit.Test;
+
+public class IndexedSerializerTest {
+
+	private OProcess createProcess() throws Exception {
+		OProcess process = new OProcess("0");
+		process.setProcessName("process1");
+		OXslSheet sheet = new OXslSheet(process);
+		sheet.setUri(new URI("sheet.xsl"));
+		sheet.setSheetBody("<xsl:stylesheet/>");
+		HashMap<QName, Object> ext = new HashMap<QName, Object>();
+		ext.put(new QName("urn:test", "ext"), "value");
+		sheet.setDebugInfo(new DebugInfo("process1.bpel", 10, ext));
+		return process;
+	}
+
+	private OXslSheet getSheet(OProcess process) {
+		return (OXslSheet) process.getChildren().get(0);
+	}
+
+	private void checkLazy(OProcess desered) {
+		OXslSheet sheet = getSheet(desered);
+		assertTrue(sheet.getField("sheetBody") instanceof LazyField);
+		assertTrue(sheet.getDebugInfo().getField("extensibilityElements") instanceof LazyField);
+		assertEquals(10, sheet.getDebugInfo().getStartLine());
+		assertEquals("<xsl:stylesheet/>", sheet.getSheetBody());
+		assertEquals("value", sheet.getDebugInfo().getExtensibilityElements().get(new QName("urn:test", "ext")));
+		assertEquals("<xsl:stylesheet/>", sheet.getField("sheetBody"));
+	}
+
+	@Test
+	public void testStream() throws Exception {
+		OProcess original = createProcess();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new DeSerializer().serialize(baos, original, OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA_INDEXED);
+		// the model is left untouched
+		assertEquals("<xsl:stylesheet/>", getSheet(original).getField("sheetBody"));
+		assertTrue(getSheet(original).getDebugInfo().getField("extensibilityElements") instanceof HashMap);
+
+		checkLazy(new DeSerializer(new ByteArrayInputStream(baos.toByteArray())).deserialize());
+	}
+
+	@Test
+	public void testFile() throws Exception {
+		File cbp = File.createTempFile("indexed", ".cbp");
+		cbp.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(cbp);
+		try {
+			new DeSerializer().serialize(fos, createProcess(), OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA_INDEXED);
+		} finally {
+			fos.close();
+		}
+		checkLazy(new DeSerializer(cbp).deserialize());
+	}
+
+	@Test
+	public void testFileChanged() throws Exception {
+		File cbp = File.createTempFile("indexed", ".cbp");
+		cbp.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(cbp);
+		try {
+			new DeSerializer().serialize(fos, createProcess(), OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA_INDEXED);
+		} finally {
+			fos.close();
+		}
+		OProcess desered = new DeSerializer(cbp).deserialize();
+
+		// e.g. redeployed in place: the offsets of the parts no longer match the file
+		fos = new FileOutputStream(cbp, true);
+		try {
+			fos.write(new byte[16]);
+		} finally {
+			fos.close();
+		}
+		try {
+			getSheet(desered).getSheetBody();
+			fail("Parts should not be read from a changed file");
+		} catch (SerializaionRtException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("changed since the process was loaded"));
+		}
+	}
+
+	@Test
+	public void testWriteBackLoadsParts() throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new DeSerializer().serialize(baos, createProcess(), OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA_INDEXED);
+		OProcess lazy = new DeSerializer(new ByteArrayInputStream(baos.toByteArray())).deserialize();
+
+		ByteArrayOutputStream again = new ByteArrayOutputStream();
+		new DeSerializer().serialize(again, lazy, OmSerdeFactory.SerializeFormat.FORMAT_SERIALIZED_JAVA);
+		OProcess desered = new DeSerializer(new ByteArrayInputStream(again.toByteArray())).deserialize();
+		assertEquals("<xsl:stylesheet/>", getSheet(desered).getField("sheetBody"));
+	}
+}
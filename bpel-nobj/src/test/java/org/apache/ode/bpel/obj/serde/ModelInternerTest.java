@@ -0,0 +1,53 @@
+package org.apache.ode.bpel.obj.serde;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.obj.OProcess;
+import org.apache.ode.utils.NSContext;
+import org.junit.Test;
+
+public class ModelInternerTest {
+
+	@Test
+	public void testVersionsShareValues() {
+		OProcess original = new OProcess("0");
+		original.setProcessName(new String("sharedProcessName"));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new DeSerializer().serialize(baos, original);
+
+		OProcess v1 = new DeSerializer(new ByteArrayInputStream(baos.toByteArray())).deserialize();
+		OProcess v2 = new DeSerializer(new ByteArrayInputStream(baos.toByteArray())).deserialize();
+		assertEquals("sharedProcessName", v1.getProcessName());
+		assertNotSame(v1, v2);
+		assertSame(v1.getProcessName(), v2.getProcessName());
+	}
+
+	@Test
+	public void testQNamePrefixKept() {
+		ModelInterner interner = new ModelInterner();
+		QName q1 = new QName("urn:test", "name", "a");
+		QName q2 = new QName("urn:test", "name", "b");
+		assertSame(q1, interner.internValue(q1));
+		assertSame(q2, interner.internValue(q2));
+		assertSame(q1, interner.internValue(new QName("urn:test", "name", "a")));
+	}
+
+	@Test
+	public void testNSContext() {
+		ModelInterner interner = new ModelInterner();
+		NSContext c1 = new NSContext();
+		c1.register("p", "urn:test");
+		NSContext c2 = new NSContext();
+		c2.register("p", "urn:test");
+		assertSame(c1, interner.intern(c1));
+		assertSame(c1, interner.intern(c2));
+		assertEquals(1, interner.getHitCount());
+	}
+}
@@ -53,6 +53,9 @@ import org.apache.ode.bpel.obj.OProcess;
 import org.apache.ode.bpel.runtime.InvalidProcessException;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.Namespaces;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -61,11 +64,16 @@ import javax.wsdl.Operation;
 import javax.wsdl.PortType;
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -104,10 +112,19 @@ public class BpelEngineImpl implements BpelEngine {
     private static final double PROCESS_OVERHEAD_MEMORY_FACTOR = 1.2;
 
     /** Active processes, keyed by process id. */
-    public final HashMap<QName, BpelProcess> _activeProcesses = new HashMap<QName, BpelProcess>();
+    public final ConcurrentHashMap<QName, BpelProcess> _activeProcesses = new ConcurrentHashMap<QName, BpelProcess>();
 
-    /** Mapping from myrole service name to active process. */
-    private final HashMap<QName, List<BpelProcess>> _serviceMap = new HashMap<QName, List<BpelProcess>>();
+    /**
+     * Mapping from myrole service name to active process. The lists are immutable snapshots, replaced
+     * (under {@link #_registryLock}) whenever a process is registered or unregistered.
+     */
+    private final ConcurrentHashMap<QName, List<BpelProcess>> _serviceMap = new ConcurrentHashMap<QName, List<BpelProcess>>();
+
+    /** Mapping from process type to all its active versions; immutable snapshots as for {@link #_serviceMap}. */
+    private final ConcurrentHashMap<QName, List<BpelProcess>> _typeMap = new ConcurrentHashMap<QName, List<BpelProcess>>();
+
+    /** Serializes the updates of the process registry, readers never lock. */
+    private final Object _registryLock = new Object();
 
     /** Mapping from a potentially shared endpoint to its EPR */
     private SharedEndpoints _sharedEps;
@@ -115,10 +132,25 @@ public class BpelEngineImpl implements BpelEngine {
     /** Manage instance-level locks. */
     private final ClusterLock<Long> _instanceLockManager;
 
+    private static final Histogram __instanceLockWait = MetricsRegistry.getInstance().histogram("engine.instance.lock.wait");
+
+    private static final Counter __instanceLockBusy = MetricsRegistry.getInstance().counter("engine.instance.lock.busy");
+
+    private static final Counter __directJobs = MetricsRegistry.getInstance().counter("engine.jobs.direct");
+
+    /** Maximum number of direct jobs run in the transaction of a job, the next ones are scheduled. */
+    static final int MAX_DIRECT_JOBS = Integer.getInteger("org.apache.ode.p2p.direct.maxJobs", 100);
+
+    /** Transaction of the job being processed on the current thread, see {@link #dispatchDirectJob(JobDetails)}. */
+    private final ThreadLocal<JobTransaction> _jobTransaction = new ThreadLocal<JobTransaction>();
+
     final Contexts _contexts;
 
-    private final Map<QName, Long> _hydratedSizes = new HashMap<QName, Long>();
-    private final Map<QName, Long> _unhydratedSizes = new HashMap<QName, Long>();
+    private final Map<QName, Long> _hydratedSizes = new ConcurrentHashMap<QName, Long>();
+    private final Map<QName, Long> _unhydratedSizes = new ConcurrentHashMap<QName, Long>();
+
+    /** Time spent by transactions waiting to pin a process (e.g. while it is hydrated or dehydrated). */
+    final LockWaitStats _processLockWait = new LockWaitStats("lock.process");
 
     public BpelEngineImpl(Contexts contexts) {
         _contexts = contexts;
@@ -131,6 +163,11 @@ public class BpelEngineImpl implements BpelEngine {
 
     }
 
+    /** Time spent by transactions waiting to pin a process. */
+    public LockWaitStats getProcessLockWaitStats() {
+        return _processLockWait;
+    }
+
     public SharedEndpoints getSharedEndpoints() {
         return _sharedEps;
     }
@@ -188,6 +225,7 @@ public class BpelEngineImpl implements BpelEngine {
         MyRoleMessageExchangeImpl mex = new MyRoleMessageExchangeImpl(target, this, dao);
 
         if (target != null) {
+            target.pinForTransaction();
             target.initMyRoleMex(mex);
         }
         return mex;
@@ -229,6 +267,8 @@ public class BpelEngineImpl implements BpelEngine {
 
         ProcessDAO pdao = mexdao.getProcess();
         BpelProcess process = pdao == null ? null : _activeProcesses.get(pdao.getProcessId());
+        if (process != null)
+            process.pinForTransaction();
 
         MessageExchangeImpl mex;
         switch (mexdao.getDirection()) {
@@ -280,55 +320,69 @@ public class BpelEngineImpl implements BpelEngine {
     }
 
     BpelProcess unregisterProcess(QName process) {
-        BpelProcess p = _activeProcesses.remove(process);
-        if (__log.isDebugEnabled()) {
-            __log.debug("Unregister process: serviceId=" + process + ", process=" + p);
-        }
-        if (p != null) {
+        BpelProcess p;
+        boolean deactivate = true;
+        synchronized (_registryLock) {
+            p = _activeProcesses.remove(process);
+            if (__log.isDebugEnabled()) {
+                __log.debug("Unregister process: serviceId=" + process + ", process=" + p);
+            }
+            if (p == null)
+                return null;
             if (__log.isDebugEnabled())
                 __log.debug("Deactivating process " + p.getPID());
 
-            boolean deactivate = true;
-            Iterator<Endpoint> endpointItr = p.getServiceNames().iterator();
-
-            ProcessState state = null;
-
-            while(endpointItr.hasNext()){
-                Endpoint endPoint = endpointItr.next();
+            removeSnapshot(_typeMap, p.getProcessType(), process);
+            for (Endpoint endPoint : p.getServiceNames()) {
                 List<BpelProcess> processList = _serviceMap.get(endPoint.serviceName);
-
-                Iterator<BpelProcess> processListItr = processList.iterator();
-
-                while(processListItr.hasNext()){
-                    BpelProcess entryProcess = processListItr.next();
-                    state = entryProcess.getConf().getState();
+                if (processList == null)
+                    continue;
+                for (BpelProcess entryProcess : processList) {
+                    ProcessState state = entryProcess.getConf().getState();
                     // Don't deactivate process services if there is another process in Active/Retired state and
                     // associated with the same service name
-                    if( (ProcessState.ACTIVE.equals(state) || ProcessState.RETIRED.equals(state)) &&
+                    if ((ProcessState.ACTIVE.equals(state) || ProcessState.RETIRED.equals(state)) &&
                         !(entryProcess.getPID().equals(p.getPID()))) {
-
                         deactivate = false;
-                    } else {
-                        if(entryProcess.getPID().equals(process)) {
-                            processListItr.remove();
-                        }
                     }
                 }
+                removeSnapshot(_serviceMap, endPoint.serviceName, process);
             }
+        }
 
-            if(deactivate){
-                // unregister the services provided by the process
-                p.deactivate();
-            }
-
-            // release the resources held by this process
-            p.dehydrate();
-            // update the process footprints list
-            _hydratedSizes.remove(p.getPID());
+        if(deactivate){
+            // unregister the services provided by the process
+            p.deactivate();
         }
+
+        // release the resources held by this process
+        p.markUnregistered();
+        // Never wait here for the transactions still using the process, we may be holding the
+        // management lock or be inside a transaction ourselves
+        p.dehydrateWhenUnused();
+        // update the process footprints list
+        _hydratedSizes.remove(p.getPID());
         return p;
     }
 
+    /**
+     * Replace the snapshot list stored under the given key by a copy without the given process.
+     */
+    private static void removeSnapshot(Map<QName, List<BpelProcess>> map, QName key, QName pid) {
+        List<BpelProcess> list = map.get(key);
+        if (list == null)
+            return;
+        List<BpelProcess> copy = new ArrayList<BpelProcess>(list.size());
+        for (BpelProcess entry : list) {
+            if (!entry.getPID().equals(pid))
+                copy.add(entry);
+        }
+        if (copy.isEmpty())
+            map.remove(key);
+        else
+            map.put(key, Collections.unmodifiableList(copy));
+    }
+
     boolean isProcessRegistered(QName pid) {
         return _activeProcesses.containsKey(pid);
     }
@@ -342,44 +396,53 @@ public class BpelEngineImpl implements BpelEngine {
      * @param process the process to register
      */
     void registerProcess(BpelProcess process) {
-        _activeProcesses.put(process.getPID(), process);
-        for (Endpoint e : process.getServiceNames()) {
-            if (__log.isDebugEnabled()) {
-                __log.debug("Register process: serviceId=" + e + ", process=" + process);
+        synchronized (_registryLock) {
+            _activeProcesses.put(process.getPID(), process);
+            List<BpelProcess> versions = _typeMap.get(process.getProcessType());
+            List<BpelProcess> newVersions = versions == null ? new ArrayList<BpelProcess>(1) : new ArrayList<BpelProcess>(versions);
+            for (Iterator<BpelProcess> it = newVersions.iterator(); it.hasNext();) {
+                if (it.next().getPID().equals(process.getPID()))
+                    it.remove();
             }
-            List<BpelProcess> processes = _serviceMap.get(e.serviceName);
-            if (processes == null) {
-                processes = new ArrayList<BpelProcess>();
-                _serviceMap.put(e.serviceName, processes);
-            }
-            // Remove any older version of the process from the list
-            Iterator<BpelProcess> processesIter = processes.iterator();
-            while (processesIter.hasNext()) {
-                BpelProcess cachedVersion = processesIter.next();
+            newVersions.add(process);
+            _typeMap.put(process.getProcessType(), Collections.unmodifiableList(newVersions));
+
+            for (Endpoint e : process.getServiceNames()) {
                 if (__log.isDebugEnabled()) {
-                    __log.debug("cached version " + cachedVersion.getPID() + " vs registering version " + process.getPID());                    
+                    __log.debug("Register process: serviceId=" + e + ", process=" + process);
                 }
-                if (cachedVersion.getProcessType().equals(process.getProcessType())) {
-                    if (cachedVersion.getConf().getState() == ProcessState.ACTIVE
-                            && process.getConf().getState() == ProcessState.ACTIVE
-                            && !OdeGlobalConfig.autoRetireProcess()) {
-                        throw new ContextException("Can't activate two processes of the same name: " + process.getConf().getPackage() + ", " + cachedVersion.getConf().getPackage() + ", name: " + process.getProcessType());
-                    }
-                    //Check for versions to retain newer one
-                    if (cachedVersion.getVersion() > process.getVersion()) {
-                        __log.debug("removing current version");
-                        process.activate(this);
-                        process.deactivate();
-                        return;
-                    } else {
-                        __log.debug("removing cached older version");
-                        processesIter.remove();
-                        cachedVersion.deactivate();
+                List<BpelProcess> cached = _serviceMap.get(e.serviceName);
+                List<BpelProcess> processes = cached == null ? new ArrayList<BpelProcess>() : new ArrayList<BpelProcess>(cached);
+                // Remove any older version of the process from the list
+                Iterator<BpelProcess> processesIter = processes.iterator();
+                while (processesIter.hasNext()) {
+                    BpelProcess cachedVersion = processesIter.next();
+                    if (__log.isDebugEnabled()) {
+                        __log.debug("cached version " + cachedVersion.getPID() + " vs registering version " + process.getPID());
                     }
+                    if (cachedVersion.getProcessType().equals(process.getProcessType())) {
+                        if (cachedVersion.getConf().getState() == ProcessState.ACTIVE
+                                && process.getConf().getState() == ProcessState.ACTIVE
+                                && !OdeGlobalConfig.autoRetireProcess()) {
+                            throw new ContextException("Can't activate two processes of the same name: " + process.getConf().getPackage() + ", " + cachedVersion.getConf().getPackage() + ", name: " + process.getProcessType());
+                        }
+                        //Check for versions to retain newer one
+                        if (cachedVersion.getVersion() > process.getVersion()) {
+                            __log.debug("removing current version");
+                            process.activate(this);
+                            process.deactivate();
+                            return;
+                        } else {
+                            __log.debug("removing cached older version");
+                            processesIter.remove();
+                            cachedVersion.deactivate();
+                        }
 
+                    }
                 }
+                processes.add(process);
+                _serviceMap.put(e.serviceName, Collections.unmodifiableList(processes));
             }
-            processes.add(process);
         }
         process.activate(this);
     }
@@ -411,29 +474,41 @@ public class BpelEngineImpl implements BpelEngine {
         return process.getOProcess();
     }
 
+    /**
+     * All the active versions of the type of the given process.
+     */
     private List<BpelProcess> getAllProcesses(QName processId) {
-        String qName =  processId.toString();
-        if(qName.lastIndexOf("-") > 0) {
-            qName = qName.substring(0, qName.lastIndexOf("-"));
-        }
-        List<BpelProcess> ret = new ArrayList<BpelProcess>();
-        Iterator<Map.Entry<QName, BpelProcess>> it = _activeProcesses.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry<QName, BpelProcess> pairs = it.next();
-            if(pairs.getKey().toString().startsWith(qName)) {
-                ret.add(pairs.getValue());
-            }
+        BpelProcess process = _activeProcesses.get(processId);
+        QName processType;
+        if (process != null) {
+            processType = process.getProcessType();
+        } else {
+            // process ids are built as {namespace}name-version
+            String localPart = processId.getLocalPart();
+            int idx = localPart.lastIndexOf('-');
+            processType = idx > 0 ? new QName(processId.getNamespaceURI(), localPart.substring(0, idx)) : processId;
         }
-        return ret;
+        List<BpelProcess> ret = _typeMap.get(processType);
+        return ret == null ? Collections.<BpelProcess>emptyList() : ret;
     }
 
     public void acquireInstanceLock(final Long iid) {
+        final JobTransaction tx = _jobTransaction.get();
+        if (iid != null && tx != null && tx.lockedInstances.contains(iid)) {
+            // already locked by this transaction, e.g. running a direct job for an instance it invoked
+            return;
+        }
+
         // We lock the instance to prevent concurrent transactions and prevent unnecessary rollbacks,
         // Note that we don't want to wait too long here to get our lock, since we are likely holding
         // on to scheduler's locks of various sorts.
+        long start = System.nanoTime();
         try {
             _instanceLockManager.
                     lock(iid, 1, TimeUnit.MICROSECONDS);
+            __instanceLockWait.record(MetricsRegistry.micros(start));
+            // the job is over before its transaction completes and releases the lock
+            if (iid != null && tx != null) tx.lockedInstances.add(iid);
             _contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
                 public void afterCompletion(boolean success) {
                     _instanceLockManager.unlock(iid);
@@ -445,12 +520,120 @@ public class BpelEngineImpl implements BpelEngine {
             __log.debug("Thread interrupted, job will be rescheduled");
             throw new Scheduler.JobProcessorException(true);
         } catch (org.apache.ode.bpel.engine.InstanceLockManager.TimeoutException e) {
+            __instanceLockWait.record(MetricsRegistry.micros(start));
+            __instanceLockBusy.inc();
             __log.debug("Instance " + iid + " is busy, rescheduling job.");
             throw new Scheduler.JobProcessorException(true);
         }
     }
 
     public void onScheduledJob(Scheduler.JobInfo jobInfo) throws Scheduler.JobProcessorException {
+        if (_jobTransaction.get() != null) {
+            // nested in the processing of another job, which runs the direct jobs
+            processJob(jobInfo);
+            return;
+        }
+
+        JobTransaction tx = new JobTransaction();
+        _jobTransaction.set(tx);
+        try {
+            processJob(jobInfo);
+            runDirectJobs(tx);
+        } finally {
+            _jobTransaction.remove();
+        }
+    }
+
+    /**
+     * Process a job in the transaction of a caller that is not processing a job itself, and which can't have
+     * the work done so far rolled back and the job retried, see {@link MyRoleMessageExchangeImpl}.
+     *
+     * @return <code>false</code> if the instance of the job is busy; the job did nothing and can be scheduled
+     * @throws Scheduler.JobProcessorException if the job failed, possibly after doing part of its work
+     */
+    boolean processJobInline(Scheduler.JobInfo jobInfo) throws Scheduler.JobProcessorException {
+        JobTransaction tx = new JobTransaction();
+        _jobTransaction.set(tx);
+        try {
+            if (!lockJobInstance(jobInfo.jobDetail))
+                return false;
+            processJob(jobInfo);
+            runDirectJobs(tx);
+            return true;
+        } finally {
+            _jobTransaction.remove();
+        }
+    }
+
+    private void runDirectJobs(JobTransaction tx) throws Scheduler.JobProcessorException {
+        JobDetails we;
+        while ((we = tx.directJobs.poll()) != null)
+            runDirectJob(we);
+    }
+
+    /**
+     * Lock the instance of a job, before the job does anything.
+     * @return <code>false</code> if the instance is busy
+     */
+    private boolean lockJobInstance(JobDetails we) throws Scheduler.JobProcessorException {
+        try {
+            acquireInstanceLock(we.getInstanceId());
+            return true;
+        } catch (Scheduler.JobProcessorException jpe) {
+            if (!jpe.retry)
+                throw jpe;
+            return false;
+        }
+    }
+
+    /**
+     * Hand an in-memory job over to the thread currently processing a job, to be run in its transaction as
+     * soon as that job completes, rather than scheduling it: process-to-process invocations between in-memory
+     * processes then take a single transaction and no scheduler hop. Falls back to a volatile job when this
+     * thread is not processing a job, or when the transaction already ran {@link #MAX_DIRECT_JOBS} direct jobs.
+     */
+    void dispatchDirectJob(JobDetails we) {
+        JobTransaction tx = _jobTransaction.get();
+        if (tx == null || tx.dispatched >= MAX_DIRECT_JOBS) {
+            _contexts.scheduler.scheduleVolatileJob(true, we);
+        } else {
+            if (__log.isDebugEnabled()) __log.debug("Dispatching direct job " + we);
+            tx.dispatched++;
+            tx.directJobs.add(we);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the current thread is processing a job
+     */
+    boolean isProcessingJob() {
+        return _jobTransaction.get() != null;
+    }
+
+    /**
+     * Run a direct job in the transaction of the job being processed. A job that can't get its instance lock
+     * did nothing yet and is scheduled to run in a transaction of its own; any other failure is thrown to
+     * roll the whole transaction back, the direct jobs run so far included.
+     */
+    private void runDirectJob(JobDetails we) throws Scheduler.JobProcessorException {
+        if (!lockJobInstance(we)) {
+            _contexts.scheduler.scheduleVolatileJob(true, we);
+            return;
+        }
+        __directJobs.inc();
+        processJob(new Scheduler.JobInfo("direct-" + we.getMexId(), we, 0));
+    }
+
+    /**
+     * The transaction a job is processed in, with the direct jobs it runs and the instances it locked.
+     */
+    private static class JobTransaction {
+        final LinkedList<JobDetails> directJobs = new LinkedList<JobDetails>();
+        final Set<Long> lockedInstances = new HashSet<Long>();
+        int dispatched;
+    }
+
+    private void processJob(Scheduler.JobInfo jobInfo) throws Scheduler.JobProcessorException {
         final JobDetails we = jobInfo.jobDetail;
 
         if( __log.isTraceEnabled() ) __log.trace("[JOB] onScheduledJob " + jobInfo + "" + we.getInstanceId());
@@ -487,6 +670,7 @@ public class BpelEngineImpl implements BpelEngine {
                 }
                 return;
             }
+            process.pinForTransaction();
 
             ClassLoader cl = Thread.currentThread().getContextClassLoader();
             try {
@@ -519,6 +703,8 @@ public class BpelEngineImpl implements BpelEngine {
                     boolean routed = false;
                     jobInfo.jobDetail.detailsExt.put("enqueue", false);
                     for(BpelProcess proc : processes) {
+                        if (!routed && proc != process)
+                            proc.pinForTransaction();
                         routed = routed || proc.handleJobDetails(jobInfo.jobDetail);
                     }
                     if(!routed && we.getType() == JobType.INVOKE_INTERNAL) {
@@ -692,6 +878,9 @@ public class BpelEngineImpl implements BpelEngine {
     private long _processThrottledMaximumSize = Long.MAX_VALUE;
     private int _processThrottledMaximumCount = Integer.MAX_VALUE;
     private int _instanceThrottledMaximumCount = Integer.MAX_VALUE;
+    private long _executionSliceMaximumTime = 2000000;
+    private int _executionSliceMaximumReductions = Integer.MAX_VALUE;
+    private long _executionSliceMaximumCpuTime = 0;
     private boolean _hydrationThrottled = false;
 
     public void setInstanceThrottledMaximumCount(
@@ -699,6 +888,32 @@ public class BpelEngineImpl implements BpelEngine {
         this._instanceThrottledMaximumCount = instanceThrottledMaximumCount;
     }
 
+    /**
+     * Budget of an execution slice: an instance still able to run once it has used up one of the limits
+     * is saved and resumed by a new job, so that it does not keep its worker from other instances. A limit of 0
+     * or less means no limit.
+     * @param maximumTime wall time (ms)
+     * @param maximumReductions number of reductions
+     * @param maximumCpuTime CPU time (ms)
+     */
+    public void setExecutionSliceBudget(long maximumTime, int maximumReductions, long maximumCpuTime) {
+        _executionSliceMaximumTime = maximumTime;
+        _executionSliceMaximumReductions = maximumReductions;
+        _executionSliceMaximumCpuTime = maximumCpuTime;
+    }
+
+    public long getExecutionSliceMaximumTime() {
+        return _executionSliceMaximumTime;
+    }
+
+    public int getExecutionSliceMaximumReductions() {
+        return _executionSliceMaximumReductions;
+    }
+
+    public long getExecutionSliceMaximumCpuTime() {
+        return _executionSliceMaximumCpuTime;
+    }
+
     public int getInstanceThrottledMaximumCount() {
         return _instanceThrottledMaximumCount;
     }
@@ -743,23 +958,38 @@ public class BpelEngineImpl implements BpelEngine {
         }
     }
 
+    /**
+     * Footprint of a process as recorded by {@link #setProcessSize(QName, boolean)}, 0 if unknown.
+     */
+    long getProcessSize(QName processId) {
+        Long size = _hydratedSizes.get(processId);
+        if (size == null)
+            size = _unhydratedSizes.get(processId);
+        return size == null ? 0 : size;
+    }
+
     /**
      * Returns true if the last used process was dehydrated because it was not in-use.
      */
     public boolean dehydrateLastUnusedProcess() {
-        BpelProcess lastUnusedProcess = null;
-        long lastUsedMinimum = Long.MAX_VALUE;
+        List<BpelProcess> candidates = new ArrayList<BpelProcess>();
         for (BpelProcess process : _activeProcesses.values()) {
             if (process.hintIsHydrated()
-                    && process.getLastUsed() < lastUsedMinimum
+                    && !process.isInUse()
+                    && !process.isPinned()
                     && process.getInstanceInUseCount() == 0) {
-                lastUsedMinimum = process.getLastUsed();
-                lastUnusedProcess = process;
+                candidates.add(process);
             }
         }
-        if (lastUnusedProcess != null) {
-            lastUnusedProcess.dehydrate();
-            return true;
+        Collections.sort(candidates, new Comparator<BpelProcess>() {
+            public int compare(BpelProcess p1, BpelProcess p2) {
+                return p1.getLastUsed() < p2.getLastUsed() ? -1 : (p1.getLastUsed() == p2.getLastUsed() ? 0 : 1);
+            }
+        });
+        // The checks above are only hints, a process picked up meanwhile is skipped instead of waited for
+        for (BpelProcess process : candidates) {
+            if (process.dehydrate())
+                return true;
         }
         return false;
     }
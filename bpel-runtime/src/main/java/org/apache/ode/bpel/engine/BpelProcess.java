@@ -28,6 +28,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.wsdl.Fault;
 import javax.xml.namespace.QName;
@@ -56,6 +57,7 @@ import org.apache.ode.bpel.iapi.PartnerRoleChannel;
 import org.apache.ode.bpel.iapi.PartnerRoleMessageExchange;
 import org.apache.ode.bpel.iapi.ProcessConf;
 import org.apache.ode.bpel.iapi.ProcessConf.CLEANUP_CATEGORY;
+import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.bpel.iapi.Scheduler.JobDetails;
 import org.apache.ode.bpel.iapi.Scheduler.JobType;
 import org.apache.ode.bpel.intercept.InstanceCountThrottler;
@@ -76,6 +78,8 @@ import org.apache.ode.bpel.runtime.channels.FaultData;
 import org.apache.ode.jacob.soup.ReplacementMap;
 import org.apache.ode.utils.ObjectPrinter;
 import org.apache.ode.utils.Properties;
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -115,6 +119,22 @@ public class BpelProcess {
     private boolean _hydratedOnce = false;
     /** Last time the process was used. */
     private volatile long _lastUsed;
+    /** Number of times the process was used, read by frequency based dehydration policies. */
+    private final AtomicLong _useCount = new AtomicLong();
+    private final ExecutionStats _executionStats;
+    /** Pinned processes are never picked for dehydration. */
+    private volatile boolean _pinned;
+    /** Set when the process gets unregistered, so that a background hydration does not load it again. */
+    private boolean _unregistered;
+    /**
+     * Hydration/dehydration statistics, updated under the hydration latch and published in the
+     * {@link MetricsRegistry} as <code>process.&lt;pid&gt;.hydrations</code>, <code>.hydrated.bytes</code>,
+     * <code>.dehydrations</code> and <code>.dehydrated.bytes</code>.
+     */
+    private final Counter _hydrations;
+    private final Counter _hydratedBytes;
+    private final Counter _dehydrations;
+    private final Counter _dehydratedBytes;
 
     BpelEngineImpl _engine;
     ClassLoader _classLoader = getClass().getClassLoader();
@@ -130,6 +150,9 @@ public class BpelProcess {
     /** Latch-like thing to control hydration/dehydration. */
     private HydrationLatch _hydrationLatch;
 
+    /** Set while the process waits for its last holder to go away to be dehydrated. */
+    private volatile boolean _draining;
+
     /** Deploy-time configuraton for external variables. */
     private ExternalVariableConf _extVarConf;
 
@@ -147,6 +170,13 @@ public class BpelProcess {
         _pid = conf.getProcessId();
         _pconf = conf;
         _hydrationLatch = new HydrationLatch();
+        _executionStats = new ExecutionStats(_pid);
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String prefix = "process." + _pid + ".";
+        _hydrations = metrics.counter(prefix + "hydrations");
+        _hydratedBytes = metrics.counter(prefix + "hydrated.bytes");
+        _dehydrations = metrics.counter(prefix + "dehydrations");
+        _dehydratedBytes = metrics.counter(prefix + "dehydrated.bytes");
     }
 
 
@@ -718,17 +748,28 @@ public class BpelProcess {
     }
 
     /**
-     * Ask the process to dehydrate.
+     * Ask the process to dehydrate. This never waits: the process is only dehydrated if no
+     * transaction or running operation holds it, the check and the dehydration being atomic.
+     * @return <code>true</code> if the process is dehydrated
      */
-    void dehydrate() {
-        try {
-            _hydrationLatch.latch(0);
-            // We don't actually need to do anything, the latch will run the doDehydrate method
-            // when necessary..
-        } finally {
-            _hydrationLatch.release(0);
-        }
+    boolean dehydrate() {
+        if (!_hydrationLatch.tryLatch(0))
+            return false;
+        // We don't actually need to do anything, the latch ran the doDehydrate method
+        // when necessary..
+        _draining = false;
+        _hydrationLatch.release(0);
+        return true;
+    }
 
+    /**
+     * Dehydrate the process now if it is unused, or else as soon as the last transaction or
+     * operation holding it is done.
+     */
+    void dehydrateWhenUnused() {
+        // Raise the flag before trying, so a holder releasing meanwhile sees it
+        _draining = true;
+        dehydrate();
     }
 
     void hydrate() {
@@ -803,6 +844,42 @@ public class BpelProcess {
         return _pconf.getType();
     }
 
+    /**
+     * Keep the process hydrated until the current transaction completes, if any. Dehydration of this
+     * process (by the reaper or on unregistration) is skipped or deferred while transactions use it,
+     * while other processes are not affected.
+     */
+    void pinForTransaction() {
+        if (!_engine._contexts.scheduler.isTransacted())
+            return;
+        boolean registered = false;
+        long start = System.nanoTime();
+        try {
+            _hydrationLatch.latch(1);
+            _engine._processLockWait.record(System.nanoTime() - start);
+            _engine._contexts.scheduler.registerSynchronizer(new Scheduler.Synchronizer() {
+                public void afterCompletion(boolean success) {
+                    _hydrationLatch.release(1);
+                }
+                public void beforeCompletion() {
+                }
+            });
+            registered = true;
+        } finally {
+            // If we failed to register the synchro, there was an ex/throwable; we need to release now.
+            if (!registered)
+                _hydrationLatch.release(1);
+        }
+    }
+
+    /**
+     * Whether the process is currently held hydrated, by a transaction or a running operation. Like
+     * {@link #hintIsHydrated()} this is only a hint.
+     */
+    boolean isInUse() {
+        return _hydrationLatch.getDepth(1) > 0;
+    }
+
     /**
      * Get a hint as to whether this process is hydrated. Note this is only a hint, since things could change.
      */
@@ -813,6 +890,7 @@ public class BpelProcess {
     /** Keep track of the time the process was last used. */
     private final void markused() {
         _lastUsed = System.currentTimeMillis();
+        _useCount.incrementAndGet();
     }
 
     /** Create a version-appropriate runtime context. */
@@ -837,8 +915,18 @@ public class BpelProcess {
             };
         }
 
+        @Override
+        public void release(int state) {
+            super.release(state);
+            // The last holder of a draining process dehydrates it
+            if (state == 1 && _draining && getDepth(1) == 0)
+                dehydrate();
+        }
+
         private void doDehydrate() {
             if (_oprocess != null) {
+                _dehydrations.inc();
+                _dehydratedBytes.inc(getHydratedSize());
                 _oprocess.dehydrate();
                 _oprocess = null;
             }
@@ -930,6 +1018,8 @@ public class BpelProcess {
                 _engine.setProcessSize(_pid, true);
                 _hydratedOnce = true;
             }
+            _hydrations.inc();
+            _hydratedBytes.inc(getHydratedSize());
 
             for (PartnerLinkMyRoleImpl myrole : _myRoles.values()) {
                 myrole._initialEPR = _myEprs.get(myrole._endpoint);
@@ -1132,6 +1222,80 @@ public class BpelProcess {
         return Integer.valueOf(getProcessProperty(PROP_MAX_INSTANCES, Integer.toString(_engine.getInstanceThrottledMaximumCount())));
     }
 
+    /**
+     * Size of the hydrated process: the footprint measured at its first hydration (see {@link #sizeOf()}),
+     * or an estimate if it has never been hydrated.
+     */
+    public long getHydratedSize() {
+        long size = _engine == null ? 0 : _engine.getProcessSize(_pid);
+        return size > 0 ? size : getEstimatedHydratedSize();
+    }
+
+    /**
+     * Whether the process is kept hydrated, whatever the dehydration policy. A pinned process is still
+     * dehydrated when it gets unregistered.
+     */
+    public boolean isPinned() {
+        return _pinned;
+    }
+
+    /**
+     * Whether a dehydration policy may pick the process: neither in use nor pinned. Like
+     * {@link #isInUse()} this is only a hint, the dehydration itself never waits for a holder.
+     */
+    boolean isEvictable() {
+        return !isInUse() && !isPinned();
+    }
+
+    void setPinned(boolean pinned) {
+        _pinned = pinned;
+    }
+
+    synchronized void markUnregistered() {
+        _unregistered = true;
+    }
+
+    /**
+     * Hydrate the process, unless it got unregistered meanwhile.
+     * @return <code>false</code> if the process is unregistered
+     */
+    synchronized boolean hydrateIfRegistered() {
+        if (_unregistered)
+            return false;
+        hydrate();
+        return true;
+    }
+
+    /** Execution slices of the instances of this process, to find the ones keeping workers busy. */
+    public ExecutionStats getExecutionStats() {
+        return _executionStats;
+    }
+
+    /** Number of times the process was used since it was registered. */
+    public long getUseCount() {
+        return _useCount.get();
+    }
+
+    /** Number of times the process model was loaded. */
+    public long getHydrationCount() {
+        return _hydrations.getCount();
+    }
+
+    /** Total bytes of process model loaded by hydrations. */
+    public long getHydratedBytes() {
+        return _hydratedBytes.getCount();
+    }
+
+    /** Number of times the process model was released. */
+    public long getDehydrationCount() {
+        return _dehydrations.getCount();
+    }
+
+    /** Total bytes of process model released by dehydrations. */
+    public long getDehydratedBytes() {
+        return _dehydratedBytes.getCount();
+    }
+
     public long getEstimatedHydratedSize() {
         return _pconf.getCBPFileSize() *
                     PROCESS_MEMORY_TO_SERIALIZED_SIZE_RATIO;
@@ -1166,6 +1330,19 @@ public class BpelProcess {
         return timeout;
     }
 
+    /**
+     * Whether process-to-process invocations on the given partner link may be run directly, in the transaction
+     * of the invoking instance (see {@link Properties#PROP_P2P_DIRECT}). Only in-memory processes qualify, as
+     * there is nothing to persist nor recover for them.
+     */
+    public boolean isDirectPeer2Peer(OPartnerLink partnerLink) {
+        final PartnerLinkPartnerRoleImpl linkPartnerRole = _partnerRoles.get(partnerLink);
+        if (!isInMemory() || linkPartnerRole == null || linkPartnerRole._initialEPR == null)
+            return false;
+        Map<String, String> props = _pconf.getEndpointProperties(linkPartnerRole._initialEPR);
+        return Boolean.parseBoolean(props.get(Properties.PROP_P2P_DIRECT));
+    }
+
     public long getVersion() {
         return Long.parseLong(_pid.getLocalPart().substring(_pid.getLocalPart().lastIndexOf('-') + 1));
     }
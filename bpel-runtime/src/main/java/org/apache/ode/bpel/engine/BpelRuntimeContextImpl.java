@@ -48,6 +48,7 @@ import org.apache.ode.bpel.dao.ProcessInstanceDAO;
 import org.apache.ode.bpel.dao.ScopeDAO;
 import org.apache.ode.bpel.dao.ScopeStateEnum;
 import org.apache.ode.bpel.dao.XmlDataDAO;
+import org.apache.ode.bpel.engine.replayer.Replayer;
 import org.apache.ode.bpel.evar.ExternalVariableModule.Value;
 import org.apache.ode.bpel.evar.ExternalVariableModuleException;
 import org.apache.ode.bpel.evt.CorrelationSetWriteEvent;
@@ -100,6 +101,8 @@ import org.apache.ode.jacob.vpu.JacobVPU;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.GUID;
 import org.apache.ode.utils.Namespaces;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.ObjectPrinter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -134,8 +137,18 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
     
     private boolean _forceFlush;
 
-    /** Five second maximum for continous execution. */
-    private long _maxReductionTimeMs = 2000000;
+    /** Size of the execution state when it was read, to size its buffer when writing it again. */
+    private int _executionStateSize = 10000;
+
+    private static final Histogram __sliceReductions = MetricsRegistry.getInstance().histogram("engine.slice.reductions");
+
+    private static final Histogram __sliceTime = MetricsRegistry.getInstance().histogram("engine.slice.time");
+
+    private static final Histogram __soupSize = MetricsRegistry.getInstance().histogram("engine.soup.size");
+
+    private static final Histogram __soupSerializeTime = MetricsRegistry.getInstance().histogram("engine.soup.serialize.time");
+
+    private static final Histogram __routeLookup = MetricsRegistry.getInstance().histogram("engine.route.lookup");
 
     public BpelRuntimeContextImpl(BpelProcess bpelProcess, ProcessInstanceDAO dao, PROCESS PROCESS,
                                   MyRoleMessageExchangeImpl instantiatingMessageExchange) {
@@ -162,6 +175,7 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         } else {
             byte[] daoState = dao.getExecutionState();
             if (daoState != null) {
+                _executionStateSize = Math.max(_executionStateSize, daoState.length + daoState.length / 8);
                 ByteArrayInputStream iis = new ByteArrayInputStream(daoState);
                 try {
                     _soup.read(iis);
@@ -803,6 +817,12 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
             if ( mySessionId != null )
                 myRoleMex.setProperty(MessageExchange.PROPERTY_SEP_PARTNERROLE_SESSIONID, mySessionId);
 
+            if (isDirectPeer2Peer(partnerLink.partnerLink, p2pProcesses, myRoleMex)) {
+                // both processes are in memory, the request and the response are handed over in this transaction
+                mex.setProperty(MessageExchangeImpl.PROPERTY_P2P_DIRECT, "true");
+                myRoleMex.setProperty(MessageExchangeImpl.PROPERTY_P2P_DIRECT, "true");
+            }
+
             mex.setStatus(MessageExchange.Status.REQUEST);
             myRoleMex.invoke(odeRequest);
 
@@ -856,6 +876,17 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
         return mexDao.getMessageExchangeId();
     }
 
+    private boolean isDirectPeer2Peer(OPartnerLink partnerLink, List<BpelProcess> targets, MyRoleMessageExchange myRoleMex) {
+        if (myRoleMex instanceof BrokeredMyRoleMessageExchangeImpl || Replayer.replayer.get() != null
+                || !_bpelProcess.isDirectPeer2Peer(partnerLink))
+            return false;
+        for (BpelProcess target : targets) {
+            if (!target.isInMemory())
+                return false;
+        }
+        return true;
+    }
+
     // enable extensibility
     protected PartnerRoleMessageExchangeImpl createPartnerRoleMessageExchangeImpl(MessageExchangeDAO mexDao,
                 PartnerLinkInstance partnerLink, Operation operation, EndpointReference partnerEpr,
@@ -909,12 +940,29 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
     }
 
     public void execute() {
-        long maxTime = System.currentTimeMillis() + _maxReductionTimeMs;
+        BpelEngineImpl engine = _bpelProcess._engine;
+        long startNanos = System.nanoTime();
+        long startCpu = ExecutionStats.currentThreadCpuTime();
+        ExecutionBudget budget = new ExecutionBudget(engine.getExecutionSliceMaximumTime(),
+                engine.getExecutionSliceMaximumReductions(), engine.getExecutionSliceMaximumCpuTime(),
+                System.currentTimeMillis(), startCpu);
+        int reductions = 0;
         boolean canReduce = true;
+        boolean budgetLeft = true;
         assert _outstandingRequests == null && _imaManager != null;
-        while (ProcessState.canExecute(_dao.getState()) && System.currentTimeMillis() < maxTime && canReduce && !_forceFlush) {
+        while (ProcessState.canExecute(_dao.getState()) && canReduce && !_forceFlush) {
+            if (budget.isUsedUp(reductions)) {
+                budgetLeft = false;
+                break;
+            }
             canReduce = _vpu.execute();
+            reductions++;
         }
+        long sliceNanos = System.nanoTime() - startNanos;
+        _bpelProcess.getExecutionStats().record(_iid, reductions, sliceNanos,
+                startCpu < 0 ? -1 : ExecutionStats.currentThreadCpuTime() - startCpu, !budgetLeft);
+        __sliceReductions.record(reductions);
+        __sliceTime.record(sliceNanos / 1000);
         _dao.setLastActiveTime(new Date());
         if (!ProcessState.isFinished(_dao.getState())) {
             if (__log.isDebugEnabled()) __log.debug("Setting execution state on instance " + _iid);
@@ -924,20 +972,23 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
                 // don't serialize in-memory processes
                 ((ProcessInstanceDaoImpl) _dao).setSoup(_soup);
             } else {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream(10000);
+                long serializeStart = System.nanoTime();
+                ByteArrayOutputStream bos = new ByteArrayOutputStream(_executionStateSize);
                 try {
                     _soup.write(bos);
                     bos.close();
                 } catch (Exception ex) {
                     throw new RuntimeException(ex);
                 }
+                __soupSerializeTime.record(MetricsRegistry.micros(serializeStart));
+                __soupSize.record(bos.size());
                 _dao.setExecutionState(bos.toByteArray());
             }
 
             if (ProcessState.canExecute(_dao.getState()) && canReduce) {
-                // Max time exceeded (possibly an infinite loop).
+                // Slice budget used up (possibly an infinite loop), yield the worker.
                 if (__log.isDebugEnabled())
-                    __log.debug("MaxTime exceeded for instance # " + _iid);
+                    __log.debug("Execution slice budget used up for instance # " + _iid + " after " + reductions + " reductions");
                 try {
                     JobDetails we = new JobDetails();
                     we.setInstanceId(_iid);
@@ -1429,7 +1480,9 @@ public class BpelRuntimeContextImpl implements BpelRuntimeContext {
 
         // Find the route first, this is a SELECT FOR UPDATE on the "selector" row,
         // So we want to acquire the lock before we do anthing else.
+        long routeStart = System.nanoTime();
         List<MessageRouteDAO> mroutes = correlator.findRoute(ckeySet);
+        __routeLookup.record(MetricsRegistry.micros(routeStart));
         if (mroutes == null || mroutes.size() == 0) {
             // Ok, this means that a message arrived before we did, so nothing to do.
             __log.debug("MatcherEvent handling: nothing to do, route no longer in DB");
@@ -18,7 +18,16 @@
  */
 package org.apache.ode.bpel.engine;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -26,9 +35,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.xml.namespace.QName;
@@ -53,6 +67,7 @@ import org.apache.ode.bpel.iapi.DebuggerContext;
 import org.apache.ode.bpel.iapi.EndpointReferenceContext;
 import org.apache.ode.bpel.iapi.MessageExchangeContext;
 import org.apache.ode.bpel.iapi.ProcessConf;
+import org.apache.ode.bpel.iapi.ProcessState;
 import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.bpel.iapi.Scheduler.JobInfo;
 import org.apache.ode.bpel.iapi.Scheduler.JobProcessorException;
@@ -71,12 +86,15 @@ import org.apache.ode.utils.xsl.XslTransformHandler;
  * </p>
  *
  * <p>
- * This implementation is intended to be thread safe. The key concurrency
- * mechanism is a "management" read/write lock that synchronizes all management
- * operations (they require "write" access) and prevents concurrent management
- * operations and processing (processing requires "read" access). Write access
- * to the lock is scoped to the method, while read access is scoped to a
- * transaction.
+ * This implementation is intended to be thread safe. Management operations
+ * (registration, unregistration, dehydration) are serialized by a "management"
+ * lock that is never taken by processing. Processing instead pins the processes
+ * it uses for the duration of the transaction (see
+ * {@link BpelProcess#pinForTransaction()}), so that managing one process only
+ * waits for the transactions using that process. A "lifecycle" read/write lock
+ * keeps the server from being started or stopped while transactions are in
+ * progress: read access is scoped to a transaction and only contends with
+ * {@link #start()}, {@link #stop()}, {@link #init()} and {@link #shutdown()}.
  * </p>
  *
  * @author Maciej Szefler <mszefler at gmail dot com>
@@ -98,7 +116,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
 
     /**
      * Set of processes that are registered with the server. Includes hydrated and dehydrated processes.
-     * Guarded by _mngmtLock.writeLock().
+     * Guarded by _mngmtLock.
      */
     private final Set<BpelProcess> _registeredProcesses = new HashSet<BpelProcess>();
 
@@ -111,15 +129,32 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
     private int _migrationTransactionTimeout;
     private Thread processDefReaper;
 
+    /** Background hydration of the processes expected to receive traffic. */
+    private ExecutorService _hydrator;
+
+    /** Processes hydrated (or pinned) when the history was last saved, most recently used first. */
+    private File _hydrationHistoryFile;
+    private final Map<QName, Boolean> _hydrationHistory = new ConcurrentHashMap<QName, Boolean>();
+    private boolean _hydrationHistoryLoaded;
+    /** Contents of the history file as last written, guarded by the write lock. */
+    private final Object _hydrationHistoryWriteLock = new Object();
+    private List<String> _savedHydrationHistory;
+
     BpelEngineImpl _engine;
     protected BpelDatabase _db;
 
     /**
-     * Management lock for synchronizing management operations and preventing
-     * processing (transactions) from occuring while management operations are
-     * in progress.
+     * Management lock for synchronizing management operations.
+     */
+    private final ReentrantLock _mngmtLock = new ReentrantLock();
+
+    /**
+     * Lifecycle lock preventing the server state from changing while processing
+     * (transactions) is in progress.
      */
-    private ReadWriteLock _mngmtLock = new ReentrantReadWriteLock();
+    private final ReadWriteLock _lifecycleLock = new ReentrantReadWriteLock();
+
+    private final LockWaitStats _mngmtLockWait = new LockWaitStats("lock.management");
 
     static {
         // TODO Clean this up and factorize engine configuration
@@ -150,7 +185,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
     }
 
     public void start() {
-        _mngmtLock.writeLock().lock();
+        lockLifecycle();
         try {
             if (!checkState(State.INIT, State.RUNNING)) {
                 __log.debug("start() ignored -- already started");
@@ -171,7 +206,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 processDefReaper.start();
             }
         } finally {
-            _mngmtLock.writeLock().unlock();
+            unlockLifecycle();
         }
     }
 
@@ -213,7 +248,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
     }
 
     public void stop() {
-        _mngmtLock.writeLock().lock();
+        lockLifecycle();
         try {
             if (!checkState(State.RUNNING, State.INIT)) {
                 __log.debug("stop() ignored -- already stopped");
@@ -226,17 +261,24 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                 processDefReaper.interrupt();
                 processDefReaper = null;
             }
+            synchronized (this) {
+                if (_hydrator != null) {
+                    _hydrator.shutdown();
+                    _hydrator = null;
+                }
+            }
+            saveHydrationHistory(Collections.<BpelProcess>emptyList());
             _contexts.scheduler.stop();
             _engine = null;
             _state = State.INIT;
             __log.info(__msgs.msgServerStopped());
         } finally {
-            _mngmtLock.writeLock().unlock();
+            unlockLifecycle();
         }
     }
 
     public void init() throws BpelEngineException {
-        _mngmtLock.writeLock().lock();
+        lockLifecycle();
         try {
             if (!checkState(State.SHUTDOWN, State.INIT))
                 return;
@@ -248,7 +290,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
 
             _engine = createBpelEngineImpl(_contexts);
         } finally {
-            _mngmtLock.writeLock().unlock();
+            unlockLifecycle();
         }
     }
 
@@ -258,7 +300,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
     }
 
     public void shutdown() throws BpelEngineException {
-        _mngmtLock.writeLock().lock();
+        lockLifecycle();
         try {
             stop();
             unregisterBpelEventListeners();
@@ -267,18 +309,18 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
             _engine = null;
             _state = State.SHUTDOWN;
         } finally {
-            _mngmtLock.writeLock().unlock();
+            unlockLifecycle();
         }
 
     }
 
     public BpelEngine getEngine() {
         boolean registered = false;
-        _mngmtLock.readLock().lock();
+        _lifecycleLock.readLock().lock();
         try {
             _contexts.scheduler.registerSynchronizer(new Synchronizer() {
                 public void afterCompletion(boolean success) {
-                    _mngmtLock.readLock().unlock();
+                    _lifecycleLock.readLock().unlock();
                 }
                 public void beforeCompletion() {
                 }
@@ -287,11 +329,51 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         } finally {
             // If we failed to register the synchro,then there was an ex/throwable; we need to unlock now.
             if (!registered)
-                _mngmtLock.readLock().unlock();
+                _lifecycleLock.readLock().unlock();
         }
         return _engine;
     }
 
+    /** Time spent by management operations waiting for the management lock. */
+    public LockWaitStats getManagementLockWaitStats() {
+        return _mngmtLockWait;
+    }
+
+    /** Time spent by transactions waiting to pin a process, e.g. while it is being hydrated or dehydrated. */
+    public LockWaitStats getProcessLockWaitStats() {
+        BpelEngineImpl engine = _engine;
+        return engine == null ? null : engine.getProcessLockWaitStats();
+    }
+
+    private void lockLifecycle() {
+        _lifecycleLock.writeLock().lock();
+        boolean locked = false;
+        try {
+            lockManagement();
+            locked = true;
+        } finally {
+            if (!locked)
+                _lifecycleLock.writeLock().unlock();
+        }
+    }
+
+    private void unlockLifecycle() {
+        _mngmtLock.unlock();
+        _lifecycleLock.writeLock().unlock();
+    }
+
+    private void lockManagement() {
+        long start = System.nanoTime();
+        _mngmtLock.lock();
+        _mngmtLockWait.record(System.nanoTime() - start);
+    }
+
+    private void lockManagementInterruptibly() throws InterruptedException {
+        long start = System.nanoTime();
+        _mngmtLock.lockInterruptibly();
+        _mngmtLockWait.record(System.nanoTime() - start);
+    }
+
     public void register(ProcessConf conf) {
         if (conf == null)
             throw new NullPointerException("must specify non-null process configuration.");
@@ -301,7 +383,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         // Ok, IO out of the way, we will mod the server state, so need to get a
         // lock.
         try {
-            _mngmtLock.writeLock().lockInterruptibly();
+            lockManagementInterruptibly();
         } catch (InterruptedException ie) {
             __log.debug("register(...) interrupted.", ie);
             throw new BpelEngineException(__msgs.msgOperationInterrupted());
@@ -321,25 +403,194 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
 
             _engine.registerProcess(process);
             _registeredProcesses.add(process);
-            if (!isLazyHydratable(process)) {
-                process.hydrate();
+            Boolean pinned = _hydrationHistory.remove(process.getPID());
+            if (pinned != null && pinned)
+                process.setPinned(true);
+            if (!isLazyHydratable(process, pinned == null)) {
+                if (_state == State.RUNNING) {
+                    process.hydrate();
+                } else {
+                    // starting up: activate all endpoints first, the models are loaded in the background
+                    _engine.setProcessSize(process.getPID(), false);
+                    prewarm(process);
+                }
             } else {
                 _engine.setProcessSize(process.getPID(), false);
+                // recently used before the last shutdown, load it ahead of its first request
+                if (pinned != null)
+                    prewarm(process);
             }
 
             __log.info(__msgs.msgProcessRegistered(conf.getProcessId()));
         } finally {
-            _mngmtLock.writeLock().unlock();
+            _mngmtLock.unlock();
         }
     }
 
-    private boolean isLazyHydratable(BpelProcess process) {
+    /**
+     * Hydrate a process in the background, so that its next request does not wait for its model to load.
+     * @return the hydration task, or <code>null</code> if the process is not registered
+     */
+    public Future<?> prewarm(QName pid) {
+        BpelEngineImpl engine = _engine;
+        BpelProcess process = engine == null ? null : engine.getProcess(pid);
+        return process == null ? null : prewarm(process);
+    }
+
+    /**
+     * Pin a process hydrated (hydrating it in the background if needed), or let the dehydration policy
+     * manage it again.
+     * @return <code>false</code> if the process is not registered
+     */
+    public boolean setPinned(QName pid, boolean pinned) {
+        BpelEngineImpl engine = _engine;
+        BpelProcess process = engine == null ? null : engine.getProcess(pid);
+        if (process == null)
+            return false;
+        process.setPinned(pinned);
+        if (pinned)
+            prewarm(process);
+        return true;
+    }
+
+    private synchronized Future<?> prewarm(final BpelProcess process) {
+        if (_hydrator == null) {
+            _hydrator = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                private int _threadNumber;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ProcessHydrator-" + (++_threadNumber));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return _hydrator.submit(new Runnable() {
+            public void run() {
+                try {
+                    // the process guards against being unregistered meanwhile, no need for the management lock
+                    if (!process.hintIsHydrated() && process.hydrateIfRegistered() && __log.isDebugEnabled())
+                        __log.debug("Pre-warmed process " + process.getPID());
+                } catch (Throwable t) {
+                    __log.warn("Could not pre-warm process " + process.getPID(), t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Set the file recording the processes hydrated at shutdown (and on each dehydration pass), which are
+     * hydrated in the background again when registered after a restart.
+     */
+    public void setHydrationHistoryFile(File hydrationHistoryFile) {
+        _hydrationHistoryFile = hydrationHistoryFile;
+        if (hydrationHistoryFile == null || !hydrationHistoryFile.exists())
+            return;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(hydrationHistoryFile));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0)
+                        continue;
+                    boolean pinned = line.charAt(0) == '+';
+                    _hydrationHistory.put(QName.valueOf(pinned ? line.substring(1) : line), pinned);
+                }
+                _hydrationHistoryLoaded = true;
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            __log.warn("Could not read the process hydration history " + hydrationHistoryFile, e);
+        }
+    }
+
+    /**
+     * Save the hydrated and pinned processes, except the excluded ones. Must be called with the management
+     * lock held.
+     */
+    private void saveHydrationHistory(Collection<BpelProcess> excluded) {
+        List<String> history = hydrationHistory(excluded);
+        if (history != null)
+            writeHydrationHistory(history);
+    }
+
+    /**
+     * List the hydrated and pinned processes, except the excluded ones, most recently used first. Must be
+     * called with the management lock held.
+     * @return the history lines, or <code>null</code> if no history is kept
+     */
+    private List<String> hydrationHistory(Collection<BpelProcess> excluded) {
+        if (_hydrationHistoryFile == null)
+            return null;
+        List<BpelProcess> processes = new ArrayList<BpelProcess>();
+        for (BpelProcess process : _registeredProcesses) {
+            if ((process.hintIsHydrated() && !excluded.contains(process)) || process.isPinned())
+                processes.add(process);
+        }
+        Collections.sort(processes, new Comparator<BpelProcess>() {
+            public int compare(BpelProcess p1, BpelProcess p2) {
+                if (p1.getLastUsed() > p2.getLastUsed()) return -1;
+                if (p1.getLastUsed() < p2.getLastUsed()) return 1;
+                return 0;
+            }
+        });
+        List<String> history = new ArrayList<String>(processes.size());
+        for (BpelProcess process : processes)
+            history.add((process.isPinned() ? "+" : "") + process.getPID());
+        return history;
+    }
+
+    /**
+     * Write the hydration history file, unless it already has these contents. Does not need the management lock.
+     */
+    private void writeHydrationHistory(List<String> history) {
+        synchronized (_hydrationHistoryWriteLock) {
+            if (history.equals(_savedHydrationHistory))
+                return;
+            File file = _hydrationHistoryFile;
+            File tmp = new File(file.getPath() + ".tmp");
+            try {
+                PrintWriter writer = new PrintWriter(new FileWriter(tmp));
+                try {
+                    for (String line : history)
+                        writer.println(line);
+                } finally {
+                    writer.close();
+                }
+                if (!tmp.renameTo(file)) {
+                    file.delete();
+                    if (!tmp.renameTo(file)) {
+                        __log.warn("Could not write the process hydration history " + file);
+                        return;
+                    }
+                }
+                _savedHydrationHistory = history;
+            } catch (IOException e) {
+                __log.warn("Could not write the process hydration history " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Retired and cold processes are only left dehydrated at startup when lazy hydration is enabled.
+     * @param cold whether the process was not hydrated before the last shutdown
+     */
+    private boolean isLazyHydratable(BpelProcess process, boolean cold) {
         if (process.isHydrationLazySet()) {
             return process.isHydrationLazy();
         }
         if (!_hydrationLazy) {
             return false;
         }
+        if (_state != State.RUNNING) {
+            // starting up: retired versions, and the ones not used before the last shutdown, wait for their first use
+            if (process.getConf().getState() == ProcessState.RETIRED)
+                return true;
+            if (cold && _hydrationHistoryLoaded)
+                return true;
+        }
         return process.getEstimatedHydratedSize() < _hydrationLazyMinimumSize;
     }
 
@@ -353,7 +604,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
             __log.trace("unregister: " + pid);
 
         try {
-            _mngmtLock.writeLock().lockInterruptibly();
+            lockManagementInterruptibly();
         } catch (InterruptedException ie) {
             __log.debug("unregister() interrupted.", ie);
             throw new BpelEngineException(__msgs.msgOperationInterrupted());
@@ -374,7 +625,7 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
             __log.error(__msgs.msgProcessUnregisterFailed(pid), ex);
             throw new BpelEngineException(ex);
         } finally {
-            _mngmtLock.writeLock().unlock();
+            _mngmtLock.unlock();
         }
     }
 
@@ -458,7 +709,11 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
             try {
                 while (true) {
                     Thread.sleep(pollingTime);
-                    if (!_mngmtLock.writeLock().tryLock(100L, TimeUnit.MILLISECONDS)) continue;
+                    long start = System.nanoTime();
+                    if (!_mngmtLock.tryLock(100L, TimeUnit.MILLISECONDS)) continue;
+                    _mngmtLockWait.record(System.nanoTime() - start);
+                    List<BpelProcess> ripped;
+                    List<String> history;
                     try {
                         if (__log.isDebugEnabled()) {
                             __log.debug("Kicking reaper, OProcess instances: " + OProcess.instanceCount);
@@ -466,6 +721,8 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                         // Copying the runnning process list to avoid synchronization
                         // problems and a potential mess if a policy modifies the list
                         List<BpelProcess> candidates = new ArrayList<BpelProcess>(_registeredProcesses);
+                        // Processes in use or pinned are left to the policy: they are not evictable
+                        // but still weigh on the limits
                         CollectionsX.remove_if(candidates, new MemberOfFunction<BpelProcess>() {
                             public boolean isMember(BpelProcess o) {
                                 return !o.hintIsHydrated();
@@ -474,16 +731,23 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
                         });
 
                         // And the happy winners are...
-                        List<BpelProcess> ripped = _dehydrationPolicy.markForDehydration(candidates);
-                        // Bye bye
-                        for (BpelProcess process : ripped) {
+                        ripped = _dehydrationPolicy.markForDehydration(candidates);
+                        history = hydrationHistory(ripped);
+                    } finally {
+                        _mngmtLock.unlock();
+                    }
+                    if (history != null)
+                        writeHydrationHistory(history);
+                    // Bye bye; a process picked up meanwhile is skipped until the next pass
+                    for (BpelProcess process : ripped) {
+                        if (process.dehydrate()) {
+                            _dehydrationPolicy.processDehydrated(process);
                             if (__log.isDebugEnabled()) {
-                                __log.debug("Dehydrating process " + process.getPID());
+                                __log.debug("Dehydrated process " + process.getPID());
                             }
-                            process.dehydrate();
+                        } else if (__log.isDebugEnabled()) {
+                            __log.debug("Process " + process.getPID() + " in use, not dehydrated");
                         }
-                    } finally {
-                        _mngmtLock.writeLock().unlock();
                     }
                 }
             } catch (InterruptedException e) {
@@ -496,6 +760,10 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         _dehydrationPolicy = dehydrationPolicy;
     }
 
+    public DehydrationPolicy getDehydrationPolicy() {
+        return _dehydrationPolicy;
+    }
+
     public void setConfigProperties(Properties configProperties) {
         _configProperties = configProperties;
     }
@@ -580,6 +848,20 @@ public class BpelServerImpl implements BpelServer, Scheduler.JobProcessor {
         _engine.setInstanceThrottledMaximumCount(instanceThrottledMaximumCount);
     }
 
+    public void setExecutionSliceBudget(long maximumTime, int maximumReductions, long maximumCpuTime) {
+        _engine.setExecutionSliceBudget(maximumTime, maximumReductions, maximumCpuTime);
+    }
+
+    /**
+     * Execution slices of the instances of a process.
+     * @return <code>null</code> if the process is not registered
+     */
+    public ExecutionStats getExecutionStats(QName pid) {
+        BpelEngineImpl engine = _engine;
+        BpelProcess process = engine == null ? null : engine.getProcess(pid);
+        return process == null ? null : process.getExecutionStats();
+    }
+
     /**
      * A polled runnable instance that implements this interface will be set
      * with the contexts before the run() method is called.
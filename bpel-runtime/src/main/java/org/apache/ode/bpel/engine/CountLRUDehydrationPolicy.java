@@ -40,7 +40,7 @@ public class CountLRUDehydrationPolicy implements DehydrationPolicy {
             // The oldies have to go first
             long now = System.currentTimeMillis();
             for (BpelProcess process : runningProcesses) {
-                if (now - process.getLastUsed() > _processMaxAge) {
+                if (process.isEvictable() && now - process.getLastUsed() > _processMaxAge) {
                     ripped.add(process);
                 }
             }
@@ -48,22 +48,31 @@ public class CountLRUDehydrationPolicy implements DehydrationPolicy {
 
         // If it's not enough, other ones must be put to the axe
         if (runningProcesses.size() - ripped.size() > _processMaxCount) {
-            runningProcesses.removeAll(ripped);
-            Collections.sort(runningProcesses, new Comparator<BpelProcess>() {
+            List<BpelProcess> kept = new ArrayList<BpelProcess>(runningProcesses);
+            kept.removeAll(ripped);
+            Collections.sort(kept, new Comparator<BpelProcess>() {
                 public int compare(BpelProcess p1, BpelProcess p2) {
                     if (p1.getLastUsed() > p2.getLastUsed()) return -1;
                     if (p1.getLastUsed() < p2.getLastUsed()) return 1;
                     return 0;
                 }
             });
-            for (int m = _processMaxCount; m < runningProcesses.size(); m++) {
-                ripped.add(runningProcesses.get(m));
+            // Processes in use or pinned still count, the least recently used of the others go
+            int excess = kept.size() - _processMaxCount;
+            for (int m = kept.size() - 1; m >= 0 && excess > 0; m--) {
+                if (kept.get(m).isEvictable()) {
+                    ripped.add(kept.get(m));
+                    excess--;
+                }
             }
         }
 
         return ripped;
     }
 
+    public void processDehydrated(BpelProcess process) {
+    }
+
     public void setProcessMaxAge(long processMaxAge) {
         _processMaxAge = processMaxAge;
     }
@@ -31,8 +31,17 @@ public interface DehydrationPolicy {
      * Checks the currently running processes and marks some of them for
      * dehydration according to a specifically configured policy. The
      * returned processes will be dehydrated by the engine.
-     * @param runningProcesses all running (currently hydrated) processes
+     * @param runningProcesses all running (currently hydrated) processes, including
+     *        those in use or pinned: they count toward the limits but must not be
+     *        marked (see {@link BpelProcess#isEvictable()})
      * @return processes elected for dehydration
      */
     List<BpelProcess> markForDehydration(List<BpelProcess> runningProcesses);
+
+    /**
+     * Called for each marked process the engine actually dehydrated; a process
+     * picked up meanwhile is skipped and not reported.
+     * @param process dehydrated process
+     */
+    void processDehydrated(BpelProcess process);
 }
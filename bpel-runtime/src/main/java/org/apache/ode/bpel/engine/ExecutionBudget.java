@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+/**
+ * Budget of one execution slice: the wall time, the number of reductions and the CPU time an instance
+ * may use before it saves its state and yields its worker. A limit of 0 or less means no limit.
+ */
+class ExecutionBudget {
+
+    /** Reading the thread CPU time is not free, it is only checked every 64 reductions. */
+    private static final int CPU_CHECK_MASK = 0x3f;
+
+    private final long _deadline;
+
+    private final int _maxReductions;
+
+    private final long _startCpu;
+
+    private final long _maxCpu;
+
+    /**
+     * @param maximumTime wall time (ms)
+     * @param maximumReductions number of reductions
+     * @param maximumCpuTime CPU time (ms)
+     * @param start start of the slice, as given by {@link #currentTimeMillis()}
+     * @param startCpu CPU time of the thread at the start of the slice, as given by
+     *        {@link #currentThreadCpuTime()}, negative if unknown
+     */
+    ExecutionBudget(long maximumTime, int maximumReductions, long maximumCpuTime, long start, long startCpu) {
+        _deadline = maximumTime > 0 ? start + maximumTime : Long.MAX_VALUE;
+        _maxReductions = maximumReductions > 0 ? maximumReductions : Integer.MAX_VALUE;
+        _startCpu = startCpu;
+        _maxCpu = startCpu >= 0 && maximumCpuTime > 0 ? maximumCpuTime * 1000000L : 0;
+    }
+
+    /**
+     * @param reductions number of reductions run so far in the slice
+     * @return whether the slice must end
+     */
+    boolean isUsedUp(int reductions) {
+        return reductions >= _maxReductions
+                || (_deadline != Long.MAX_VALUE && currentTimeMillis() >= _deadline)
+                || (_maxCpu > 0 && (reductions & CPU_CHECK_MASK) == CPU_CHECK_MASK
+                        && currentThreadCpuTime() - _startCpu >= _maxCpu);
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    long currentThreadCpuTime() {
+        return ExecutionStats.currentThreadCpuTime();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.utils.metrics.Counter;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+
+/**
+ * Counters of the execution slices of the instances of a process (the reductions run by a worker
+ * before the instance state is saved), used to find the processes and instances keeping workers
+ * busy the longest. They are published in the {@link MetricsRegistry} as the
+ * <code>process.&lt;pid&gt;.slice.time</code>, <code>.cputime</code> (microseconds) and
+ * <code>.reductions</code> histograms and the <code>process.&lt;pid&gt;.slice.yields</code> counter.
+ */
+public class ExecutionStats {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final boolean CPU_TIME_SUPPORTED;
+
+    static {
+        boolean supported = false;
+        try {
+            supported = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException e) {
+            // not supported
+        }
+        CPU_TIME_SUPPORTED = supported;
+    }
+
+    private final Histogram _time;
+
+    private final Histogram _cpuTime;
+
+    private final Histogram _reductions;
+
+    private final Counter _yields;
+
+    private long _maxSliceTime;
+
+    private Long _maxSliceInstanceId;
+
+    ExecutionStats(QName pid) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String prefix = "process." + pid + ".slice.";
+        _time = metrics.histogram(prefix + "time");
+        _cpuTime = metrics.histogram(prefix + "cputime");
+        _reductions = metrics.histogram(prefix + "reductions");
+        _yields = metrics.counter(prefix + "yields");
+    }
+
+    /**
+     * CPU time (ns) used by the current thread, or -1 if not available.
+     */
+    static long currentThreadCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREADS.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Record one execution slice.
+     * @param iid instance executed
+     * @param reductions number of reductions run
+     * @param timeNanos wall time of the slice, in nanoseconds
+     * @param cpuNanos CPU time of the slice, in nanoseconds (negative if unknown)
+     * @param yielded whether the slice ended because it used up its budget
+     */
+    void record(Long iid, int reductions, long timeNanos, long cpuNanos, boolean yielded) {
+        _time.record(timeNanos / 1000);
+        _reductions.record(reductions);
+        if (cpuNanos >= 0)
+            _cpuTime.record(cpuNanos / 1000);
+        if (yielded)
+            _yields.inc();
+        synchronized (this) {
+            if (timeNanos > _maxSliceTime) {
+                _maxSliceTime = timeNanos;
+                _maxSliceInstanceId = iid;
+            }
+        }
+    }
+
+    /** Number of execution slices. */
+    public long getSliceCount() {
+        return _time.getCount();
+    }
+
+    /** Number of reductions run. */
+    public long getReductionCount() {
+        return _reductions.getSum();
+    }
+
+    /** Total time (ms) spent executing instances. */
+    public long getTotalTime() {
+        return _time.getSum() / 1000L;
+    }
+
+    /** Total CPU time (ms) spent executing instances, if the JVM measures it. */
+    public long getTotalCpuTime() {
+        return _cpuTime.getSum() / 1000L;
+    }
+
+    /** Number of slices that used up their budget, the instance yielding its worker. */
+    public long getYieldCount() {
+        return _yields.getCount();
+    }
+
+    /** Longest slice (ms). */
+    public synchronized long getMaxSliceTime() {
+        return _maxSliceTime / 1000000L;
+    }
+
+    /** Instance that ran the longest slice. */
+    public synchronized Long getMaxSliceInstanceId() {
+        return _maxSliceInstanceId;
+    }
+}
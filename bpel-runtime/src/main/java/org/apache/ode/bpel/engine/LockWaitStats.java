@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+
+/**
+ * Counters of the time spent waiting on a lock, used to make contention between management
+ * operations (deployment, dehydration) and request processing observable. The wait times are
+ * published in the {@link MetricsRegistry} as the <code>&lt;name&gt;.wait</code> histogram
+ * (microseconds).
+ */
+public class LockWaitStats {
+
+    private final Histogram _wait;
+
+    /**
+     * @param name name of the lock in the metrics registry
+     */
+    LockWaitStats(String name) {
+        _wait = MetricsRegistry.getInstance().histogram(name + ".wait");
+    }
+
+    /**
+     * Record one acquisition of the lock.
+     * @param waitNanos time spent waiting for the lock, in nanoseconds
+     */
+    void record(long waitNanos) {
+        _wait.record(waitNanos / 1000);
+    }
+
+    /** Number of acquisitions of the lock. */
+    public long getCount() {
+        return _wait.getCount();
+    }
+
+    /** Total time (ms) spent waiting for the lock. */
+    public long getTotalWaitTime() {
+        return _wait.getSum() / 1000L;
+    }
+
+    /** Longest time (ms) spent waiting for the lock. */
+    public long getMaxWaitTime() {
+        return _wait.getMax() / 1000L;
+    }
+
+    public String toString() {
+        return "acquisitions: " + getCount() + ", total wait: " + getTotalWaitTime() + "ms, max wait: " + getMaxWaitTime() + "ms";
+    }
+}
@@ -40,6 +40,12 @@ abstract class MessageExchangeImpl implements MessageExchange {
     private static final Logger __log = LoggerFactory.getLogger(MessageExchangeImpl.class);
     protected static final Messages __msgs = MessageBundle.getMessages(Messages.class);
 
+    /**
+     * Property set on both exchanges of a process-to-process invocation between in-memory processes whose
+     * request and response jobs are run directly, see {@link BpelEngineImpl#dispatchDirectJob}.
+     */
+    static final String PROPERTY_P2P_DIRECT = "p2pDirect";
+
     /** Process-Instance identifier.*/
     protected Long _iid;
 
@@ -111,6 +111,11 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
 
     @SuppressWarnings("unchecked")
     public Future invoke(Message request) {
+        return invoke(request, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Future invoke(Message request, ResponseListener listener) {
         if (request == null) {
             String errmsg = "Must pass non-null message to invoke()!";
             __log.error(errmsg);
@@ -144,15 +149,19 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
             we.setMexId(getDAO().getMessageExchangeId());
 
             if (getOperation().getOutput() != null) {
-                ResponseCallback callback = new ResponseCallback();
+                ResponseCallback callback = new ResponseCallback(getMessageExchangeId(), listener);
                 _waitingCallbacks.put(getClientId(), callback);
             }
 
             setStatus(Status.ASYNC);
             Replayer replayer = Replayer.replayer.get();
             if (replayer == null) {
-                if (target.isInMemory())
-                    _engine._contexts.scheduler.scheduleVolatileJob(true, we);
+                if (target.isInMemory()) {
+                    if (Boolean.parseBoolean(getProperty(PROPERTY_P2P_DIRECT)))
+                        _engine.dispatchDirectJob(we);
+                    else if (!invokeInline(we))
+                        _engine._contexts.scheduler.scheduleVolatileJob(true, we);
+                }
                 else
                     _engine._contexts.scheduler.schedulePersistedJob(we, null);
             } else {
@@ -162,6 +171,41 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
         }
     }
 
+    /**
+     * Run the invocation of an in-memory process on the calling thread, in the caller's transaction, instead
+     * of handing it to the scheduler. When the process replies without having to wait, the response is set
+     * on the exchange by the time {@link #invoke(Message, ResponseListener)} returns and can be read in the
+     * same transaction; otherwise the response is delivered as usual. Not done for invocations made while
+     * processing a job (e.g. by another process), these go through {@link BpelEngineImpl#dispatchDirectJob}.
+     *
+     * @return <code>false</code> if the invocation has to be scheduled
+     */
+    private boolean invokeInline(JobDetails we) {
+        if (!OdeGlobalConfig.inlineInMemoryInvocations() || getOperation().getOutput() == null
+                || !_engine._contexts.scheduler.isTransacted() || _engine.isProcessingJob())
+            return false;
+
+        if (__log.isDebugEnabled())
+            __log.debug("Invoking in-memory process " + we.getProcessId() + " inline for mex " + getMessageExchangeId());
+        try {
+            // the instance is busy, nothing was done: let the scheduler try
+            if (!_engine.processJobInline(new Scheduler.JobInfo("inline-" + getMessageExchangeId(), we, 0)))
+                return false;
+        } catch (Scheduler.JobProcessorException jpe) {
+            // part of the job may be done in the caller's transaction, which must not commit it; and rather than
+            // retrying, fail now as a scheduled in-memory job would not be retried either
+            __log.error("Inline invocation of mex " + getMessageExchangeId() + " failed", jpe);
+            try {
+                _engine._contexts.scheduler.setRollbackOnly();
+            } catch (Exception e) {
+                __log.error("Could not mark the transaction of mex " + getMessageExchangeId() + " for rollback", e);
+            }
+            if (getStatus() == Status.ASYNC)
+                setFailure(MessageExchange.FailureType.OTHER, "Invocation failed: " + jpe.getMessage(), null);
+        }
+        return true;
+    }
+
     public void complete() {
     }
 
@@ -225,13 +269,24 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
     static class ResponseFuture implements Future {
         private String _clientId;
         private boolean _done = false;
+        private boolean _cancelled = false;
 
         public ResponseFuture(String clientId) {
             _clientId = clientId;
         }
 
+        /**
+         * Stop waiting for the response.
+         *
+         * @return <code>false</code> if the response already arrived
+         */
         public boolean cancel(boolean mayInterruptIfRunning) {
-            throw new UnsupportedOperationException();
+            ResponseCallback callback = _waitingCallbacks.remove(_clientId);
+            if (callback == null || !callback.cancel())
+                return false;
+            _cancelled = true;
+            _done = true;
+            return true;
         }
 
         public Object get() throws InterruptedException, ExecutionException {
@@ -255,7 +310,7 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
         }
 
         public boolean isCancelled() {
-            return false;
+            return _cancelled;
         }
 
         public boolean isDone() {
@@ -283,14 +338,42 @@ public class MyRoleMessageExchangeImpl extends MessageExchangeImpl implements My
     }
 
     static class ResponseCallback {
+        private final String _mexId;
+        private final ResponseListener _listener;
         private boolean _timedout;
         private boolean _waiting = true;
 
-        synchronized boolean responseReceived() {
-            if (_timedout) {
-                return false;
+        ResponseCallback() {
+            this(null, null);
+        }
+
+        ResponseCallback(String mexId, ResponseListener listener) {
+            _mexId = mexId;
+            _listener = listener;
+        }
+
+        boolean responseReceived() {
+            synchronized (this) {
+                if (_timedout) {
+                    return false;
+                }
+                _waiting = false;
+                this.notify();
+            }
+            if (_listener != null) {
+                try {
+                    _listener.onResponse(_mexId);
+                } catch (Throwable t) {
+                    __log.error("Error notifying the response of mex " + _mexId, t);
+                }
             }
-            _waiting = false;
+            return true;
+        }
+
+        synchronized boolean cancel() {
+            if (!_waiting)
+                return false;
+            _timedout = true;
             this.notify();
             return true;
         }
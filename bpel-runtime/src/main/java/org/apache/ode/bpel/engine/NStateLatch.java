@@ -99,6 +99,42 @@ public class NStateLatch {
         }
     }
 
+    /**
+     * Latch in the given state only if that is possible without waiting, that is if the latch
+     * already is in that state or if its count is zero. The check and the state transition are
+     * atomic.
+     * @param state state to latch in
+     * @return <code>true</code> if latched (must then be released), <code>false</code> otherwise
+     */
+    public boolean tryLatch(int state) {
+        if (state >= _transitions.length || state < 0)
+            throw new IllegalArgumentException("Invalid state.");
+
+        _lock.lock();
+        try {
+            if (_transitioning )
+                throw new IllegalStateException("Manipulating latch from transition. ");
+
+            if (_state != state) {
+                if (_depth != 0)
+                    return false;
+
+                if (_transitions[state] != null)
+                    try {
+                        _transitioning = true;
+                        _transitions[state].run();
+                    } finally {
+                        _transitioning = false;
+                    }
+                _state = state;
+            }
+            _depth ++;
+            return true;
+        } finally {
+            _lock.unlock();
+        }
+    }
+
     public void release(int state) {
         _lock.lock();
         try {
@@ -57,6 +57,8 @@ import org.apache.ode.bpel.obj.OScope;
 import org.apache.ode.bpel.runtime.InvalidProcessException;
 import org.apache.ode.bpel.runtime.PROCESS;
 import org.apache.ode.utils.ObjectPrinter;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -66,8 +68,11 @@ import org.w3c.dom.Node;
  */
 public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
     private static final Logger __log = LoggerFactory.getLogger(BpelProcess.class);
+
     private static final Messages __msgs = MessageBundle.getMessages(Messages.class);
 
+    private static final Histogram __routeLookup = MetricsRegistry.getInstance().histogram("engine.route.lookup");
+
     /** The local endpoint for this "myrole". */
     public Endpoint _endpoint;
 
@@ -145,7 +150,9 @@ public class PartnerLinkMyRoleImpl extends PartnerLinkRoleImpl {
         }
 
         // Try to find a route for one of our keys.
+        long start = System.nanoTime();
         List<MessageRouteDAO> messageRoutes = correlator.findRoute(keySet);
+        __routeLookup.record(MetricsRegistry.micros(start));
         if (messageRoutes != null && messageRoutes.size() > 0) {
             for (MessageRouteDAO messageRoute : messageRoutes) {
                 if (__log.isDebugEnabled()) {
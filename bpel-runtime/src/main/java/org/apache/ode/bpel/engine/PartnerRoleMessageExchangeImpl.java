@@ -141,7 +141,9 @@ public class PartnerRoleMessageExchangeImpl extends MessageExchangeImpl implemen
         we.setMexId(getDAO().getMessageExchangeId());
         Replayer replayer = Replayer.replayer.get();
         if (replayer == null) {
-            if (we.getInMem())
+            if (we.getInMem() && Boolean.parseBoolean(getProperty(PROPERTY_P2P_DIRECT)))
+                _engine.dispatchDirectJob(we);
+            else if (we.getInMem())
                 _engine._contexts.scheduler.scheduleVolatileJob(true, we);
             else
                 _engine._contexts.scheduler.schedulePersistedJob(we, null);
@@ -253,6 +253,25 @@ public class ProcessAndInstanceManagementImpl implements InstanceManagement, Pro
         return getProcessInfoCustom(pid, ProcessInfoCustomizer.NONE);
     }
 
+    /**
+     * Keep a process hydrated whatever the dehydration policy (loading it in the background if needed),
+     * or release it to the policy again.
+     */
+    public ProcessInfoDocument setPinned(QName pid, boolean pinned) throws ManagementException {
+        if (!_server.setPinned(pid, pinned))
+            throw new ProcessNotFoundException("ProcessNotFound:" + pid);
+        return getProcessInfoCustom(pid, ProcessInfoCustomizer.NONE);
+    }
+
+    /**
+     * Load a process model in the background, ahead of the traffic it is expected to receive.
+     */
+    public ProcessInfoDocument prewarm(QName pid) throws ManagementException {
+        if (_server.prewarm(pid) == null)
+            throw new ProcessNotFoundException("ProcessNotFound:" + pid);
+        return getProcessInfoCustom(pid, ProcessInfoCustomizer.NONE);
+    }
+
     public ProcessInfoDocument setRetired(QName pid, boolean retired) throws ManagementException {
         try {
             _store.setState(pid, retired ? ProcessState.RETIRED : ProcessState.ACTIVE);
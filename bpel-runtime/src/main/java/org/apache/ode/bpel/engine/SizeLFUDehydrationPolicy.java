@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Dehydration policy bounded by the total size of the hydrated process models rather than by their
+ * count. Sizes are the footprints measured by the engine at first hydration (using the sizing agent
+ * when it is installed, see {@link BpelProcess#sizeOf()}).
+ *
+ * When the hydrated processes exceed the size budget, the most recently used processes filling a
+ * small "window" of the budget are kept, so that newly hydrated processes get a chance to build up a
+ * usage history. The remaining processes are evicted by increasing frequency per byte, frequencies
+ * being approximated by a periodically halved count-min sketch of process uses (the TinyLFU scheme).
+ * A large process that is rarely used thus goes before a small one used as rarely, and before a
+ * large one used often. Processes unused for longer than the maximum age are always dehydrated.
+ */
+public class SizeLFUDehydrationPolicy implements DehydrationPolicy {
+
+    /** Maximum age of a process before it is quiesced */
+    private long _processMaxAge = 20 * 60 * 1000;
+    /** Maximum total size (bytes) of the hydrated processes */
+    private long _processMaxSize = 256L * 1024 * 1024;
+    /** Share (percent) of the size budget reserved to the most recently used processes */
+    private int _windowPercent = 10;
+
+    private final FrequencySketch _sketch = new FrequencySketch();
+
+    /** Use count of each process at the previous run, to feed the sketch with the uses in between. */
+    private final Map<BpelProcess, Long> _useCounts = new WeakHashMap<BpelProcess, Long>();
+
+    private long _evictionCount;
+    private long _evictedBytes;
+    private long _hydratedBytes;
+
+    public synchronized List<BpelProcess> markForDehydration(List<BpelProcess> runningProcesses) {
+        ArrayList<BpelProcess> ripped = new ArrayList<BpelProcess>();
+        ArrayList<BpelProcess> kept = new ArrayList<BpelProcess>(runningProcesses.size());
+
+        _sketch.ensureCapacity(runningProcesses.size());
+        long now = System.currentTimeMillis();
+        long total = 0;
+        for (BpelProcess process : runningProcesses) {
+            recordUses(process);
+            if (!process.isEvictable()) {
+                // In use or pinned: takes its share of the budget, but stays
+                total += process.getHydratedSize();
+            } else if (_processMaxAge > 0 && now - process.getLastUsed() > _processMaxAge) {
+                // The oldies have to go first
+                ripped.add(process);
+            } else {
+                kept.add(process);
+                total += process.getHydratedSize();
+            }
+        }
+
+        if (total > _processMaxSize) {
+            Collections.sort(kept, new Comparator<BpelProcess>() {
+                public int compare(BpelProcess p1, BpelProcess p2) {
+                    if (p1.getLastUsed() > p2.getLastUsed()) return -1;
+                    if (p1.getLastUsed() < p2.getLastUsed()) return 1;
+                    return 0;
+                }
+            });
+            long windowBudget = _processMaxSize / 100 * _windowPercent;
+            long windowSize = 0;
+            int window = 0;
+            while (window < kept.size() && windowSize + kept.get(window).getHydratedSize() <= windowBudget) {
+                windowSize += kept.get(window).getHydratedSize();
+                window++;
+            }
+
+            // Least frequently used per byte first, least recently used first on a tie (stable sort)
+            List<BpelProcess> main = new ArrayList<BpelProcess>(kept.subList(window, kept.size()));
+            Collections.reverse(main);
+            Collections.sort(main, new Comparator<BpelProcess>() {
+                public int compare(BpelProcess p1, BpelProcess p2) {
+                    return Double.compare(score(p1), score(p2));
+                }
+            });
+            for (BpelProcess process : main) {
+                if (total <= _processMaxSize) break;
+                ripped.add(process);
+                total -= process.getHydratedSize();
+            }
+            // The window alone does not fit, it is trimmed from its least recently used end
+            for (int m = window - 1; m >= 0 && total > _processMaxSize; m--) {
+                ripped.add(kept.get(m));
+                total -= kept.get(m).getHydratedSize();
+            }
+        }
+
+        // Marked processes are only gone once the engine reports them dehydrated
+        _hydratedBytes = total;
+        for (BpelProcess process : ripped)
+            _hydratedBytes += process.getHydratedSize();
+        return ripped;
+    }
+
+    public synchronized void processDehydrated(BpelProcess process) {
+        long size = process.getHydratedSize();
+        _evictionCount++;
+        _evictedBytes += size;
+        _hydratedBytes -= size;
+    }
+
+    private void recordUses(BpelProcess process) {
+        long uses = process.getUseCount();
+        Long previous = _useCounts.put(process, uses);
+        long delta = previous == null ? uses : uses - previous;
+        if (delta > 0)
+            _sketch.increment(process.getPID().hashCode(), delta);
+    }
+
+    private double score(BpelProcess process) {
+        return (_sketch.frequency(process.getPID().hashCode()) + 1) / (double) Math.max(1, process.getHydratedSize());
+    }
+
+    public void setProcessMaxAge(long processMaxAge) {
+        _processMaxAge = processMaxAge;
+    }
+
+    public void setProcessMaxSize(long processMaxSize) {
+        _processMaxSize = processMaxSize;
+    }
+
+    public void setWindowPercent(int windowPercent) {
+        _windowPercent = Math.max(0, Math.min(100, windowPercent));
+    }
+
+    /** Number of processes this policy marked for dehydration and that got dehydrated. */
+    public synchronized long getEvictionCount() {
+        return _evictionCount;
+    }
+
+    /** Total size of the processes this policy marked for dehydration and that got dehydrated. */
+    public synchronized long getEvictedBytes() {
+        return _evictedBytes;
+    }
+
+    /** Total size of the hydrated processes at the last run, less the ones dehydrated since. */
+    public synchronized long getHydratedBytes() {
+        return _hydratedBytes;
+    }
+
+    /**
+     * Count-min sketch of small (saturating at 15) counters. All counters are halved once the number of
+     * increments reaches ten times the sketch width, so that old popularity fades away.
+     */
+    static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = { 0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F };
+
+        private int[][] _table = new int[DEPTH][16];
+        private long _additions;
+
+        void ensureCapacity(int entries) {
+            int width = _table[0].length;
+            if (width >= entries * 4)
+                return;
+            while (width < entries * 4)
+                width <<= 1;
+            // An index is the low bits of the hash, so each counter moves to all the slots sharing
+            // its low bits: no estimate drops and the history is kept
+            int[][] table = new int[DEPTH][width];
+            for (int i = 0; i < DEPTH; i++) {
+                int[] row = _table[i];
+                for (int j = 0; j < width; j++)
+                    table[i][j] = row[j & (row.length - 1)];
+            }
+            _table = table;
+        }
+
+        void increment(int hash, long count) {
+            int add = (int) Math.min(count, MAX_COUNT);
+            for (int i = 0; i < DEPTH; i++) {
+                int[] row = _table[i];
+                int idx = index(hash, i, row.length);
+                row[idx] = Math.min(MAX_COUNT, row[idx] + add);
+            }
+            _additions += add;
+            if (_additions >= 10L * _table[0].length)
+                reset();
+        }
+
+        int frequency(int hash) {
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                int[] row = _table[i];
+                min = Math.min(min, row[index(hash, i, row.length)]);
+            }
+            return min;
+        }
+
+        private void reset() {
+            for (int[] row : _table) {
+                for (int j = 0; j < row.length; j++)
+                    row[j] >>>= 1;
+            }
+            _additions >>>= 1;
+        }
+
+        private static int index(int hash, int i, int width) {
+            int h = hash * SEEDS[i];
+            h ^= h >>> 16;
+            return h & (width - 1);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.utils.metrics.MetricsRegistry;
+
+/**
+ * Test case for {@link ExecutionBudget} and {@link ExecutionStats}.
+ */
+public class ExecutionBudgetTest extends TestCase {
+
+    public void testReductionBudget() {
+        Budget budget = new Budget(0, 10, 0);
+        assertFalse(budget.isUsedUp(9));
+        assertTrue(budget.isUsedUp(10));
+        assertTrue(budget.isUsedUp(11));
+    }
+
+    public void testTimeBudget() {
+        Budget budget = new Budget(100, 0, 0);
+        budget.now = 1099;
+        assertFalse(budget.isUsedUp(1));
+        budget.now = 1100;
+        assertTrue(budget.isUsedUp(2));
+    }
+
+    public void testCpuBudget() {
+        Budget budget = new Budget(0, 0, 5);
+        budget.cpu = 5000000L + 5000000L;
+        // The CPU time is only read every 64 reductions
+        assertFalse(budget.isUsedUp(1));
+        assertFalse(budget.isUsedUp(62));
+        assertTrue(budget.isUsedUp(63));
+
+        budget.cpu = 5000000L + 4999999L;
+        assertFalse(budget.isUsedUp(127));
+    }
+
+    public void testCpuTimeUnknown() {
+        Budget budget = new Budget(0, 0, 5, -1);
+        budget.cpu = Long.MAX_VALUE;
+        assertFalse(budget.isUsedUp(63));
+    }
+
+    public void testUnlimited() {
+        Budget budget = new Budget(0, 0, 0);
+        budget.now = Long.MAX_VALUE - 1;
+        budget.cpu = Long.MAX_VALUE;
+        assertFalse(budget.isUsedUp(Integer.MAX_VALUE - 1));
+
+        budget = new Budget(-1, -1, -1);
+        budget.now = Long.MAX_VALUE - 1;
+        budget.cpu = Long.MAX_VALUE;
+        assertFalse(budget.isUsedUp(Integer.MAX_VALUE - 1));
+    }
+
+    public void testStatsPublished() {
+        QName pid = new QName("urn:test", "ExecutionBudgetTest-" + System.nanoTime());
+        ExecutionStats stats = new ExecutionStats(pid);
+        stats.record(1L, 10, 3000000L, 2000000L, false);
+        stats.record(2L, 20, 5000000L, -1, true);
+
+        assertEquals(2, stats.getSliceCount());
+        assertEquals(30, stats.getReductionCount());
+        assertEquals(8, stats.getTotalTime());
+        assertEquals(2, stats.getTotalCpuTime());
+        assertEquals(1, stats.getYieldCount());
+        assertEquals(5, stats.getMaxSliceTime());
+        assertEquals(Long.valueOf(2), stats.getMaxSliceInstanceId());
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String prefix = "process." + pid + ".slice.";
+        assertEquals(2, metrics.histogram(prefix + "time").getCount());
+        assertEquals(30, metrics.histogram(prefix + "reductions").getSum());
+        assertEquals(1, metrics.histogram(prefix + "cputime").getCount());
+        assertEquals(1, metrics.counter(prefix + "yields").getCount());
+    }
+
+    /** Budget started at time 1000 and CPU time 5ms, with manual clocks. */
+    static class Budget extends ExecutionBudget {
+        long now = 1000;
+
+        long cpu = 5000000L;
+
+        Budget(long maximumTime, int maximumReductions, long maximumCpuTime) {
+            this(maximumTime, maximumReductions, maximumCpuTime, 5000000L);
+        }
+
+        Budget(long maximumTime, int maximumReductions, long maximumCpuTime, long startCpu) {
+            super(maximumTime, maximumReductions, maximumCpuTime, 1000, startCpu);
+        }
+
+        long currentTimeMillis() {
+            return now;
+        }
+
+        long currentThreadCpuTime() {
+            return cpu;
+        }
+    }
+}
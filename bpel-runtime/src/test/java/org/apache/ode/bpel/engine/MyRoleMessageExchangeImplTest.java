@@ -20,16 +20,22 @@ package org.apache.ode.bpel.engine;
 
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
 import javax.transaction.TransactionManager;
+import javax.xml.namespace.QName;
 
 import junit.framework.TestCase;
 
 import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
 import org.apache.ode.bpel.dao.MessageExchangeDAO;
 import org.apache.ode.bpel.engine.MyRoleMessageExchangeImpl.ResponseCallback;
+import org.apache.ode.bpel.iapi.MyRoleMessageExchange;
+import org.apache.ode.bpel.iapi.Scheduler;
+import org.apache.ode.bpel.iapi.Scheduler.JobDetails;
+import org.apache.ode.bpel.iapi.Scheduler.JobType;
 import org.apache.ode.scheduler.simple.SimpleScheduler;
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -93,6 +99,100 @@ public class MyRoleMessageExchangeImplTest extends TestCase {
         context.assertIsSatisfied();
     }
 
+    public void testResponseListener() throws Exception {
+        context.checking(new Expectations() {{
+            atLeast(1).of(mexDao).getCorrelationId(); will(returnValue("corrId"));
+        }});
+
+        final String[] responded = new String[1];
+        myRoleMexImpl.callbacks().put("corrId", new ResponseCallback("mexId", new MyRoleMessageExchange.ResponseListener() {
+            public void onResponse(String mexId) {
+                responded[0] = mexId;
+            }
+        }));
+
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.rollback();
+        assertNull(responded[0]);
+
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.commit();
+        assertEquals("mexId", responded[0]);
+        assertFalse(new MyRoleMessageExchangeImpl.ResponseFuture("corrId").cancel(false));
+        context.assertIsSatisfied();
+    }
+
+    public void testCancelledResponseListener() throws Exception {
+        context.checking(new Expectations() {{
+            atLeast(1).of(mexDao).getCorrelationId(); will(returnValue("corrId"));
+        }});
+
+        final boolean[] responded = new boolean[1];
+        myRoleMexImpl.callbacks().put("corrId", new ResponseCallback("mexId", new MyRoleMessageExchange.ResponseListener() {
+            public void onResponse(String mexId) {
+                responded[0] = true;
+            }
+        }));
+
+        MyRoleMessageExchangeImpl.ResponseFuture future = new MyRoleMessageExchangeImpl.ResponseFuture("corrId");
+        assertTrue(future.cancel(false));
+        assertTrue(future.isCancelled());
+
+        _txm.begin();
+        myRoleMexImpl.responseReceived();
+        _txm.commit();
+        assertFalse(responded[0]);
+        context.assertIsSatisfied();
+    }
+
+    public void testInlineJobOnBusyInstance() throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread() {
+            public void run() {
+                try {
+                    _txm.begin();
+                    engine.acquireInstanceLock(42L);
+                    locked.countDown();
+                    release.await();
+                    _txm.commit();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        holder.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        JobDetails we = new JobDetails();
+        we.setType(JobType.INVOKE_INTERNAL);
+        we.setInMem(true);
+        we.setInstanceId(42L);
+        we.setProcessId(new QName("urn:test", "Unknown"));
+
+        // The instance is busy: the job does nothing and is left to the scheduler
+        _txm.begin();
+        try {
+            assertFalse(engine.processJobInline(new Scheduler.JobInfo("inline-1", we, 0)));
+            assertFalse(engine.isProcessingJob());
+        } finally {
+            _txm.rollback();
+        }
+
+        release.countDown();
+        holder.join(10000);
+
+        // Once released, the job runs in the caller's transaction (and is abandoned, its process is unknown)
+        _txm.begin();
+        try {
+            assertTrue(engine.processJobInline(new Scheduler.JobInfo("inline-2", we, 0)));
+        } finally {
+            _txm.rollback();
+        }
+    }
+
     protected void setUp() throws Exception {
         _txm = new GeronimoTransactionManager();
 
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.bpel.engine;
+
+import junit.framework.TestCase;
+
+/**
+ * Test case for {@link NStateLatch}.
+ */
+public class NStateLatchTest extends TestCase {
+
+    NStateLatch _latch;
+
+    int[] _transitions;
+
+    public void setUp() {
+        _transitions = new int[2];
+        _latch = new NStateLatch(new Runnable[] { new Count(0), new Count(1) });
+    }
+
+    public void testTryLatchWhileHeld() throws Exception {
+        _latch.latch(1);
+        assertFalse(_latch.tryLatch(0));
+        assertEquals(1, _latch.getDepth(1));
+        assertEquals(0, _transitions[0]);
+
+        // Latching again in the current state never waits
+        assertTrue(_latch.tryLatch(1));
+        _latch.release(1);
+        _latch.release(1);
+    }
+
+    public void testTryLatchWhenUnused() throws Exception {
+        _latch.latch(1);
+        _latch.release(1);
+        assertTrue(_latch.tryLatch(0));
+        assertEquals(1, _transitions[0]);
+        assertEquals(1, _latch.getDepth(0));
+        _latch.release(0);
+
+        _latch.latch(1);
+        assertEquals(2, _transitions[1]);
+        _latch.release(1);
+    }
+
+    private class Count implements Runnable {
+        private final int _state;
+
+        Count(int state) {
+            _state = state;
+        }
+
+        public void run() {
+            _transitions[_state]++;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.bpel.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import junit.framework.TestCase;
+
+import org.apache.ode.bpel.iapi.ProcessConf;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+
+public class SizeLFUDehydrationPolicyTest extends TestCase {
+    Mockery context = new Mockery();
+
+    public void testSizeBound() throws Exception {
+        SizeLFUDehydrationPolicy policy = new SizeLFUDehydrationPolicy();
+        policy.setProcessMaxSize(1000);
+        policy.setWindowPercent(0);
+
+        long now = System.currentTimeMillis();
+        TestProcess big = newProcess("big", 600, now - 10, 1);
+        TestProcess small = newProcess("small", 300, now - 20, 1);
+        TestProcess busy = newProcess("busy", 600, now - 30, 200);
+
+        List<BpelProcess> ripped = policy.markForDehydration(list(big, small, busy));
+        // big and busy have the same size, busy is used far more often
+        assertEquals(1, ripped.size());
+        assertSame(big, ripped.get(0));
+        // Only the dehydrations the engine reports are counted
+        assertEquals(0, policy.getEvictionCount());
+        assertEquals(1500, policy.getHydratedBytes());
+        policy.processDehydrated(big);
+        assertEquals(1, policy.getEvictionCount());
+        assertEquals(600, policy.getEvictedBytes());
+        assertEquals(900, policy.getHydratedBytes());
+
+        assertTrue(policy.markForDehydration(list(small, busy)).isEmpty());
+    }
+
+    public void testInUseAndPinnedCount() throws Exception {
+        SizeLFUDehydrationPolicy policy = new SizeLFUDehydrationPolicy();
+        policy.setProcessMaxSize(1000);
+        policy.setWindowPercent(0);
+
+        long now = System.currentTimeMillis();
+        TestProcess inUse = newProcess("inUse", 600, now - 10, 0);
+        inUse.inUse = true;
+        TestProcess pinned = newProcess("pinned", 300, now - 20, 0);
+        pinned.setPinned(true);
+        TestProcess small = newProcess("small", 200, now - 30, 100);
+        TestProcess large = newProcess("large", 400, now - 40, 100);
+
+        // 1500 bytes hydrated: the evictable processes go until the total fits, in-use and
+        // pinned ones included
+        List<BpelProcess> ripped = policy.markForDehydration(list(inUse, pinned, small, large));
+        assertEquals(2, ripped.size());
+        assertTrue(ripped.contains(small));
+        assertTrue(ripped.contains(large));
+    }
+
+    public void testWindowAndMaxAge() throws Exception {
+        SizeLFUDehydrationPolicy policy = new SizeLFUDehydrationPolicy();
+        policy.setProcessMaxSize(1000);
+        policy.setWindowPercent(50);
+        policy.setProcessMaxAge(60000);
+
+        long now = System.currentTimeMillis();
+        TestProcess fresh = newProcess("fresh", 500, now, 0);
+        TestProcess frequent = newProcess("frequent", 600, now - 1000, 100);
+        TestProcess old = newProcess("old", 10, now - 120000, 100);
+
+        List<BpelProcess> ripped = policy.markForDehydration(list(fresh, frequent, old));
+        // old is over age; the recently hydrated process is protected by the window
+        assertEquals(2, ripped.size());
+        assertTrue(ripped.contains(old));
+        assertTrue(ripped.contains(frequent));
+    }
+
+    public void testFrequencySketch() throws Exception {
+        SizeLFUDehydrationPolicy.FrequencySketch sketch = new SizeLFUDehydrationPolicy.FrequencySketch();
+        sketch.ensureCapacity(4);
+        sketch.increment(1, 5);
+        sketch.increment(2, 100);
+        assertEquals(5, sketch.frequency(1));
+        assertEquals(15, sketch.frequency(2));
+        assertEquals(0, sketch.frequency(3));
+        // aging halves all the counters
+        for (int i = 0; i < 20; i++)
+            sketch.increment(3, 15);
+        assertTrue(sketch.frequency(2) < 15);
+    }
+
+    public void testFrequencySketchGrowth() throws Exception {
+        SizeLFUDehydrationPolicy.FrequencySketch sketch = new SizeLFUDehydrationPolicy.FrequencySketch();
+        sketch.ensureCapacity(4);
+        for (int hash = 0; hash < 8; hash++)
+            sketch.increment(hash * 0x10001, hash + 1);
+        sketch.ensureCapacity(1000);
+        // Growing never loses the history
+        for (int hash = 0; hash < 8; hash++)
+            assertTrue(sketch.frequency(hash * 0x10001) >= hash + 1);
+    }
+
+    private List<BpelProcess> list(BpelProcess... processes) {
+        List<BpelProcess> ret = new ArrayList<BpelProcess>();
+        for (BpelProcess p : processes)
+            ret.add(p);
+        return ret;
+    }
+
+    private TestProcess newProcess(String name, long size, long lastUsed, long uses) {
+        final ProcessConf conf = context.mock(ProcessConf.class, name);
+        final QName pid = new QName("urn:test", name + "-1");
+        context.checking(new Expectations() {{
+            allowing(conf).getProcessId(); will(returnValue(pid));
+        }});
+        return new TestProcess(conf, size, lastUsed, uses);
+    }
+
+    static class TestProcess extends BpelProcess {
+        final long size;
+        final long lastUsed;
+        final long uses;
+        boolean inUse;
+
+        TestProcess(ProcessConf conf, long size, long lastUsed, long uses) {
+            super(conf);
+            this.size = size;
+            this.lastUsed = lastUsed;
+            this.uses = uses;
+        }
+
+        public long getHydratedSize() {
+            return size;
+        }
+
+        public long getLastUsed() {
+            return lastUsed;
+        }
+
+        public long getUseCount() {
+            return uses;
+        }
+
+        boolean isInUse() {
+            return inUse;
+        }
+    }
+}
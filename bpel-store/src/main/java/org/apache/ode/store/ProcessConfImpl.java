@@ -36,6 +36,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.wsdl.Definition;
 import javax.xml.namespace.QName;
@@ -103,6 +104,11 @@ public class ProcessConfImpl implements ProcessConf {
     // monitor the IL property file and reload it if necessary
     private WatchDog<Map<File, Long>, PropertiesObserver> propertiesWatchDog;
 
+    // resolved endpoint properties, replaced whenever the property files are reloaded
+    private volatile ConcurrentHashMap<EndpointKey, Map<String, String>> _endpointProperties =
+            new ConcurrentHashMap<EndpointKey, Map<String, String>>();
+    private static final int MAX_RESOLVED_ENDPOINTS = 1000;
+
     private EndpointReferenceContext eprContext;
 
     private final ProcessCleanupConfImpl processCleanupConfImpl;
@@ -125,6 +131,7 @@ public class ProcessConfImpl implements ProcessConf {
         this.eprContext = eprContext;
 
         propertiesWatchDog = new WatchDog<Map<File, Long>, PropertiesObserver>(new PropertiesMutable(), new PropertiesObserver());
+        propertiesWatchDog.watchInBackground();
 
         initLinks();
         initMexInterceptors();
@@ -476,10 +483,16 @@ public class ProcessConfImpl implements ProcessConf {
         final QName service = (QName) map.get("service");
         final String port = (String) map.get("port");
 
-        // update properties if necessary
-        // do it manually to save resources (instead of using a thread)
-        propertiesWatchDog.check();
+        // read the cache before the properties, so that a reload in between can not leave stale entries in the new cache
+        final ConcurrentHashMap<EndpointKey, Map<String, String>> resolved = _endpointProperties;
+        final EndpointKey key = new EndpointKey(service, port);
+        Map<String, String> cached = resolved.get(key);
+        if (cached != null) return cached;
+
+        // property files are checked for updates in the background, only load them the first time
+        if (!propertiesWatchDog.getObserver().isInitialized()) propertiesWatchDog.check();
         final Map prop = propertiesWatchDog.getObserver().get().getProperties(service, port);
+        if (resolved.size() < MAX_RESOLVED_ENDPOINTS) resolved.put(key, prop);
         if(!prop.isEmpty() && __log.isDebugEnabled()) {
             StringBuilder msg = new StringBuilder("Properties for ");
             if(service!=null) msg.append("service ").append(service);
@@ -496,6 +509,36 @@ public class ProcessConfImpl implements ProcessConf {
         return prop;
     }
 
+    /**
+     * Stop checking the property files for updates in the background.
+     */
+    void stopWatching() {
+        propertiesWatchDog.stopWatching();
+    }
+
+    /** Service and port an endpoint's properties are resolved for. */
+    private static final class EndpointKey {
+        private final QName _service;
+        private final String _port;
+
+        EndpointKey(QName service, String port) {
+            _service = service;
+            _port = port;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof EndpointKey)) return false;
+            EndpointKey other = (EndpointKey) o;
+            return (_service == null ? other._service == null : _service.equals(other._service))
+                    && (_port == null ? other._port == null : _port.equals(other._port));
+        }
+
+        public int hashCode() {
+            return (_service == null ? 0 : _service.hashCode()) * 31 + (_port == null ? 0 : _port.hashCode());
+        }
+    }
+
     private class PropertiesMutable implements WatchDog.Mutable<Map<File, Long>> {
 
         public boolean exists() {
@@ -526,6 +569,7 @@ public class ProcessConfImpl implements ProcessConf {
                 // do not hold a reference on the file list, so that changes are handled
                 // and always create a new instance of the HierarchicalProperties
                 object = new HierarchicalProperties(collectEndpointConfigFiles());
+                _endpointProperties = new ConcurrentHashMap<EndpointKey, Map<String, String>>();
             } catch (IOException e) {
                 throw new ContextException("Integration-Layer Properties cannot be loaded!", e);
             }
@@ -28,6 +28,7 @@ import org.apache.ode.il.config.OdeConfigProperties;
 import org.apache.ode.store.DeploymentUnitDir.CBPInfo;
 import org.apache.ode.utils.DOMUtils;
 import org.apache.ode.utils.GUID;
+import org.apache.ode.utils.WatchDog;
 import org.apache.ode.utils.msg.MessageBundle;
 import org.h2.jdbcx.JdbcDataSource;
 import org.w3c.dom.Document;
@@ -105,6 +106,9 @@ public class ProcessStoreImpl implements ProcessStore {
 
     private static final ThreadLocal<Long> _currentVersion = new ThreadLocal<Long>();
 
+    /** Number of threads scanning the deployment units on start-up. */
+    private int _loadThreads = Runtime.getRuntime().availableProcessors();
+
     public ProcessStoreImpl() {
         this(null, null, "", new OdeConfigProperties(new Properties(), ""), true);
     }
@@ -112,6 +116,7 @@ public class ProcessStoreImpl implements ProcessStore {
     public ProcessStoreImpl(EndpointReferenceContext eprContext, DataSource ds, String persistenceType, OdeConfigProperties props, boolean createDatamodel) {
         this.eprContext = eprContext;
         this.generateProcessEventsAll = props.getProperty("generateProcessEvents", "all").equals("all");
+        this._loadThreads = props.getProcessLoadThreads();
         if (ds != null) {
             // ugly hack
             if (persistenceType.toLowerCase().indexOf("hib") != -1) {
@@ -147,6 +152,14 @@ public class ProcessStoreImpl implements ProcessStore {
     }
 
     public void shutdown() {
+        _rw.readLock().lock();
+        try {
+            for (ProcessConfImpl pconf : _processes.values())
+                pconf.stopWatching();
+        } finally {
+            _rw.readLock().unlock();
+        }
+        WatchDog.stopBackgroundChecker();
         if (_inMemDs != null) {
             shutdownInternalDB(_inMemDs);
             _inMemDs = null;
@@ -520,19 +533,50 @@ public class ProcessStoreImpl implements ProcessStore {
      *
      */
     public void loadAll() {
-        final ArrayList<ProcessConfImpl> loaded = new ArrayList<ProcessConfImpl>();
-        exec(new Callable<Object>() {
-            public Object call(ConfStoreConnection conn) {
-                Collection<DeploymentUnitDAO> dus = conn.getDeploymentUnits();
-                for (DeploymentUnitDAO du : dus)
+        long start = System.currentTimeMillis();
+
+        // Phase 1: read the deployment unit records, in one transaction
+        final List<DeploymentUnitRecord> records = exec(new Callable<List<DeploymentUnitRecord>>() {
+            public List<DeploymentUnitRecord> call(ConfStoreConnection conn) {
+                List<DeploymentUnitRecord> ret = new ArrayList<DeploymentUnitRecord>();
+                for (DeploymentUnitDAO du : conn.getDeploymentUnits())
                     try {
-                        loaded.addAll(load(du));
+                        ret.add(new DeploymentUnitRecord(du, findDeployDir(du)));
                     } catch (Exception ex) {
                         __log.error("Error loading DU from store: " + du.getName(), ex);
                     }
-                return null;
+                return ret;
             }
         });
+        long dbDone = System.currentTimeMillis();
+
+        // Phase 2: scan the deployment units (descriptors, endpoint configuration) concurrently
+        final ArrayList<ProcessConfImpl> loaded = new ArrayList<ProcessConfImpl>();
+        int threads = Math.max(1, Math.min(_loadThreads, records.size()));
+        ExecutorService loader = Executors.newFixedThreadPool(threads, new SimpleThreadFactory());
+        try {
+            List<Future<List<ProcessConfImpl>>> futures = new ArrayList<Future<List<ProcessConfImpl>>>(records.size());
+            for (final DeploymentUnitRecord record : records) {
+                futures.add(loader.submit(new java.util.concurrent.Callable<List<ProcessConfImpl>>() {
+                    public List<ProcessConfImpl> call() {
+                        return load(record);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    loaded.addAll(futures.get(i).get());
+                } catch (ExecutionException ex) {
+                    __log.error("Error loading DU from store: " + records.get(i).name, ex.getCause());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new ContextException("Interrupted while loading the deployment units", ex);
+                }
+            }
+        } finally {
+            loader.shutdown();
+        }
+        long scanDone = System.currentTimeMillis();
 
         // Dispatch DISABLED, RETIRED and ACTIVE events in that order
         Collections.sort(loaded, new Comparator<ProcessConf>() {
@@ -546,6 +590,7 @@ public class ProcessStoreImpl implements ProcessStore {
                 throw new IllegalStateException("Unexpected process state: "+state);
             }
         });
+        // Phase 3: registration with the listeners (the engine activates the endpoints)
         for (ProcessConfImpl p : loaded) {
             try {
                 fireStateChange(p.getProcessId(), p.getState(), p.getDeploymentUnit().getName());
@@ -553,7 +598,11 @@ public class ProcessStoreImpl implements ProcessStore {
                 __log.error("Error while activating process: pid=" + p.getProcessId() + " package="+p.getDeploymentUnit().getName(), except);
             }
         }
+        long end = System.currentTimeMillis();
 
+        __log.info("Loaded " + records.size() + " deployment units (" + loaded.size() + " processes) in " + (end - start)
+                + "ms: database " + (dbDone - start) + "ms, scan " + (scanDone - dbDone) + "ms (" + threads
+                + " threads), registration " + (end - scanDone) + "ms");
     }
 
     public List<QName> getProcesses() {
@@ -691,44 +740,52 @@ public class ProcessStoreImpl implements ProcessStore {
      * @param dudao
      */
     protected List<ProcessConfImpl> load(DeploymentUnitDAO dudao) {
-        __log.debug("Loading deployment unit record from db: " + dudao.getName());
+        return load(new DeploymentUnitRecord(dudao, findDeployDir(dudao)));
+    }
+
+    /**
+     * Load a deployment unit from a copy of its db record; does not need a transaction.
+     */
+    private List<ProcessConfImpl> load(DeploymentUnitRecord dudao) {
+        __log.debug("Loading deployment unit record from db: " + dudao.name);
 
-        File dudir = findDeployDir(dudao);
+        File dudir = dudao.dir;
 
         if (dudir == null || !dudir.exists())
             throw new ContextException("Deployed directory " + (dudir == null ? "(unknown)" : dudir) + " no longer there!");
         DeploymentUnitDir dud = new DeploymentUnitDir(dudir);
         // set the name with the one from database
-        dud.setName(dudao.getName());
+        dud.setName(dudao.name);
         dud.scan();
 
+        // The configurations are built (properties, endpoint configuration) before taking the lock,
+        // which is only held to publish them
         ArrayList<ProcessConfImpl> loaded = new ArrayList<ProcessConfImpl>();
+        long version = 0;
+        for (ProcessRecord p : dudao.processes) {
+            TDeployment.Process pinfo = dud.getProcessDeployInfo(p.type);
+            if (pinfo == null) {
+                __log.warn("Cannot load " + p.pid + "; cannot find descriptor.");
+                continue;
+            }
 
-        _rw.writeLock().lock();
-        try {
-            _deploymentUnits.put(dud.getName(), dud);
-
-            long version = 0;
-            for (ProcessConfDAO p : dudao.getProcesses()) {
-                TDeployment.Process pinfo = dud.getProcessDeployInfo(p.getType());
-                if (pinfo == null) {
-                    __log.warn("Cannot load " + p.getPID() + "; cannot find descriptor.");
-                    continue;
-                }
+            Map<QName, Node> props = calcInitialProperties(dud.getProperties(), pinfo);
+            // TODO: update the props based on the values in the DB.
 
-                Map<QName, Node> props = calcInitialProperties(dud.getProperties(), pinfo);
-                // TODO: update the props based on the values in the DB.
+            ProcessConfImpl pconf = new ProcessConfImpl(p.pid, p.type, p.version, dud, pinfo, dudao
+                    .deployDate, props, p.state, eprContext, _configDir, generateProcessEventsAll);
+            version = p.version;
+            loaded.add(pconf);
+        }
 
-                ProcessConfImpl pconf = new ProcessConfImpl(p.getPID(), p.getType(), p.getVersion(), dud, pinfo, dudao
-                        .getDeployDate(), props, p.getState(), eprContext, _configDir, generateProcessEventsAll);
-                version = p.getVersion();
+        // All processes and the DU have the same version
+        dud.setVersion(version);
 
+        _rw.writeLock().lock();
+        try {
+            _deploymentUnits.put(dud.getName(), dud);
+            for (ProcessConfImpl pconf : loaded)
                 _processes.put(pconf.getProcessId(), pconf);
-                loaded.add(pconf);
-            }
-
-            // All processes and the DU have the same version
-            dud.setVersion(version);
         } finally {
             _rw.writeLock().unlock();
         }
@@ -872,6 +929,38 @@ public class ProcessStoreImpl implements ProcessStore {
         return new QName(processType.getNamespaceURI(), processType.getLocalPart() + "-" + version);
     }
 
+    /**
+     * Copy of a deployment unit db record, usable outside of the transaction that read it.
+     */
+    private static class DeploymentUnitRecord {
+        final String name;
+        final File dir;
+        final Date deployDate;
+        final List<ProcessRecord> processes = new ArrayList<ProcessRecord>();
+
+        DeploymentUnitRecord(DeploymentUnitDAO dudao, File dir) {
+            this.name = dudao.getName();
+            this.dir = dir;
+            this.deployDate = dudao.getDeployDate();
+            for (ProcessConfDAO p : dudao.getProcesses())
+                processes.add(new ProcessRecord(p));
+        }
+    }
+
+    private static class ProcessRecord {
+        final QName pid;
+        final QName type;
+        final long version;
+        final ProcessState state;
+
+        ProcessRecord(ProcessConfDAO p) {
+            pid = p.getPID();
+            type = p.getType();
+            version = p.getVersion();
+            state = p.getState();
+        }
+    }
+
     private class SimpleThreadFactory implements ThreadFactory {
         int threadNumber = 0;
         public Thread newThread(Runnable r) {
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ode.test;
+
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.iapi.Message;
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.bpel.iapi.MyRoleMessageExchange;
+import org.apache.ode.bpel.intercept.MessageExchangeInterceptor.InterceptorContext;
+import org.apache.ode.bpel.intercept.NoOpInterceptor;
+import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.GUID;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Request-response invocations of in-memory processes run inline, on the calling thread and in its
+ * transaction (<code>org.apache.ode.inlineInMemoryInvocations</code>).
+ */
+public class InlineInMemoryInvocationTest extends BPELTestAbstract {
+
+    private static final String INLINE = "org.apache.ode.inlineInMemoryInvocations";
+
+    private static final QName HELLO_SERVICE = new QName("http://ode/bpel/unit-test.wsdl", "HelloService");
+
+    @Before
+    public void enableInline() {
+        System.setProperty(INLINE, "true");
+    }
+
+    @After
+    public void disableInline() {
+        System.clearProperty(INLINE);
+    }
+
+    /**
+     * The callee replies without waiting, the response can be read in the transaction of the invocation.
+     */
+    @Test public void testInlineReply() throws Throwable {
+        deploy("/bpel/2.0/TestP2PDirect");
+
+        _txManager.begin();
+        try {
+            MyRoleMessageExchange mex = invoke("Hello");
+            Assert.assertEquals(MessageExchange.Status.RESPONSE, mex.getStatus());
+            String response = DOMUtils.domToString(mex.getResponse().getMessage());
+            Assert.assertTrue(response, response.matches("(?s).*Hello World.*"));
+        } finally {
+            _txManager.commit();
+        }
+    }
+
+    /**
+     * A failure of the inline job fails the exchange and rolls the caller's transaction back, rather
+     * than committing the part of the job that ran.
+     */
+    @Test public void testInlineFailureRollsBack() throws Throwable {
+        deploy("/bpel/2.0/TestP2PDirect");
+        _server.registerMessageExchangeInterceptor(new NoOpInterceptor() {
+            public void onJobScheduled(MyRoleMessageExchange mex, InterceptorContext ic) {
+                throw new IllegalStateException("inline job failure");
+            }
+        });
+
+        _txManager.begin();
+        try {
+            MyRoleMessageExchange mex = invoke("Hello");
+            Assert.assertEquals(MessageExchange.Status.FAILURE, mex.getStatus());
+            Assert.assertEquals(javax.transaction.Status.STATUS_MARKED_ROLLBACK, _txManager.getStatus());
+        } finally {
+            _txManager.rollback();
+        }
+    }
+
+    private MyRoleMessageExchange invoke(String text) throws Exception {
+        MyRoleMessageExchange mex = _server.getEngine().createMessageExchange(new GUID().toString(), HELLO_SERVICE, "hello");
+        Message request = mex.createMessage(mex.getOperation().getInput().getMessage().getQName());
+        request.setMessage(DOMUtils.stringToDOM("<message><TestPart>" + text + "</TestPart></message>"));
+        mex.invoke(request);
+        return mex;
+    }
+}
@@ -18,6 +18,11 @@
  */
 package org.apache.ode.test;
 
+import javax.xml.namespace.QName;
+
+import org.apache.ode.bpel.iapi.MessageExchange;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
 
@@ -131,4 +136,31 @@ public class MessageRouting20Test extends BPELTestAbstract {
     @Test public void testIMA() throws Throwable {
         go("/bpel/2.0/TestIMA");
     }
+
+    /**
+     * Both processes are in memory and the partner endpoint of the caller sets p2p.direct, the request and
+     * the reply are handed over in the transaction of the caller.
+     */
+    @Test public void testP2PDirect() throws Throwable {
+        long direct = directJobs();
+        go("/bpel/2.0/TestP2PDirect");
+        Assert.assertEquals(direct + 2, directJobs());
+    }
+
+    /**
+     * The callee does not reply and ends with an uncaught fault, which gets back to the caller directly.
+     */
+    @Test public void testP2PDirectFault() throws Throwable {
+        long direct = directJobs();
+        deploy("/bpel/2.0/TestP2PDirect");
+        Invocation inv = addInvoke("P2PDirect#fault", new QName("http://ode/bpel/unit-test.wsdl", "CallerService"), "hello",
+            "<message><TestPart>Fail</TestPart></message>", ".*");
+        inv.expectedFinalStatus = MessageExchange.Status.FAULT;
+        go();
+        Assert.assertEquals(direct + 2, directJobs());
+    }
+
+    private static long directJobs() {
+        return MetricsRegistry.getInstance().counter("engine.jobs.direct").getCount();
+    }
 }
@@ -26,6 +26,8 @@ import org.apache.ode.daohib.SessionManager;
 import org.apache.ode.daohib.bpel.hobj.HVariableProperty;
 import org.apache.ode.daohib.bpel.hobj.HXmlData;
 import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.hibernate.Query;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -42,6 +44,10 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
             "from " + HVariableProperty.class.getName() +
                     " as p where p.xmlData.id = ? and p.name = ?";
 
+    private static final Histogram __readBytes = MetricsRegistry.getInstance().histogram("dao.variable.read.bytes");
+
+    private static final Histogram __writeBytes = MetricsRegistry.getInstance().histogram("dao.variable.write.bytes");
+
     private HXmlData _data;
     private Node _node;
 
@@ -96,7 +102,9 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
             }
         } else if (val instanceof Element) {
             _data.setSimpleType(false);
-            _data.setData(DOMUtils.domToString(_node).getBytes());
+            byte[] data = DOMUtils.domToString(_node).getBytes();
+            __writeBytes.record(data.length);
+            _data.setData(data);
             _data.setSimpleValue(null);
         } else {
             _data.setSimpleType(true);
@@ -176,6 +184,7 @@ public class XmlDataDaoImpl extends HibernateDao implements XmlDataDAO {
         } else {
             if(_data.getData() == null || _data.getData().length == 0)
                 return null;
+            __readBytes.record(_data.getData().length);
             String data = new String(_data.getData());
             try{
                 return DOMUtils.stringToDOM(data);
@@ -22,6 +22,8 @@ package org.apache.ode.dao.jpa;
 import org.apache.ode.bpel.dao.ScopeDAO;
 import org.apache.ode.bpel.dao.XmlDataDAO;
 import org.apache.ode.utils.DOMUtils;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
@@ -60,6 +62,10 @@ public class XmlDataDAOImpl implements XmlDataDAO {
     public final static String SELECT_XMLDATA_IDS_BY_INSTANCE = "SELECT_XMLDATA_IDS_BY_INSTANCE";
     public final static String DELETE_XMLDATA_BY_SCOPE_IDS = "DELETE_XMLDATA_BY_SCOPE_IDS";
 
+    // sizes are measured in characters of the serialized value
+    private static final Histogram __readBytes = MetricsRegistry.getInstance().histogram("dao.variable.read.bytes");
+    private static final Histogram __writeBytes = MetricsRegistry.getInstance().histogram("dao.variable.write.bytes");
+
     @Id @Column(name="XML_DATA_ID")
     @GeneratedValue(strategy=GenerationType.AUTO)
     @SuppressWarnings("unused")
@@ -102,6 +108,7 @@ public class XmlDataDAOImpl implements XmlDataDAO {
                 _node = tnode;
            }else{
               try{
+                  __readBytes.record(_data.length());
                   _node = DOMUtils.stringToDOM(_data);
               }catch(Exception e){
                   throw new RuntimeException(e);
@@ -147,6 +154,7 @@ public class XmlDataDAOImpl implements XmlDataDAO {
         if ( val instanceof Element ) {
             _isSimpleType = false;
             _data = DOMUtils.domToString(val);
+            __writeBytes.record(_data.length());
         } else if (_node != null) {
             _isSimpleType = true;
             _data = _node.getNodeValue();
@@ -25,18 +25,26 @@ import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
 import org.apache.ode.bpel.connector.BpelServerConnector;
 import org.apache.ode.bpel.dao.BpelDAOConnectionFactoryJDBC;
 import org.apache.ode.bpel.engine.BpelServerImpl;
+import org.apache.ode.bpel.engine.CountLRUDehydrationPolicy;
 import org.apache.ode.bpel.engine.ProcessAndInstanceManagementMBean;
+import org.apache.ode.bpel.engine.SizeLFUDehydrationPolicy;
 import org.apache.ode.bpel.extvar.jdbc.JdbcExternalVariableModule;
 import org.apache.ode.bpel.iapi.BpelEventListener;
 import org.apache.ode.bpel.intercept.MessageExchangeInterceptor;
 import org.apache.ode.il.dbutil.Database;
 import org.apache.ode.il.dbutil.DatabaseConfigException;
 import org.apache.ode.jbi.msgmap.Mapper;
+import org.apache.ode.scheduler.simple.DatabaseDelegate;
+import org.apache.ode.scheduler.simple.DatabaseException;
 import org.apache.ode.scheduler.simple.JdbcDelegate;
+import org.apache.ode.scheduler.simple.JournalDelegate;
 import org.apache.ode.scheduler.simple.SimpleScheduler;
+import org.apache.ode.scheduler.simple.SkipLockedJdbcDelegate;
 import org.apache.ode.store.ProcessStoreImpl;
 import org.apache.ode.utils.GUID;
 import org.apache.ode.utils.fs.TempFileManager;
+import org.apache.ode.utils.metrics.MetricsMBean;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 
 import javax.jbi.JBIException;
 import javax.jbi.component.ComponentContext;
@@ -72,8 +80,13 @@ public class OdeLifeCycle implements ComponentLifeCycle {
 
     private Database _db;
 
+    /** Scheduler journal, if the scheduler uses one; closed once the scheduler is stopped. */
+    private JournalDelegate _journal;
+
     private ObjectName _mbeanName;
 
+    private ObjectName _metricsMBeanName;
+
     private OdeConfigProperties _config;
 
     public OdeLifeCycle() {
@@ -228,6 +241,24 @@ public class OdeLifeCycle implements ComponentLifeCycle {
         _ode._config = config;
     }
 
+    private DatabaseDelegate createDatabaseDelegate() throws JBIException {
+        switch (_ode._config.getSchedulerDelegate()) {
+        case SKIPLOCKED:
+            return new SkipLockedJdbcDelegate(_ode._dataSource);
+        case JOURNAL:
+            try {
+                JournalDelegate journal = new JournalDelegate(new File(_ode.getContext().getWorkspaceRoot(), "scheduler.journal"));
+                journal.setTransactionManager((TransactionManager) _ode.getContext().getTransactionManager());
+                _journal = journal;
+                return journal;
+            } catch (DatabaseException e) {
+                throw new JBIException("Unable to open the scheduler journal.", e);
+            }
+        default:
+            return new JdbcDelegate(_ode._dataSource);
+        }
+    }
+
     private void initBpelServer() throws JBIException {
         if (__log.isDebugEnabled()) {
             __log.debug("ODE initializing");
@@ -242,7 +273,7 @@ public class OdeLifeCycle implements ComponentLifeCycle {
             _ode._executorService = Executors.newCachedThreadPool();
         else
             _ode._executorService = Executors.newFixedThreadPool(_ode._config.getThreadPoolMaxSize());
-        _ode._scheduler = new SimpleScheduler(new GUID().toString(),new JdbcDelegate(_ode._dataSource), _ode._config.getProperties());
+        _ode._scheduler = new SimpleScheduler(new GUID().toString(), createDatabaseDelegate(), _ode._config.getProperties());
         _ode._scheduler.setJobProcessor(_ode._server);
         _ode._scheduler.setExecutorService(_ode._executorService);
         _ode._scheduler.setTransactionManager((TransactionManager) _ode.getContext().getTransactionManager());
@@ -258,9 +289,24 @@ public class OdeLifeCycle implements ComponentLifeCycle {
         _ode._server.setMessageExchangeContext(_ode._mexContext);
         _ode._server.setBindingContext(new BindingContextImpl(_ode));
         _ode._server.setScheduler(_ode._scheduler);
+        if (_ode._config.isDehydrationEnabled()) {
+            if (_ode._config.getDehydrationPolicy() == OdeConfigProperties.DehydrationStrategy.SIZE) {
+                SizeLFUDehydrationPolicy dehy = new SizeLFUDehydrationPolicy();
+                dehy.setProcessMaxAge(_ode._config.getDehydrationMaximumAge());
+                dehy.setProcessMaxSize(_ode._config.getDehydrationMaximumSize());
+                _ode._server.setDehydrationPolicy(dehy);
+            } else {
+                CountLRUDehydrationPolicy dehy = new CountLRUDehydrationPolicy();
+                dehy.setProcessMaxAge(_ode._config.getDehydrationMaximumAge());
+                dehy.setProcessMaxCount(_ode._config.getDehydrationMaximumCount());
+                _ode._server.setDehydrationPolicy(dehy);
+            }
+        }
     _ode._server.setConfigProperties(_ode._config.getProperties());
 
         _ode._server.init();
+        _ode._server.setExecutionSliceBudget(_ode._config.getExecutionSliceMaximumTime(),
+                _ode._config.getExecutionSliceMaximumReductions(), _ode._config.getExecutionSliceMaximumCpuTime());
     }
 
     private void registerExternalVariableModules() {
@@ -318,6 +364,14 @@ public class OdeLifeCycle implements ComponentLifeCycle {
                     server.unregisterMBean(_mbeanName);
                 }
                 server.registerMBean(pmapi, _mbeanName);
+
+                if (_ode._config.isMetricsJmxEnabled()) {
+                    _metricsMBeanName = _ode.getContext().getMBeanNames().createCustomComponentMBeanName("Metrics");
+                    if (server.isRegistered(_metricsMBeanName)) {
+                        server.unregisterMBean(_metricsMBeanName);
+                    }
+                    server.registerMBean(new MetricsMBean(MetricsRegistry.getInstance()), _metricsMBeanName);
+                }
             }
         } catch (Exception e) {
             throw new JBIException(e);
@@ -332,6 +386,9 @@ public class OdeLifeCycle implements ComponentLifeCycle {
                 if (server.isRegistered(_mbeanName)) {
                     server.unregisterMBean(_mbeanName);
                 }
+                if (_metricsMBeanName != null && server.isRegistered(_metricsMBeanName)) {
+                    server.unregisterMBean(_metricsMBeanName);
+                }
             }
         } catch (Exception e) {
             throw new JBIException(e);
@@ -474,6 +531,12 @@ public class OdeLifeCycle implements ComponentLifeCycle {
 
             }
 
+            if (_journal != null) {
+                __log.debug("closing scheduler journal.");
+                _journal.close();
+                _journal = null;
+            }
+
             try {
                 _db.shutdown();
             } catch (Exception ex) {
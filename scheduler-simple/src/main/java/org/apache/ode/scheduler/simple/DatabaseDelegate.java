@@ -104,6 +104,15 @@ public interface DatabaseDelegate {
      */
     int updateReassign(String oldnode, String newnode) throws DatabaseException;
     
+    /**
+     * Whether {@link #dequeueImmediate(String, long, int)} claims ready jobs that have not been assigned
+     * to any node yet. When this is the case any node can pick up any ready job and the scheduler does not
+     * need to run the periodic upgrade pass ({@link #updateAssignToNode(String, int, int, long)}).
+     *
+     * @return <code>true</code> if unassigned jobs are claimed on dequeue
+     */
+    boolean claimsUnassignedJobs();
+
     public void acquireTransactionLocks();
     
     public void deleteAllJobs();
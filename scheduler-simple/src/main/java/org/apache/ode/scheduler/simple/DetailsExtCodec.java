@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encoding of the <code>JobDetails.detailsExt</code> map stored in the <code>detailsExt</code> column.
+ *
+ * The compact format is a small header (<code>'O' 'X' version</code>) followed by the number of entries and,
+ * for each entry, the key and a tagged value. Strings, longs, integers and booleans are written directly;
+ * any other value is written as a length-prefixed Java-serialized object. Blobs written by earlier releases
+ * (a Java-serialized map, starting with the serialization stream magic) are still decoded.
+ */
+final class DetailsExtCodec {
+
+    private static final byte MAGIC_0 = 'O';
+    private static final byte MAGIC_1 = 'X';
+    private static final byte VERSION = 1;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_LONG = 2;
+    private static final byte T_INTEGER = 3;
+    private static final byte T_BOOLEAN = 4;
+    private static final byte T_SERIALIZED = 5;
+
+    private DetailsExtCodec() {
+    }
+
+    static byte[] encode(Map<String, Object> detailsExt) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(VERSION);
+        out.writeInt(detailsExt.size());
+        for (Map.Entry<String, Object> e : detailsExt.entrySet()) {
+            out.writeUTF(e.getKey());
+            Object v = e.getValue();
+            if (v == null) {
+                out.writeByte(T_NULL);
+            } else if (v instanceof String) {
+                out.writeByte(T_STRING);
+                writeBytes(out, ((String) v).getBytes("UTF-8"));
+            } else if (v instanceof Long) {
+                out.writeByte(T_LONG);
+                out.writeLong((Long) v);
+            } else if (v instanceof Integer) {
+                out.writeByte(T_INTEGER);
+                out.writeInt((Integer) v);
+            } else if (v instanceof Boolean) {
+                out.writeByte(T_BOOLEAN);
+                out.writeBoolean((Boolean) v);
+            } else {
+                out.writeByte(T_SERIALIZED);
+                ByteArrayOutputStream obos = new ByteArrayOutputStream();
+                ObjectOutputStream oos = new ObjectOutputStream(obos);
+                oos.writeObject((Serializable) v);
+                oos.close();
+                writeBytes(out, obos.toByteArray());
+            }
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> decode(byte[] data) throws IOException, ClassNotFoundException {
+        if (data.length < 3 || data[0] != MAGIC_0 || data[1] != MAGIC_1) {
+            // legacy: java-serialized map
+            ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(data));
+            try {
+                return (Map<String, Object>) is.readObject();
+            } finally {
+                is.close();
+            }
+        }
+        if (data[2] != VERSION)
+            throw new IOException("Unsupported detailsExt encoding version " + data[2]);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 3, data.length - 3));
+        int size = in.readInt();
+        Map<String, Object> detailsExt = new HashMap<String, Object>(Math.max(16, size * 2));
+        for (int i = 0; i < size; ++i) {
+            String key = in.readUTF();
+            byte tag = in.readByte();
+            switch (tag) {
+            case T_NULL:
+                detailsExt.put(key, null);
+                break;
+            case T_STRING:
+                detailsExt.put(key, new String(readBytes(in), "UTF-8"));
+                break;
+            case T_LONG:
+                detailsExt.put(key, in.readLong());
+                break;
+            case T_INTEGER:
+                detailsExt.put(key, in.readInt());
+                break;
+            case T_BOOLEAN:
+                detailsExt.put(key, in.readBoolean());
+                break;
+            case T_SERIALIZED:
+                ObjectInputStream is = new ObjectInputStream(new ByteArrayInputStream(readBytes(in)));
+                try {
+                    detailsExt.put(key, is.readObject());
+                } finally {
+                    is.close();
+                }
+                break;
+            default:
+                throw new IOException("Unknown detailsExt value tag " + tag + " for key " + key);
+            }
+        }
+        return detailsExt;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
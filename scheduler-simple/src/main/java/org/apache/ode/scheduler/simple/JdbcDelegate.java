@@ -20,7 +20,6 @@
 package org.apache.ode.scheduler.simple;
 
 import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -136,13 +135,24 @@ public class JdbcDelegate implements DatabaseDelegate {
 
     private DataSource _ds;
 
-    private Dialect _dialect;
+    protected Dialect _dialect;
+
+    protected int _dbMajorVersion;
+
+    protected int _dbMinorVersion;
+
+    /** Write detailsExt as a Java-serialized map, readable by releases that predate the compact encoding. */
+    private boolean _legacyDetailsExt = Boolean.getBoolean("org.apache.ode.scheduler.legacyDetailsExt");
 
     public JdbcDelegate(DataSource ds) {
         _ds = ds;
         _dialect = guessDialect();
     }
 
+    public boolean claimsUnassignedJobs() {
+        return false;
+    }
+
     public boolean deleteJob(String jobid, String nodeId) throws DatabaseException {
         if (__log.isDebugEnabled())
             __log.debug("deleteJob " + jobid + " on node " + nodeId);
@@ -217,14 +227,20 @@ public class JdbcDelegate implements DatabaseDelegate {
             if (details.detailsExt == null || details.detailsExt.size() == 0) {
                 ps.setObject(i++, null, Types.BLOB);
             } else {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                byte[] detailsExt;
                 try {
-                    StreamUtils.write(bos, (Serializable) details.detailsExt);
+                    if (_legacyDetailsExt) {
+                        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                        StreamUtils.write(bos, (Serializable) details.detailsExt);
+                        detailsExt = bos.toByteArray();
+                    } else {
+                        detailsExt = DetailsExtCodec.encode(details.detailsExt);
+                    }
                 } catch (Exception ex) {
                     __log.error("Error serializing job detail: " + job.detail);
                     throw new DatabaseException(ex);
                 }
-                ps.setBytes(i++, bos.toByteArray());
+                ps.setBytes(i++, detailsExt);
             }
 
             return ps.executeUpdate() == 1;
@@ -272,7 +288,6 @@ public class JdbcDelegate implements DatabaseDelegate {
         else throw new IllegalStateException("Can't convert to integer " + o.getClass());
     }
 
-    @SuppressWarnings("unchecked")
     public List<Job> dequeueImmediate(String nodeId, long maxtime, int maxjobs) throws DatabaseException {
         ArrayList<Job> ret = new ArrayList<Job>(maxjobs);
         Connection con = null;
@@ -296,11 +311,10 @@ public class JdbcDelegate implements DatabaseDelegate {
                 details.correlationKeySet = (String) rs.getObject("correlationKeySet");
                 details.retryCount = asInteger(rs.getObject("retryCount"));
                 details.inMem = asBoolean(rs.getInt("inMem"));
-                if (rs.getObject("detailsExt") != null) {
+                byte[] detailsExtData = rs.getBytes("detailsExt");
+                if (detailsExtData != null) {
                     try {
-                        ObjectInputStream is = new ObjectInputStream(rs.getBinaryStream("detailsExt"));
-                        details.detailsExt = (Map<String, Object>) is.readObject();
-                        is.close();
+                        details.detailsExt = DetailsExtCodec.decode(detailsExtData);
                     } catch (Exception e) {
                         throw new DatabaseException("Error deserializing job detailsExt", e);
                     }
@@ -405,7 +419,7 @@ public class JdbcDelegate implements DatabaseDelegate {
         }
     }
 
-    private Connection getConnection() throws SQLException {
+    protected Connection getConnection() throws SQLException {
         Connection c = _ds.getConnection();
         DbIsolation.setIsolationLevel(c);
         return c;
@@ -415,11 +429,11 @@ public class JdbcDelegate implements DatabaseDelegate {
         return (value ? 1 : 0);
     }
 
-    private boolean asBoolean(int value) {
+    protected boolean asBoolean(int value) {
         return (value != 0);
     }
 
-    private void close(PreparedStatement ps) {
+    protected void close(PreparedStatement ps) {
         if (ps != null) {
             try {
                 ps.close();
@@ -429,7 +443,7 @@ public class JdbcDelegate implements DatabaseDelegate {
         }
     }
 
-    private void close(Connection con) {
+    protected void close(Connection con) {
         if (con != null) {
             try {
                 con.close();
@@ -448,6 +462,8 @@ public class JdbcDelegate implements DatabaseDelegate {
             if (metaData != null) {
                 String dbProductName = metaData.getDatabaseProductName();
                 int dbMajorVer = metaData.getDatabaseMajorVersion();
+                _dbMajorVersion = dbMajorVer;
+                _dbMinorVersion = metaData.getDatabaseMinorVersion();
                 __log.info("Using database " + dbProductName + " major version " + dbMajorVer);
                 if (dbProductName.indexOf("DB2") >= 0) {
                     d = Dialect.DB2;
@@ -463,6 +479,10 @@ public class JdbcDelegate implements DatabaseDelegate {
                     d = Dialect.SQLSERVER;
                 } else if (dbProductName.indexOf("MySQL") >= 0) {
                     d = Dialect.MYSQL;
+                } else if (dbProductName.indexOf("Oracle") >= 0) {
+                    d = Dialect.ORACLE;
+                } else if (dbProductName.indexOf("PostgreSQL") >= 0) {
+                    d = Dialect.POSTGRESQL;
                 } else if (dbProductName.indexOf("Sybase") >= 0 || dbProductName.indexOf("Adaptive") >= 0) {
                     d = Dialect.SYBASE;
                     if( dbMajorVer == 12 ) {
@@ -518,7 +538,7 @@ public class JdbcDelegate implements DatabaseDelegate {
     }
 
     enum Dialect {
-        DB2, DERBY, FIREBIRD, HSQL, MYSQL, ORACLE, SQLSERVER, SYBASE, SYBASE12, H2, UNKNOWN
+        DB2, DERBY, FIREBIRD, HSQL, MYSQL, ORACLE, POSTGRESQL, SQLSERVER, SYBASE, SYBASE12, H2, UNKNOWN
     }
 
 }
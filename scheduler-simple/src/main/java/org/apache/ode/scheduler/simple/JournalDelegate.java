@@ -0,0 +1,765 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.apache.ode.bpel.iapi.Scheduler.JobDetails;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link DatabaseDelegate} keeping the jobs of a single-node deployment in memory, backed by a local
+ * append-only journal file instead of the <code>ODE_JOB</code> table.
+ *
+ * The changes made by a transaction are buffered against the JTA transaction and the jobs they touch are
+ * locked (like rows: another transaction changing the same job waits for the first one to complete). Before
+ * the transaction completes the records are appended to the journal and forced to disk; concurrent committers
+ * share a single <code>force</code> (group commit). The changes are applied to the in-memory index, and so
+ * become visible to the other transactions, only once the transaction has committed. A rolled back
+ * transaction just drops its changes, appending compensating records if its own records already made it to
+ * the journal. The journal is replayed (memory-mapped) on startup and compacted into a snapshot of the
+ * committed jobs once it has grown well past the number of live jobs.
+ *
+ * This delegate must not be used in clustered deployments: the journal is local to the node.
+ */
+public class JournalDelegate implements DatabaseDelegate {
+
+    private static final Logger __log = LoggerFactory.getLogger(JournalDelegate.class);
+
+    private static final byte OP_PUT = 1;
+
+    private static final byte OP_DELETE = 2;
+
+    private static final byte OP_CLEAR = 3;
+
+    /** Record header: payload length and CRC32 of the payload. */
+    private static final int HEADER_SIZE = 12;
+
+    private static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    /** Time (ms) a transaction waits for a job locked by another transaction. */
+    private static final long LOCK_TIMEOUT = 30000;
+
+    private final File _file;
+
+    private final int _compactionThreshold;
+
+    private TransactionManager _txm;
+
+    private RandomAccessFile _raf;
+
+    private FileChannel _channel;
+
+    /**
+     * Guards writes to the journal. Lock order is: this object (the in-memory index), {@link #_syncLock},
+     * {@link #_writeLock}.
+     */
+    private final Object _writeLock = new Object();
+
+    private final Object _syncLock = new Object();
+
+    private long _writtenPos;
+
+    private long _syncedPos;
+
+    private int _recordsSinceCompaction;
+
+    /**
+     * Transactions whose records are in the journal but not yet applied to the index; the journal is not
+     * compacted meanwhile. Guarded by {@link #_writeLock}.
+     */
+    private int _pendingCommits;
+
+    /** Committed jobs by identifier; guarded by <code>this</code>. */
+    private final Map<String, Entry> _jobs = new HashMap<String, Entry>();
+
+    /** Committed jobs by scheduled time; guarded by <code>this</code>. */
+    private final TreeSet<Entry> _byTime = new TreeSet<Entry>(new Comparator<Entry>() {
+        public int compare(Entry o1, Entry o2) {
+            if (o1.ts != o2.ts)
+                return o1.ts < o2.ts ? -1 : 1;
+            return o1.jobId.compareTo(o2.jobId);
+        }
+    });
+
+    /** Jobs changed by a transaction in progress, with its log; guarded by <code>this</code>. */
+    private final Map<String, TxLog> _locks = new HashMap<String, TxLog>();
+
+    private final ConcurrentHashMap<Transaction, TxLog> _txLogs = new ConcurrentHashMap<Transaction, TxLog>();
+
+    public JournalDelegate(File file) throws DatabaseException {
+        this(file, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    public JournalDelegate(File file, int compactionThreshold) throws DatabaseException {
+        _file = file;
+        _compactionThreshold = compactionThreshold;
+        try {
+            replay();
+            open();
+        } catch (IOException ioe) {
+            throw new DatabaseException(ioe);
+        }
+        __log.info("Scheduler journal " + _file + " opened with " + _jobs.size() + " jobs");
+    }
+
+    public void setTransactionManager(TransactionManager txm) {
+        _txm = txm;
+    }
+
+    public boolean claimsUnassignedJobs() {
+        return false;
+    }
+
+    public boolean insertJob(Job job, String nodeId, boolean loaded) throws DatabaseException {
+        if (__log.isDebugEnabled())
+            __log.debug("insertJob " + job.jobId + " on node " + nodeId + " loaded=" + loaded);
+        Entry entry = new Entry(job.jobId, nodeId, job.schedDate, job.transacted, loaded, copy(job.detail));
+        synchronized (this) {
+            TxLog log = lock(job.jobId);
+            if (current(log, job.jobId) != null)
+                return false;
+            change(log, job.jobId, entry);
+        }
+        return true;
+    }
+
+    public boolean updateJob(Job job) throws DatabaseException {
+        if (__log.isDebugEnabled())
+            __log.debug("updateJob " + job.jobId + " retryCount=" + job.detail.getRetryCount());
+        synchronized (this) {
+            TxLog log = lock(job.jobId);
+            Entry e = current(log, job.jobId);
+            if (e == null)
+                return false;
+            JobDetails details = copy(e.details);
+            details.setRetryCount(job.detail.getRetryCount());
+            change(log, job.jobId, new Entry(e.jobId, e.nodeId, job.schedDate, e.transacted, e.loaded, details));
+        }
+        return true;
+    }
+
+    public boolean deleteJob(String jobid, String nodeId) throws DatabaseException {
+        if (__log.isDebugEnabled())
+            __log.debug("deleteJob " + jobid + " on node " + nodeId);
+        synchronized (this) {
+            TxLog log = lock(jobid);
+            Entry e = current(log, jobid);
+            if (e == null || !equal(e.nodeId, nodeId))
+                return false;
+            change(log, jobid, null);
+        }
+        return true;
+    }
+
+    public synchronized List<String> getNodeIds() throws DatabaseException {
+        HashSet<String> nodes = new HashSet<String>();
+        for (Entry e : _jobs.values()) {
+            if (e.nodeId != null)
+                nodes.add(e.nodeId);
+        }
+        return new ArrayList<String>(nodes);
+    }
+
+    public synchronized List<Job> dequeueImmediate(String nodeId, long maxtime, int maxjobs) throws DatabaseException {
+        ArrayList<Job> ret = new ArrayList<Job>();
+        for (Entry e : _byTime) {
+            if (e.ts >= maxtime || ret.size() >= maxjobs)
+                break;
+            if (equal(e.nodeId, nodeId))
+                ret.add(new Job(e.ts, e.jobId, e.transacted, copy(e.details)));
+        }
+        return ret;
+    }
+
+    public synchronized int updateAssignToNode(String nodeId, int x, int y, long maxtime) throws DatabaseException {
+        TxLog log = txLogOrFail();
+        int count = 0;
+        for (Entry e : new ArrayList<Entry>(_byTime)) {
+            if (e.ts >= maxtime)
+                break;
+            if (isLockedByOther(log, e.jobId))
+                continue;
+            Entry c = current(log, e.jobId);
+            if (c != null && c.nodeId == null && c.ts % y == x) {
+                change(log, c.jobId, new Entry(c.jobId, nodeId, c.ts, c.transacted, c.loaded, c.details));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int updateReassign(String oldnode, String newnode) throws DatabaseException {
+        TxLog log = txLogOrFail();
+        int count = 0;
+        for (Entry e : new ArrayList<Entry>(_jobs.values())) {
+            if (isLockedByOther(log, e.jobId))
+                continue;
+            Entry c = current(log, e.jobId);
+            if (c != null && equal(c.nodeId, oldnode)) {
+                change(log, c.jobId, new Entry(c.jobId, newnode, c.ts, c.transacted, false, c.details));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public void acquireTransactionLocks() {
+        // jobs are locked in memory as soon as they are changed
+    }
+
+    public synchronized void deleteAllJobs() {
+        try {
+            TxLog log = txLog();
+            for (String jobId : new ArrayList<String>(_jobs.keySet())) {
+                lock(jobId);
+                if (current(log, jobId) != null)
+                    change(log, jobId, null);
+            }
+        } catch (Exception ex) {
+            throw new RuntimeException("", ex);
+        }
+    }
+
+    public void close() {
+        synchronized (_syncLock) {
+            synchronized (_writeLock) {
+                try {
+                    if (_channel != null) {
+                        _channel.force(false);
+                        _raf.close();
+                    }
+                } catch (IOException e) {
+                    __log.warn("Exception while closing scheduler journal", e);
+                }
+                _channel = null;
+                _raf = null;
+            }
+        }
+    }
+
+    /**
+     * Wait until no other transaction holds the lock of a job. The lock itself is taken by
+     * {@link #change(TxLog, String, Entry)}. Must be called while holding the monitor of this object.
+     *
+     * @return the log of the current transaction
+     */
+    private TxLog lock(String jobId) throws DatabaseException {
+        TxLog log = txLogOrFail();
+        long deadline = System.currentTimeMillis() + LOCK_TIMEOUT;
+        while (isLockedByOther(log, jobId)) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0)
+                throw new DatabaseException("Timeout waiting for the lock of job " + jobId);
+            try {
+                wait(wait);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new DatabaseException(ie);
+            }
+        }
+        return log;
+    }
+
+    private boolean isLockedByOther(TxLog log, String jobId) {
+        TxLog owner = _locks.get(jobId);
+        return owner != null && owner != log;
+    }
+
+    /**
+     * @return the job as seen by the given transaction: its own change if any, the committed job otherwise
+     */
+    private Entry current(TxLog log, String jobId) {
+        Entry e = log.changes.get(jobId);
+        if (e != null)
+            return e.details == null ? null : e;
+        return _jobs.get(jobId);
+    }
+
+    /**
+     * Record a change against the current transaction and lock the job until it completes; without a transaction,
+     * the change is written and applied right away. Must be called while holding the monitor of this object.
+     */
+    private void change(TxLog log, String jobId, Entry entry) throws DatabaseException {
+        log.changes.put(jobId, entry != null ? entry : new Entry(jobId, null, 0, false, false, null));
+        if (log.autoCommit) {
+            commit(log);
+            applyChanges(log);
+            compactIfNeeded();
+        } else {
+            _locks.put(jobId, log);
+        }
+    }
+
+    private TxLog txLogOrFail() throws DatabaseException {
+        try {
+            return txLog();
+        } catch (Exception ex) {
+            throw new DatabaseException(ex);
+        }
+    }
+
+    private TxLog txLog() throws Exception {
+        Transaction tx = _txm == null ? null : _txm.getTransaction();
+        if (tx == null)
+            return new TxLog(true);
+
+        TxLog log = _txLogs.get(tx);
+        if (log == null) {
+            final TxLog newLog = new TxLog(false);
+            final Transaction key = tx;
+            _txLogs.put(tx, newLog);
+            tx.registerSynchronization(new Synchronization() {
+                public void beforeCompletion() {
+                    try {
+                        commit(newLog);
+                    } catch (DatabaseException e) {
+                        throw new RuntimeException("Unable to write the scheduler journal", e);
+                    }
+                }
+
+                public void afterCompletion(int status) {
+                    _txLogs.remove(key);
+                    complete(newLog, status == Status.STATUS_COMMITTED);
+                }
+            });
+            log = newLog;
+        }
+        return log;
+    }
+
+    /** Append the records of a transaction to the journal and wait until they are on disk. */
+    private void commit(TxLog log) throws DatabaseException {
+        if (log.changes.isEmpty())
+            return;
+        List<byte[]> records = new ArrayList<byte[]>(log.changes.size());
+        for (Entry e : log.changes.values())
+            records.add(e.details != null ? encode(e) : encodeDelete(e.jobId));
+        try {
+            long pos = append(records, !log.autoCommit);
+            log.written = true;
+            sync(pos);
+        } catch (IOException ioe) {
+            throw new DatabaseException(ioe);
+        }
+    }
+
+    /**
+     * Apply the changes of a committed transaction to the index, or compensate the records of a rolled back one,
+     * then release its locks.
+     */
+    private void complete(TxLog log, boolean committed) {
+        synchronized (this) {
+            if (committed) {
+                applyChanges(log);
+            } else if (log.written) {
+                // the jobs are still locked, nobody else wrote records for them since
+                List<byte[]> compensation = new ArrayList<byte[]>(log.changes.size());
+                for (String jobId : log.changes.keySet()) {
+                    Entry committedEntry = _jobs.get(jobId);
+                    compensation.add(committedEntry != null ? encode(committedEntry) : encodeDelete(jobId));
+                }
+                try {
+                    append(compensation, false);
+                } catch (IOException ioe) {
+                    __log.error("Unable to write compensation records to the scheduler journal", ioe);
+                }
+            }
+            for (String jobId : log.changes.keySet()) {
+                if (_locks.get(jobId) == log)
+                    _locks.remove(jobId);
+            }
+            notifyAll();
+        }
+        if (log.written) {
+            synchronized (_writeLock) {
+                _pendingCommits--;
+            }
+        }
+        if (committed)
+            compactIfNeeded();
+    }
+
+    /** Must be called while holding the monitor of this object. */
+    private void applyChanges(TxLog log) {
+        for (Entry e : log.changes.values()) {
+            Entry old = e.details == null ? _jobs.remove(e.jobId) : _jobs.put(e.jobId, e);
+            if (old != null)
+                _byTime.remove(old);
+            if (e.details != null)
+                _byTime.add(e);
+        }
+        log.changes.clear();
+    }
+
+    /**
+     * @param pending whether the records belong to a transaction that still has to apply them to the index
+     */
+    private long append(List<byte[]> records, boolean pending) throws IOException {
+        ByteBuffer buf = toBuffer(records);
+        synchronized (_writeLock) {
+            while (buf.hasRemaining())
+                _channel.write(buf);
+            _writtenPos += buf.limit();
+            _recordsSinceCompaction += records.size();
+            if (pending)
+                _pendingCommits++;
+            return _writtenPos;
+        }
+    }
+
+    private static ByteBuffer toBuffer(List<byte[]> records) {
+        int size = 0;
+        for (byte[] r : records)
+            size += HEADER_SIZE + r.length;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        CRC32 crc = new CRC32();
+        for (byte[] r : records) {
+            crc.reset();
+            crc.update(r);
+            buf.putInt(r.length);
+            buf.putLong(crc.getValue());
+            buf.put(r);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** Force the journal up to <code>pos</code>; one force covers all records appended before it. */
+    private void sync(long pos) throws IOException {
+        synchronized (_syncLock) {
+            if (_syncedPos >= pos)
+                return;
+            long target;
+            synchronized (_writeLock) {
+                target = _writtenPos;
+            }
+            _channel.force(false);
+            _syncedPos = target;
+        }
+    }
+
+    private void compactIfNeeded() {
+        int live;
+        synchronized (this) {
+            live = _jobs.size();
+        }
+        if (_recordsSinceCompaction < Math.max(_compactionThreshold, 4 * live))
+            return;
+        try {
+            compact();
+        } catch (IOException ioe) {
+            __log.error("Error compacting the scheduler journal", ioe);
+        }
+    }
+
+    /**
+     * Rewrite the journal as a snapshot of the committed jobs. Skipped while committing transactions have
+     * records in the journal that are not in the index yet.
+     */
+    void compact() throws IOException {
+        synchronized (this) {
+            synchronized (_syncLock) {
+                synchronized (_writeLock) {
+                    if (_pendingCommits > 0) {
+                        if (__log.isDebugEnabled())
+                            __log.debug("Postponing compaction of scheduler journal " + _file + ", commits in progress");
+                        return;
+                    }
+                    List<byte[]> snapshot = new ArrayList<byte[]>(_jobs.size());
+                    for (Entry e : _byTime)
+                        snapshot.add(encode(e));
+
+                    File tmp = new File(_file.getPath() + ".compact");
+                    RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+                    try {
+                        raf.setLength(0);
+                        ByteBuffer buf = toBuffer(snapshot);
+                        while (buf.hasRemaining())
+                            raf.getChannel().write(buf);
+                        raf.getChannel().force(true);
+                    } finally {
+                        raf.close();
+                    }
+                    _raf.close();
+                    if (!_file.delete() || !tmp.renameTo(_file))
+                        throw new IOException("Unable to replace scheduler journal " + _file + " with " + tmp);
+                    open();
+                    _recordsSinceCompaction = 0;
+                    if (__log.isDebugEnabled())
+                        __log.debug("Compacted scheduler journal " + _file + " to " + snapshot.size() + " jobs");
+                }
+            }
+        }
+    }
+
+    private void open() throws IOException {
+        _raf = new RandomAccessFile(_file, "rw");
+        _channel = _raf.getChannel();
+        _writtenPos = _channel.size();
+        _syncedPos = _writtenPos;
+        _channel.position(_writtenPos);
+    }
+
+    /**
+     * Rebuild the in-memory index from the journal. A torn record at the end of the journal (crash during
+     * a write) ends the replay and is truncated.
+     */
+    private void replay() throws IOException {
+        if (!_file.exists()) {
+            File tmp = new File(_file.getPath() + ".compact");
+            if (tmp.exists() && !tmp.renameTo(_file))
+                throw new IOException("Unable to recover scheduler journal from " + tmp);
+        }
+        if (!_file.exists() || _file.length() == 0)
+            return;
+
+        RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            int valid = 0;
+            int records = 0;
+            while (buf.remaining() >= HEADER_SIZE) {
+                int len = buf.getInt();
+                long sum = buf.getLong();
+                if (len <= 0 || len > buf.remaining())
+                    break;
+                byte[] payload = new byte[len];
+                buf.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if (crc.getValue() != sum)
+                    break;
+                apply(payload);
+                valid = buf.position();
+                records++;
+            }
+            if (valid < channel.size()) {
+                __log.warn("Truncating scheduler journal " + _file + " at offset " + valid + " of " + channel.size());
+                channel.truncate(valid);
+            }
+            _recordsSinceCompaction = records;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new java.io.ByteArrayInputStream(payload));
+        byte op = in.readByte();
+        switch (op) {
+        case OP_PUT:
+            Entry e = decode(in);
+            Entry old = _jobs.put(e.jobId, e);
+            if (old != null)
+                _byTime.remove(old);
+            _byTime.add(e);
+            break;
+        case OP_DELETE:
+            Entry removed = _jobs.remove(in.readUTF());
+            if (removed != null)
+                _byTime.remove(removed);
+            break;
+        case OP_CLEAR:
+            _jobs.clear();
+            _byTime.clear();
+            break;
+        default:
+            throw new IOException("Unknown scheduler journal record " + op);
+        }
+    }
+
+    private static byte[] encode(Entry e) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeByte(OP_PUT);
+            out.writeUTF(e.jobId);
+            writeString(out, e.nodeId);
+            out.writeLong(e.ts);
+            out.writeBoolean(e.transacted);
+            out.writeBoolean(e.loaded);
+            JobDetails d = e.details;
+            out.writeBoolean(d.instanceId != null);
+            if (d.instanceId != null)
+                out.writeLong(d.instanceId);
+            writeString(out, d.mexId);
+            writeString(out, d.processId);
+            writeString(out, d.type);
+            writeString(out, d.channel);
+            writeString(out, d.correlatorId);
+            writeString(out, d.correlationKeySet);
+            out.writeBoolean(d.retryCount != null);
+            if (d.retryCount != null)
+                out.writeInt(d.retryCount);
+            out.writeBoolean(d.inMem != null);
+            if (d.inMem != null)
+                out.writeBoolean(d.inMem);
+            if (d.detailsExt == null || d.detailsExt.isEmpty()) {
+                out.writeInt(0);
+            } else {
+                byte[] ext = DetailsExtCodec.encode(d.detailsExt);
+                out.writeInt(ext.length);
+                out.write(ext);
+            }
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Error serializing job " + e.jobId, ioe);
+        }
+    }
+
+    private static byte[] encodeDelete(String jobId) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bos);
+            out.writeByte(OP_DELETE);
+            out.writeUTF(jobId);
+            out.flush();
+            return bos.toByteArray();
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+    }
+
+    private static Entry decode(DataInputStream in) throws IOException {
+        String jobId = in.readUTF();
+        String nodeId = readString(in);
+        long ts = in.readLong();
+        boolean transacted = in.readBoolean();
+        boolean loaded = in.readBoolean();
+        JobDetails d = new JobDetails();
+        if (in.readBoolean())
+            d.instanceId = in.readLong();
+        d.mexId = readString(in);
+        d.processId = readString(in);
+        d.type = readString(in);
+        d.channel = readString(in);
+        d.correlatorId = readString(in);
+        d.correlationKeySet = readString(in);
+        if (in.readBoolean())
+            d.retryCount = in.readInt();
+        if (in.readBoolean())
+            d.inMem = in.readBoolean();
+        int extLen = in.readInt();
+        if (extLen > 0) {
+            byte[] ext = new byte[extLen];
+            in.readFully(ext);
+            try {
+                d.detailsExt = DetailsExtCodec.decode(ext);
+            } catch (ClassNotFoundException cnfe) {
+                IOException ioe = new IOException("Error deserializing job detailsExt of " + jobId);
+                ioe.initCause(cnfe);
+                throw ioe;
+            }
+        }
+        return new Entry(jobId, nodeId, ts, transacted, loaded, d);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null)
+            out.writeUTF(s);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static JobDetails copy(JobDetails d) {
+        JobDetails c = new JobDetails();
+        c.instanceId = d.instanceId;
+        c.mexId = d.mexId;
+        c.processId = d.processId;
+        c.type = d.type;
+        c.channel = d.channel;
+        c.correlatorId = d.correlatorId;
+        c.correlationKeySet = d.correlationKeySet;
+        c.retryCount = d.retryCount;
+        c.inMem = d.inMem;
+        c.detailsExt = d.detailsExt == null ? new HashMap<String, Object>() : new HashMap<String, Object>(d.detailsExt);
+        return c;
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Immutable state of a job in the journal. An entry without details stands for a deleted job in transaction logs.
+     */
+    private static final class Entry {
+        final String jobId;
+        final String nodeId;
+        final long ts;
+        final boolean transacted;
+        final boolean loaded;
+        final JobDetails details;
+
+        Entry(String jobId, String nodeId, long ts, boolean transacted, boolean loaded, JobDetails details) {
+            this.jobId = jobId;
+            this.nodeId = nodeId;
+            this.ts = ts;
+            this.transacted = transacted;
+            this.loaded = loaded;
+            this.details = details;
+        }
+    }
+
+    /**
+     * Changes made by one transaction, applied to the index on commit and dropped on rollback.
+     */
+    private static final class TxLog {
+        final boolean autoCommit;
+        /** New state of the changed jobs, in the order of the changes. */
+        final Map<String, Entry> changes = new LinkedHashMap<String, Entry>();
+        volatile boolean written;
+
+        TxLog(boolean autoCommit) {
+            this.autoCommit = autoCommit;
+        }
+    }
+}
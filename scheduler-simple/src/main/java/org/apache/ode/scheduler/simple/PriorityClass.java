@@ -0,0 +1,194 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
+
+/**
+ * A class of scheduler jobs that is dispatched on its own bounded worker pool, so that a flood of
+ * jobs of one class (e.g. timers or cleanup runnables) can not delay jobs of another class (e.g. partner
+ * responses). The relative share of workers given to each class is its pool size.
+ *
+ * Priority classes are configured with the following properties:
+ * <pre>
+ *  ode.scheduler.priorityClasses = responses, background
+ *  ode.scheduler.priorityClass.responses.jobTypes = INVOKE_RESPONSE, INVOKE_INTERNAL, MATCHER, MEX_MATCHER
+ *  ode.scheduler.priorityClass.responses.threads = 20
+ *  ode.scheduler.priorityClass.background.jobTypes = RUNNABLE
+ *  ode.scheduler.priorityClass.background.threads = 2
+ * </pre>
+ * Job types are the names of {@link org.apache.ode.bpel.iapi.Scheduler.JobType} constants, or
+ * {@link #RUNNABLE} for polled runnables. Jobs that do not belong to any class run on the scheduler's
+ * default executor.
+ *
+ * The dispatch delays and run times of the jobs of a class are published in the {@link MetricsRegistry}
+ * as the <code>scheduler.class.&lt;name&gt;.delay</code> and <code>.time</code> histograms (microseconds).
+ */
+public class PriorityClass {
+
+    /** Pseudo job type matching polled runnables (e.g. cleanup runnables). */
+    public static final String RUNNABLE = "RUNNABLE";
+
+    static final String PROP_CLASSES = "ode.scheduler.priorityClasses";
+
+    static final String PROP_CLASS_PREFIX = "ode.scheduler.priorityClass.";
+
+    private static final int DEFAULT_THREADS = 5;
+
+    private final String _name;
+
+    private final Set<String> _jobTypes;
+
+    private final int _threads;
+
+    private ThreadPoolExecutor _executor;
+
+    private final Histogram _dispatchDelay;
+
+    private final Histogram _runTime;
+
+    PriorityClass(String name, Set<String> jobTypes, int threads) {
+        _name = name;
+        _jobTypes = Collections.unmodifiableSet(jobTypes);
+        _threads = threads;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        _dispatchDelay = metrics.histogram("scheduler.class." + name + ".delay");
+        _runTime = metrics.histogram("scheduler.class." + name + ".time");
+    }
+
+    static PriorityClass[] fromProperties(Properties conf) {
+        String classes = conf.getProperty(PROP_CLASSES);
+        if (classes == null || classes.trim().length() == 0)
+            return new PriorityClass[0];
+
+        String[] names = classes.trim().split("\\s*,\\s*");
+        PriorityClass[] ret = new PriorityClass[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            String prefix = PROP_CLASS_PREFIX + names[i] + ".";
+            Set<String> jobTypes = new HashSet<String>();
+            String types = conf.getProperty(prefix + "jobTypes", "");
+            for (String type : types.trim().split("\\s*,\\s*")) {
+                if (type.length() > 0)
+                    jobTypes.add(type.toUpperCase());
+            }
+            int threads = Integer.parseInt(conf.getProperty(prefix + "threads", String.valueOf(DEFAULT_THREADS)));
+            ret[i] = new PriorityClass(names[i], jobTypes, threads);
+        }
+        return ret;
+    }
+
+    boolean accepts(String jobType) {
+        return jobType != null && _jobTypes.contains(jobType);
+    }
+
+    synchronized ThreadPoolExecutor getExecutor() {
+        if (_executor == null) {
+            _executor = new ThreadPoolExecutor(_threads, _threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private final AtomicInteger _threadNumber = new AtomicInteger();
+
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "OdeScheduler-" + _name + "-" + _threadNumber.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return _executor;
+    }
+
+    synchronized void shutdown() {
+        if (_executor != null) {
+            _executor.shutdown();
+            _executor = null;
+        }
+    }
+
+    /**
+     * @param dispatchDelay time (ms) between the scheduled time of the job and its start
+     */
+    void jobStarted(long dispatchDelay) {
+        _dispatchDelay.record(Math.max(0, dispatchDelay) * 1000);
+    }
+
+    /**
+     * @param runTime execution time of the job, in microseconds
+     */
+    void jobCompleted(long runTime) {
+        _runTime.record(runTime);
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public Set<String> getJobTypes() {
+        return _jobTypes;
+    }
+
+    public int getThreads() {
+        return _threads;
+    }
+
+    /** Number of jobs started on this class' pool. */
+    public long getDispatchedCount() {
+        return _dispatchDelay.getCount();
+    }
+
+    /** Average time (ms) between the scheduled time of a job and its start. */
+    public long getAverageDispatchDelay() {
+        return _dispatchDelay.getMean() / 1000;
+    }
+
+    /** Largest time (ms) observed between the scheduled time of a job and its start. */
+    public long getMaxDispatchDelay() {
+        return _dispatchDelay.getMax() / 1000;
+    }
+
+    /** Average execution time (ms) of a job. */
+    public long getAverageRunTime() {
+        return _runTime.getMean() / 1000;
+    }
+
+    /** Number of jobs waiting for a worker of this class. */
+    public synchronized int getQueuedCount() {
+        return _executor == null ? 0 : _executor.getQueue().size();
+    }
+
+    /** Number of workers of this class currently running a job. */
+    public synchronized int getActiveCount() {
+        return _executor == null ? 0 : _executor.getActiveCount();
+    }
+
+    public String toString() {
+        return "PriorityClass " + _name + " " + _jobTypes + " threads: " + _threads;
+    }
+}
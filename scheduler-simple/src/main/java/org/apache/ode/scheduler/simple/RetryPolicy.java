@@ -0,0 +1,149 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Backoff policy applied to failed persisted jobs. The n-th retry is scheduled after
+ * <code>baseDelay * multiplier^(n-1)</code> milliseconds (capped at <code>maxDelay</code>), reduced by a random
+ * fraction of up to <code>jitter</code> so that jobs failing together do not retry together.
+ *
+ * The default policy is configured with <code>ode.scheduler.retry.*</code> properties; additional policies
+ * for specific errors are listed in <code>ode.scheduler.retry.policies</code> and configured with
+ * <code>ode.scheduler.retry.policy.&lt;name&gt;.*</code>, where <code>exceptions</code> is the list of
+ * exception class names (matched against the exception, its causes and their superclasses) the policy
+ * applies to:
+ * <pre>
+ *  ode.scheduler.retry.maxRetries = 10
+ *  ode.scheduler.retry.baseDelay = 5000
+ *  ode.scheduler.retry.multiplier = 5
+ *  ode.scheduler.retry.jitter = 0.3
+ *  ode.scheduler.retry.policies = partner
+ *  ode.scheduler.retry.policy.partner.exceptions = java.net.ConnectException, java.net.SocketTimeoutException
+ *  ode.scheduler.retry.policy.partner.baseDelay = 30000
+ *  ode.scheduler.retry.policy.partner.multiplier = 2
+ *  ode.scheduler.retry.policy.partner.maxDelay = 1800000
+ * </pre>
+ */
+class RetryPolicy {
+
+    static final String PROP_PREFIX = "ode.scheduler.retry.";
+
+    final String name;
+
+    final List<String> exceptions;
+
+    final int maxRetries;
+
+    final long baseDelay;
+
+    final double multiplier;
+
+    final long maxDelay;
+
+    final double jitter;
+
+    RetryPolicy(String name, List<String> exceptions, int maxRetries, long baseDelay, double multiplier, long maxDelay, double jitter) {
+        this.name = name;
+        this.exceptions = exceptions;
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.multiplier = multiplier;
+        this.maxDelay = maxDelay;
+        this.jitter = Math.max(0, Math.min(1, jitter));
+    }
+
+    /**
+     * Read the default policy, followed by the error specific policies. Settings not given for a
+     * specific policy are inherited from the default one.
+     */
+    static List<RetryPolicy> fromProperties(Properties conf) {
+        List<RetryPolicy> ret = new ArrayList<RetryPolicy>();
+        RetryPolicy dflt = new RetryPolicy("default", Collections.<String>emptyList(), 10, 5000, 5, Long.MAX_VALUE, 0.3);
+        dflt = read(conf, PROP_PREFIX, "default", dflt);
+        ret.add(dflt);
+
+        String names = conf.getProperty(PROP_PREFIX + "policies");
+        if (names != null && names.trim().length() > 0) {
+            for (String name : names.trim().split("\\s*,\\s*"))
+                ret.add(read(conf, PROP_PREFIX + "policy." + name + ".", name, dflt));
+        }
+        return ret;
+    }
+
+    private static RetryPolicy read(Properties conf, String prefix, String name, RetryPolicy dflt) {
+        List<String> exceptions = new ArrayList<String>();
+        String ex = conf.getProperty(prefix + "exceptions");
+        if (ex != null) {
+            for (String e : ex.trim().split("\\s*,\\s*"))
+                if (e.length() > 0)
+                    exceptions.add(e);
+        }
+        return new RetryPolicy(name, exceptions,
+                Integer.parseInt(conf.getProperty(prefix + "maxRetries", String.valueOf(dflt.maxRetries))),
+                Long.parseLong(conf.getProperty(prefix + "baseDelay", String.valueOf(dflt.baseDelay))),
+                Double.parseDouble(conf.getProperty(prefix + "multiplier", String.valueOf(dflt.multiplier))),
+                Long.parseLong(conf.getProperty(prefix + "maxDelay", String.valueOf(dflt.maxDelay))),
+                Double.parseDouble(conf.getProperty(prefix + "jitter", String.valueOf(dflt.jitter))));
+    }
+
+    /**
+     * Select the policy for an error: the first error specific policy matching the error or one of its causes,
+     * otherwise the default policy (the first of the list).
+     */
+    static RetryPolicy select(List<RetryPolicy> policies, Throwable error) {
+        for (int i = 1; i < policies.size(); ++i) {
+            if (policies.get(i).matches(error))
+                return policies.get(i);
+        }
+        return policies.get(0);
+    }
+
+    boolean matches(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            for (Class<?> c = t.getClass(); c != null && c != Object.class; c = c.getSuperclass()) {
+                if (exceptions.contains(c.getName()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delay in milliseconds before the given retry (starting at 1).
+     */
+    long delay(int retry, Random random) {
+        double delay = baseDelay * Math.pow(multiplier, retry - 1);
+        if (delay > maxDelay)
+            delay = maxDelay;
+        delay -= delay * jitter * random.nextDouble();
+        return (long) delay;
+    }
+
+    public String toString() {
+        return "RetryPolicy " + name + " " + exceptions + " maxRetries: " + maxRetries + " baseDelay: " + baseDelay
+                + " multiplier: " + multiplier + " maxDelay: " + maxDelay + " jitter: " + jitter;
+    }
+}
@@ -25,6 +25,8 @@ import org.apache.ode.bpel.clapi.ClusterManager;
 import org.apache.ode.bpel.clapi.ClusterMemberListener;
 import org.apache.ode.bpel.iapi.ContextException;
 import org.apache.ode.bpel.iapi.Scheduler;
+import org.apache.ode.utils.metrics.Histogram;
+import org.apache.ode.utils.metrics.MetricsRegistry;
 
 import javax.transaction.*;
 import java.text.DateFormat;
@@ -58,6 +60,16 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
 
     private static final int DEFAULT_TRANSACTION_TIMEOUT = 60 * 1000;
 
+    /** Delay and execution time histograms of the jobs, by job type. */
+    private static final EnumMap<Scheduler.JobType, Histogram[]> __jobHistograms =
+            new EnumMap<Scheduler.JobType, Histogram[]>(Scheduler.JobType.class);
+    static {
+        for (Scheduler.JobType type : Scheduler.JobType.values())
+            __jobHistograms.put(type, jobHistograms(type.toString()));
+    }
+    private static final Histogram[] __runnableHistograms = jobHistograms(PriorityClass.RUNNABLE);
+    private static final Histogram[] __unknownHistograms = jobHistograms("UNKNOWN");
+
     /**
      * Jobs scheduled with a time that is between [now, now+immediateInterval] will be assigned to the current node, and placed
      * directly on the todo queue.
@@ -139,6 +151,12 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
     /** Interval between immediate retries when the transaction fails **/
     private long _immediateTransactionRetryInterval = 1000;
 
+    /** Backoff policies for failed jobs, the default policy first. */
+    private List<RetryPolicy> _retryPolicies;
+
+    /** Job classes dispatched on their own worker pools; jobs outside these classes use {@link #_exec}. */
+    private PriorityClass[] _priorityClasses;
+
     private DateFormat debugDateFormatter = new SimpleDateFormat("HH:mm:ss,SSS");
 
     public SimpleScheduler(String nodeId, DatabaseDelegate del, Properties conf) {
@@ -159,6 +177,11 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         _immediateTransactionRetryLimit = getIntProperty(conf, "ode.scheduler.immediateTransactionRetryLimit", _immediateTransactionRetryLimit);
         _immediateTransactionRetryInterval = getLongProperty(conf, "ode.scheduler.immediateTransactionRetryInterval", _immediateTransactionRetryInterval);
 
+        _retryPolicies = RetryPolicy.fromProperties(conf);
+        _priorityClasses = PriorityClass.fromProperties(conf);
+        for (PriorityClass pc : _priorityClasses)
+            __log.info("Using scheduler " + pc);
+
         _todo = new SchedulerThread(this);
     }
 
@@ -433,6 +456,8 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
 
     public void shutdown() {
         stop();
+        for (PriorityClass pc : _priorityClasses)
+            pc.shutdown();
         _jobProcessor = null;
         _txm = null;
         _todo = null;
@@ -548,20 +573,44 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
         // schedule check for stale nodes, make it random so that the nodes don't overlap.
         _todo.enqueue(new CheckStaleNodes(now + randomMean(_staleInterval)));
 
-        // do the upgrade sometime (random) in the immediate interval.
-        _todo.enqueue(new UpgradeJobsTask(now + randomMean(_immediateInterval)));
+        // do the upgrade sometime (random) in the immediate interval; not needed when every node
+        // claims unassigned jobs on its own while loading immediate jobs.
+        if (!_db.claimsUnassignedJobs())
+            _todo.enqueue(new UpgradeJobsTask(now + randomMean(_immediateInterval)));
+    }
+
+    /**
+     * Statistics of the configured priority classes.
+     */
+    public List<PriorityClass> getPriorityClasses() {
+        return Collections.unmodifiableList(Arrays.asList(_priorityClasses));
     }
 
     class RunJob implements Callable<Void> {
         final Job job;
         final JobProcessor processor;
+        final PriorityClass priorityClass;
+        final String jobType;
+
+        RunJob(Job job, JobProcessor processor, String jobType) {
+            this(job, processor, jobType, null);
+        }
 
-        RunJob(Job job, JobProcessor processor) {
+        RunJob(Job job, JobProcessor processor, String jobType, PriorityClass priorityClass) {
             this.job = job;
             this.processor = processor;
+            this.jobType = jobType;
+            this.priorityClass = priorityClass;
         }
 
         public Void call() throws Exception {
+            long start = System.currentTimeMillis();
+            long startNanos = System.nanoTime();
+            if (priorityClass != null)
+                priorityClass.jobStarted(start - job.schedDate);
+            final Histogram[] histograms = getJobHistograms(jobType);
+            histograms[0].record(Math.max(0, start - job.schedDate) * 1000);
+            boolean retryInMemory = false;
             try {
                 final Scheduler.JobInfo jobInfo = new Scheduler.JobInfo(job.jobId, job.detail,
                         job.detail.getRetryCount());
@@ -606,26 +655,35 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                         // We only get here if the above execTransaction fails, so that transaction got
                         // rollbacked already
                         if (job.persisted) {
-                            execTransaction(new Callable<Void>() {
-                                public Void call() throws Exception {
-                                    if (needRetry[0]) {
-                                        int retry = job.detail.getRetryCount() + 1;
-                                        if (retry <= 10) {
-                                            job.detail.setRetryCount(retry);
-                                            long delay = (long)(Math.pow(5, retry));
-                                            job.schedDate = System.currentTimeMillis() + delay*1000;
+                            final RetryPolicy policy = RetryPolicy.select(_retryPolicies, ex);
+                            final int retry = job.detail.getRetryCount() + 1;
+                            if (needRetry[0] && retry <= policy.maxRetries) {
+                                long delay = policy.delay(retry, _random);
+                                job.detail.setRetryCount(retry);
+                                job.schedDate = System.currentTimeMillis() + delay;
+                                if (delay <= _immediateInterval) {
+                                    // Short retries stay in memory: the job row is still in the db (the delete
+                                    // was rolled back) and is only reloaded if this node goes away.
+                                    retryInMemory = true;
+                                } else {
+                                    execTransaction(new Callable<Void>() {
+                                        public Void call() throws Exception {
                                             _db.updateJob(job);
-                                            __log.error("Error while processing job, retrying in " + delay + "s");
-                                        } else {
-                                            _db.deleteJob(job.jobId, _nodeId);
-                                            __log.error("Error while processing job after 10 retries, no more retries:" + job);
+                                            return null;
                                         }
-                                    } else {
+                                    });
+                                }
+                                __log.error("Error while processing job, retrying in " + delay + "ms (" + policy.name + " retry policy)");
+                            } else {
+                                execTransaction(new Callable<Void>() {
+                                    public Void call() throws Exception {
                                         _db.deleteJob(job.jobId, _nodeId);
+                                        return null;
                                     }
-                                    return null;
-                                }
-                            });
+                                });
+                                if (needRetry[0])
+                                    __log.error("Error while processing job after " + policy.maxRetries + " retries, no more retries:" + job);
+                            }
                         }
                     }
                 } else {
@@ -633,9 +691,19 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
                 }
                 return null;
             } finally {
-                // the order of these 2 actions is crucial to avoid a race condition.
-                _processedSinceLastLoadTask.put(job.jobId, job.schedDate);
-                _outstandingJobs.remove(job.jobId);
+                SchedulerThread todo = _todo;
+                if (retryInMemory && todo != null) {
+                    // still outstanding, so a load-immediate will not enqueue it a second time
+                    todo.enqueue(job);
+                } else {
+                    // the order of these 2 actions is crucial to avoid a race condition.
+                    _processedSinceLastLoadTask.put(job.jobId, job.schedDate);
+                    _outstandingJobs.remove(job.jobId);
+                }
+                long runTime = MetricsRegistry.micros(startNanos);
+                if (priorityClass != null)
+                    priorityClass.jobCompleted(runTime);
+                histograms[1].record(runTime);
             }
         }
     }
@@ -646,7 +714,7 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
      * @param job job to run.
      */
     protected void runJob(final Job job) {
-        _exec.submit(new RunJob(job, _jobProcessor));
+        submit(job, _jobProcessor, job.detail.type);
     }
 
      /**
@@ -672,7 +740,35 @@ public class SimpleScheduler implements Scheduler, TaskRunner, ClusterMemberList
      * @param job job to run.
      */
     protected void runPolledRunnable(final Job job) {
-         _exec.submit(new RunJob(job, _polledRunnableProcessor));
+        submit(job, _polledRunnableProcessor, PriorityClass.RUNNABLE);
+    }
+
+    private static Histogram[] jobHistograms(String jobType) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String metricPrefix = "scheduler.job." + jobType;
+        return new Histogram[] { metrics.histogram(metricPrefix + ".delay"), metrics.histogram(metricPrefix + ".time") };
+    }
+
+    private static Histogram[] getJobHistograms(String jobType) {
+        if (jobType == null)
+            return __unknownHistograms;
+        if (PriorityClass.RUNNABLE.equals(jobType))
+            return __runnableHistograms;
+        try {
+            return __jobHistograms.get(Scheduler.JobType.valueOf(jobType));
+        } catch (IllegalArgumentException e) {
+            return __unknownHistograms;
+        }
+    }
+
+    private void submit(Job job, JobProcessor processor, String jobType) {
+        for (PriorityClass pc : _priorityClasses) {
+            if (pc.accepts(jobType)) {
+                pc.getExecutor().submit(new RunJob(job, processor, jobType, pc));
+                return;
+            }
+        }
+        _exec.submit(new RunJob(job, processor, jobType));
     }
 
     private void addTodoOnCommit(final Job job) {
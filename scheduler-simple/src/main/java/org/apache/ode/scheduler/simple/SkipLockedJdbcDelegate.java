@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JDBC delegate that lets every node claim ready jobs directly from the <code>ODE_JOB</code> table, using
+ * <code>SELECT ... FOR UPDATE SKIP LOCKED</code> on databases that support it (PostgreSQL 9.5+, Oracle,
+ * MySQL 8+). Jobs that have no node assigned and are up for execution are locked, assigned to the
+ * dequeuing node and loaded in the same transaction; rows locked by a concurrent claim on another node
+ * are skipped rather than waited for. Exactly-once processing still relies on
+ * {@link #deleteJob(String, String)} matching the node identifier.
+ *
+ * On other databases this delegate behaves exactly like {@link JdbcDelegate} and the scheduler keeps
+ * using the periodic upgrade pass.
+ */
+public class SkipLockedJdbcDelegate extends JdbcDelegate {
+
+    private static final Logger __log = LoggerFactory.getLogger(SkipLockedJdbcDelegate.class);
+
+    private static final String CLAIM_JOBS_DEFAULT = "select jobid from ODE_JOB "
+            + "where nodeid is null and ts < ? order by ts limit ? for update skip locked";
+
+    private static final String CLAIM_JOBS_ORACLE = "select jobid from ODE_JOB "
+            + "where nodeid is null and ts < ? and rownum <= ? for update skip locked";
+
+    private static final String ASSIGN_CLAIMED_JOB = "update ODE_JOB set nodeid = ? where jobid = ? and nodeid is null";
+
+    private final String _claimJobs;
+
+    public SkipLockedJdbcDelegate(DataSource ds) {
+        super(ds);
+        _claimJobs = claimStatement();
+        if (_claimJobs == null) {
+            __log.warn("Database dialect " + _dialect + " does not support SKIP LOCKED; falling back to node assignment by upgrade.");
+        }
+    }
+
+    @Override
+    public boolean claimsUnassignedJobs() {
+        return _claimJobs != null;
+    }
+
+    @Override
+    public List<Job> dequeueImmediate(String nodeId, long maxtime, int maxjobs) throws DatabaseException {
+        if (_claimJobs != null) {
+            int claimed = claimJobs(nodeId, maxtime, maxjobs);
+            if (__log.isDebugEnabled())
+                __log.debug("claimed " + claimed + " unassigned jobs for node " + nodeId);
+        }
+        return super.dequeueImmediate(nodeId, maxtime, maxjobs);
+    }
+
+    /**
+     * Lock up to <code>maxjobs</code> unassigned ready jobs, skipping those locked by other nodes,
+     * and assign them to <code>nodeId</code>. The locks are held until the enclosing transaction completes.
+     */
+    int claimJobs(String nodeId, long maxtime, int maxjobs) throws DatabaseException {
+        Connection con = null;
+        PreparedStatement ps = null;
+        try {
+            con = getConnection();
+            ps = con.prepareStatement(_claimJobs);
+            ps.setLong(1, maxtime);
+            ps.setInt(2, maxjobs);
+            ResultSet rs = ps.executeQuery();
+            List<String> jobIds = new ArrayList<String>();
+            while (rs.next()) {
+                jobIds.add(rs.getString(1));
+            }
+            rs.close();
+            close(ps);
+            ps = null;
+
+            if (jobIds.isEmpty())
+                return 0;
+
+            ps = con.prepareStatement(ASSIGN_CLAIMED_JOB);
+            for (String jobId : jobIds) {
+                ps.setString(1, nodeId);
+                ps.setString(2, jobId);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            return jobIds.size();
+        } catch (SQLException se) {
+            throw new DatabaseException(se);
+        } finally {
+            close(ps);
+            close(con);
+        }
+    }
+
+    private String claimStatement() {
+        switch (_dialect) {
+        case POSTGRESQL:
+            return _dbMajorVersion > 9 || (_dbMajorVersion == 9 && _dbMinorVersion >= 5) ? CLAIM_JOBS_DEFAULT : null;
+        case MYSQL:
+            return _dbMajorVersion >= 8 ? CLAIM_JOBS_DEFAULT : null;
+        case ORACLE:
+            return CLAIM_JOBS_ORACLE;
+        default:
+            return null;
+        }
+    }
+}
@@ -50,7 +50,7 @@ public class GeronimoDelegateSupport extends DelegateSupport {
         _del = new JdbcDelegate(_ds);
     }
 
-    private DataSource createGeronimoDataSource(TransactionManager txm, String url, String driverClass, String username,String password) {
+    protected DataSource createGeronimoDataSource(TransactionManager txm, String url, String driverClass, String username,String password) {
         TransactionSupport transactionSupport = LocalTransactions.INSTANCE;
         ConnectionTracker connectionTracker = new ConnectionTrackingCoordinator();
 
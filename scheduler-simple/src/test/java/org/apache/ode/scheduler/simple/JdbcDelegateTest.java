@@ -19,6 +19,11 @@
 
 package org.apache.ode.scheduler.simple;
 
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 import javax.xml.namespace.QName;
@@ -27,6 +32,7 @@ import junit.framework.Assert;
 
 import org.apache.ode.bpel.iapi.Scheduler;
 import org.apache.ode.bpel.iapi.Scheduler.JobType;
+import org.apache.ode.utils.StreamUtils;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -185,4 +191,47 @@ public class JdbcDelegateTest extends Assert {
         assertEquals(j2.getCorrelatorId(), (Object) "cid123");
         assertEquals(j2.getRetryCount(), (Object) 15);
     }
+
+    @Test
+    public void testDetailsExtEncoding() throws Exception {
+        HashSet<QName> pids = new HashSet<QName>();
+        pids.add(new QName("http://test1", "test2"));
+        Scheduler.JobDetails j1 = new Scheduler.JobDetails();
+        j1.getDetailsExt().put("pidId", 1234L);
+        j1.getDetailsExt().put("transactionSize", 10);
+        j1.getDetailsExt().put("runnable_status", "IN_PROGRESS");
+        j1.getDetailsExt().put("flag", true);
+        j1.getDetailsExt().put("none", null);
+        j1.getDetailsExt().put("pidsToExclude", pids);
+
+        _del.insertJob(new Job(0, "compact", true, j1), "n1", false);
+        Scheduler.JobDetails j2 = _del.dequeueImmediate("n1", 10000L, 1000).get(0).detail;
+
+        assertEquals(j1.getDetailsExt(), j2.getDetailsExt());
+    }
+
+    @Test
+    public void testDetailsExtLegacyEncoding() throws Exception {
+        HashMap<String, Object> detailsExt = new HashMap<String, Object>();
+        detailsExt.put("pidId", 1234L);
+        detailsExt.put("transactionSize", 10);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        StreamUtils.write(bos, detailsExt);
+
+        Connection c = _ds._ds.getConnection();
+        try {
+            PreparedStatement ps = c.prepareStatement("insert into ODE_JOB (jobid, nodeid, ts, detailsExt) values (?, ?, ?, ?)");
+            ps.setString(1, "legacy");
+            ps.setString(2, "n1");
+            ps.setLong(3, 0L);
+            ps.setBytes(4, bos.toByteArray());
+            ps.executeUpdate();
+            ps.close();
+        } finally {
+            c.close();
+        }
+
+        Scheduler.JobDetails j2 = _del.dequeueImmediate("n1", 10000L, 1000).get(0).detail;
+        assertEquals(detailsExt, j2.getDetailsExt());
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import junit.framework.Assert;
+
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.ode.bpel.iapi.Scheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the journal delegate.
+ */
+public class JournalDelegateTest extends Assert {
+
+    private File _file;
+    private JournalDelegate _del;
+    private TransactionManager _txm;
+
+    @Before
+    public void setUp() throws Exception {
+        _file = File.createTempFile("ode-scheduler", ".journal");
+        _file.delete();
+        _txm = new GeronimoTransactionManager();
+        _del = open();
+    }
+
+    private JournalDelegate open() throws Exception {
+        JournalDelegate del = new JournalDelegate(_file, 5);
+        del.setTransactionManager(_txm);
+        return del;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        _del.close();
+        _file.delete();
+    }
+
+    @Test
+    public void testDequeueAndAssign() throws Exception {
+        for (int i = 0; i < 20; ++i)
+            _del.insertJob(new Job(i, "j" + i, true, new Scheduler.JobDetails()), i % 2 == 0 ? "n1" : null, false);
+
+        assertEquals(10, _del.dequeueImmediate("n1", 100L, 1000).size());
+        assertEquals(5, _del.dequeueImmediate("n1", 100L, 5).size());
+        assertEquals(5, _del.updateAssignToNode("n1", 0, 1, 10L));
+        assertEquals(15, _del.dequeueImmediate("n1", 100L, 1000).size());
+        assertEquals(1, _del.getNodeIds().size());
+    }
+
+    @Test
+    public void testDeleteJob() throws Exception {
+        _del.insertJob(new Job(100L, "j1", true, new Scheduler.JobDetails()), "n1", false);
+
+        assertFalse(_del.deleteJob("j1", "n2"));
+        assertTrue(_del.deleteJob("j1", "n1"));
+        assertFalse(_del.deleteJob("j1", "n1"));
+        assertEquals(0, _del.getNodeIds().size());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        for (int i = 0; i < 20; ++i) {
+            Scheduler.JobDetails details = new Scheduler.JobDetails();
+            details.instanceId = (long) i;
+            details.getDetailsExt().put("pidId", (long) i);
+            _del.insertJob(new Job(i, "j" + i, true, details), "n1", false);
+        }
+        _del.deleteJob("j0", "n1");
+        Job job = _del.dequeueImmediate("n1", 100L, 1).get(0);
+        job.detail.setRetryCount(3);
+        job.schedDate = 500L;
+        _del.updateJob(job);
+        assertEquals(19, _del.updateReassign("n1", "n2"));
+        _del.close();
+
+        _del = open();
+        List<Job> jobs = _del.dequeueImmediate("n2", 1000L, 1000);
+        assertEquals(19, jobs.size());
+        Job last = jobs.get(18);
+        assertEquals("j1", last.jobId);
+        assertEquals(500L, last.schedDate);
+        assertEquals(3, (int) last.detail.getRetryCount());
+        assertEquals(1L, last.detail.getDetailsExt().get("pidId"));
+
+        // compaction keeps the live jobs only
+        long size = _file.length();
+        _del.compact();
+        assertTrue(_file.length() < size);
+        _del.close();
+        _del = open();
+        assertEquals(19, _del.dequeueImmediate("n2", 1000L, 1000).size());
+    }
+
+    @Test
+    public void testRollback() throws Exception {
+        _del.insertJob(new Job(100L, "j0", true, new Scheduler.JobDetails()), "n1", false);
+
+        _txm.begin();
+        _del.insertJob(new Job(200L, "j1", true, new Scheduler.JobDetails()), "n1", false);
+        assertTrue(_del.deleteJob("j0", "n1"));
+        assertFalse("Deleted in this transaction", _del.deleteJob("j0", "n1"));
+        Transaction tx = _txm.suspend();
+
+        // uncommitted changes are not visible to others
+        List<Job> jobs = _del.dequeueImmediate("n1", 1000L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j0", jobs.get(0).jobId);
+
+        _txm.resume(tx);
+        _txm.rollback();
+        jobs = _del.dequeueImmediate("n1", 1000L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j0", jobs.get(0).jobId);
+
+        _del.close();
+        _del = open();
+        jobs = _del.dequeueImmediate("n1", 1000L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j0", jobs.get(0).jobId);
+    }
+
+    @Test
+    public void testRollbackKeepsOtherCommits() throws Exception {
+        _del.insertJob(new Job(100L, "j1", true, new Scheduler.JobDetails()), "n1", false);
+        _del.insertJob(new Job(100L, "j2", true, new Scheduler.JobDetails()), "n1", false);
+
+        _txm.begin();
+        assertTrue(_del.deleteJob("j1", "n1"));
+        Transaction t1 = _txm.suspend();
+
+        _txm.begin();
+        assertTrue(_del.deleteJob("j2", "n1"));
+        _txm.commit();
+
+        _txm.resume(t1);
+        _txm.rollback();
+
+        List<Job> jobs = _del.dequeueImmediate("n1", 1000L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j1", jobs.get(0).jobId);
+        _del.close();
+        _del = open();
+        jobs = _del.dequeueImmediate("n1", 1000L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j1", jobs.get(0).jobId);
+    }
+
+    @Test
+    public void testCompactionTakesCommittedJobsOnly() throws Exception {
+        _del.insertJob(new Job(100L, "j0", true, new Scheduler.JobDetails()), "n1", false);
+
+        _txm.begin();
+        _del.insertJob(new Job(200L, "j1", true, new Scheduler.JobDetails()), "n1", false);
+        Transaction tx = _txm.suspend();
+        _del.compact();
+        _txm.resume(tx);
+        _txm.rollback();
+
+        _del.close();
+        _del = open();
+        List<Job> jobs = _del.dequeueImmediate("n1", 1000L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j0", jobs.get(0).jobId);
+    }
+
+    @Test
+    public void testTornRecord() throws Exception {
+        _del.insertJob(new Job(100L, "j1", true, new Scheduler.JobDetails()), "n1", false);
+        _del.close();
+
+        RandomAccessFile raf = new RandomAccessFile(_file, "rw");
+        raf.seek(raf.length());
+        raf.write(new byte[] { 0, 0, 0, 50, 1, 2, 3 });
+        raf.close();
+
+        _del = open();
+        assertEquals(1, _del.dequeueImmediate("n1", 1000L, 1000).size());
+        _del.insertJob(new Job(200L, "j2", true, new Scheduler.JobDetails()), "n1", false);
+        _del.close();
+        _del = open();
+        assertEquals(2, _del.dequeueImmediate("n1", 1000L, 1000).size());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.util.Properties;
+
+import junit.framework.Assert;
+
+import org.apache.ode.utils.metrics.MetricsRegistry;
+import org.junit.Test;
+
+/**
+ * Test of the priority class configuration.
+ */
+public class PriorityClassTest extends Assert {
+
+    @Test
+    public void testFromProperties() throws Exception {
+        Properties conf = new Properties();
+        assertEquals(0, PriorityClass.fromProperties(conf).length);
+
+        conf.setProperty("ode.scheduler.priorityClasses", "responses, background");
+        conf.setProperty("ode.scheduler.priorityClass.responses.jobTypes", "INVOKE_RESPONSE,matcher");
+        conf.setProperty("ode.scheduler.priorityClass.responses.threads", "20");
+        conf.setProperty("ode.scheduler.priorityClass.background.jobTypes", "RUNNABLE");
+
+        PriorityClass[] classes = PriorityClass.fromProperties(conf);
+        assertEquals(2, classes.length);
+        assertEquals("responses", classes[0].getName());
+        assertEquals(20, classes[0].getThreads());
+        assertTrue(classes[0].accepts("INVOKE_RESPONSE"));
+        assertTrue(classes[0].accepts("MATCHER"));
+        assertFalse(classes[0].accepts("TIMER"));
+        assertFalse(classes[0].accepts(null));
+        assertTrue(classes[1].accepts(PriorityClass.RUNNABLE));
+        assertEquals(5, classes[1].getThreads());
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        PriorityClass pc = new PriorityClass("testStatistics", new java.util.HashSet<String>(), 1);
+        pc.jobStarted(10);
+        pc.jobCompleted(4000);
+        pc.jobStarted(30);
+        pc.jobCompleted(6000);
+        pc.jobStarted(-5);
+        pc.jobCompleted(2000);
+        assertEquals(3, pc.getDispatchedCount());
+        assertEquals(13, pc.getAverageDispatchDelay());
+        assertEquals(30, pc.getMaxDispatchDelay());
+        assertEquals(4, pc.getAverageRunTime());
+
+        // Published in the metrics registry, in microseconds
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        assertEquals(3, metrics.histogram("scheduler.class.testStatistics.delay").getCount());
+        assertEquals(30000, metrics.histogram("scheduler.class.testStatistics.delay").getMax());
+        assertEquals(12000, metrics.histogram("scheduler.class.testStatistics.time").getSum());
+    }
+}
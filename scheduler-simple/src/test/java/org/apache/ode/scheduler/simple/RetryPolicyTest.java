@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Test of the retry policy configuration and backoff computation.
+ */
+public class RetryPolicyTest extends Assert {
+
+    @Test
+    public void testDefaults() throws Exception {
+        List<RetryPolicy> policies = RetryPolicy.fromProperties(new Properties());
+        assertEquals(1, policies.size());
+        RetryPolicy p = policies.get(0);
+        assertEquals(10, p.maxRetries);
+        // without jitter the default policy backs off like previous releases (5^n seconds)
+        RetryPolicy noJitter = new RetryPolicy("x", p.exceptions, p.maxRetries, p.baseDelay, p.multiplier, p.maxDelay, 0);
+        assertEquals(5000, noJitter.delay(1, new Random()));
+        assertEquals(125000, noJitter.delay(3, new Random()));
+    }
+
+    @Test
+    public void testJitterAndCap() throws Exception {
+        RetryPolicy p = new RetryPolicy("x", new java.util.ArrayList<String>(), 5, 1000, 2, 5000, 0.5);
+        Random random = new Random(42);
+        for (int i = 0; i < 100; ++i) {
+            long d = p.delay(2, random);
+            assertTrue(d > 1000 && d <= 2000);
+            d = p.delay(10, random);
+            assertTrue(d > 2500 && d <= 5000);
+        }
+    }
+
+    @Test
+    public void testSelect() throws Exception {
+        Properties conf = new Properties();
+        conf.setProperty("ode.scheduler.retry.maxRetries", "3");
+        conf.setProperty("ode.scheduler.retry.policies", "partner");
+        conf.setProperty("ode.scheduler.retry.policy.partner.exceptions", "java.io.IOException");
+        conf.setProperty("ode.scheduler.retry.policy.partner.baseDelay", "30000");
+
+        List<RetryPolicy> policies = RetryPolicy.fromProperties(conf);
+        assertEquals(2, policies.size());
+        RetryPolicy partner = policies.get(1);
+        assertEquals(3, partner.maxRetries);
+        assertEquals(30000, partner.baseDelay);
+
+        // matched through the cause and the superclass
+        assertSame(partner, RetryPolicy.select(policies, new RuntimeException(new ConnectException())));
+        assertSame(policies.get(0), RetryPolicy.select(policies, new IllegalStateException()));
+    }
+}
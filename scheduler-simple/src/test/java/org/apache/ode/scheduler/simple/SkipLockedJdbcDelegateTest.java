@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.scheduler.simple;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.transaction.TransactionManager;
+
+import junit.framework.Assert;
+
+import org.apache.geronimo.transaction.manager.GeronimoTransactionManager;
+import org.apache.ode.bpel.iapi.Scheduler;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test of the SKIP LOCKED delegate. The in-memory H2 database does not support SKIP LOCKED; the concurrent
+ * claim test runs against the database given by the <code>org.apache.ode.scheduler.skipLocked.*</code>
+ * system properties (e.g. a PostgreSQL 9.5+ test database, with its driver on the test classpath) and
+ * is skipped otherwise. It creates the ODE_JOB table and drops it when done.
+ */
+public class SkipLockedJdbcDelegateTest extends Assert {
+
+    private static final String PROP_URL = "org.apache.ode.scheduler.skipLocked.url";
+    private static final String PROP_DRIVER = "org.apache.ode.scheduler.skipLocked.driver";
+    private static final String PROP_USER = "org.apache.ode.scheduler.skipLocked.user";
+    private static final String PROP_PASSWORD = "org.apache.ode.scheduler.skipLocked.password";
+
+    private static final int JOBS = 500;
+
+    private SkipLockedJdbcDelegate _del;
+
+    @Before
+    public void setUp() throws Exception {
+        DelegateSupport ds = new DelegateSupport();
+        _del = new SkipLockedJdbcDelegate(ds._ds);
+    }
+
+    @Test
+    public void testFallsBackToUpgrade() throws Exception {
+        assertFalse(_del.claimsUnassignedJobs());
+
+        _del.insertJob(new Job(100L,"j1",true,new Scheduler.JobDetails()), null, false);
+        _del.insertJob(new Job(200L,"j2",true,new Scheduler.JobDetails()), "n1", false);
+
+        // unassigned jobs are left alone without SKIP LOCKED support
+        List<Job> jobs = _del.dequeueImmediate("n1", 300L, 1000);
+        assertEquals(1, jobs.size());
+        assertEquals("j2", jobs.get(0).jobId);
+
+        assertEquals(1, _del.updateAssignToNode("n1", 0, 1, 300L));
+        assertEquals(2, _del.dequeueImmediate("n1", 300L, 1000).size());
+    }
+
+    @Test
+    public void testConcurrentClaimers() throws Exception {
+        Assume.assumeNotNull(System.getProperty(PROP_URL), System.getProperty(PROP_DRIVER));
+
+        final TransactionManager txm = new GeronimoTransactionManager();
+        // one data source per claimer, each has a single pooled connection
+        final SkipLockedJdbcDelegate[] claimers = { externalDelegate(txm), externalDelegate(txm) };
+        assertTrue("No SKIP LOCKED support for " + claimers[0]._dialect, claimers[0].claimsUnassignedJobs());
+
+        createJobTable(txm, claimers[0]);
+        try {
+            txm.begin();
+            try {
+                for (int i = 0; i < JOBS; i++)
+                    claimers[0].insertJob(new Job(100L + i, "j" + i, true, new Scheduler.JobDetails()), null, false);
+            } finally {
+                txm.commit();
+            }
+
+            final CountDownLatch start = new CountDownLatch(1);
+            ExecutorService exec = Executors.newFixedThreadPool(claimers.length);
+            List<Future<List<String>>> dispatched = new ArrayList<Future<List<String>>>();
+            try {
+                for (int i = 0; i < claimers.length; i++) {
+                    final SkipLockedJdbcDelegate claimer = claimers[i];
+                    final String nodeId = "n" + i;
+                    dispatched.add(exec.submit(new Callable<List<String>>() {
+                        public List<String> call() throws Exception {
+                            start.await();
+                            List<String> jobIds = new ArrayList<String>();
+                            List<Job> jobs;
+                            do {
+                                txm.begin();
+                                try {
+                                    jobs = claimer.dequeueImmediate(nodeId, 100L + JOBS, 10);
+                                    txm.commit();
+                                } catch (Exception e) {
+                                    txm.rollback();
+                                    throw e;
+                                }
+                                for (Job job : jobs)
+                                    jobIds.add(job.jobId);
+                            } while (!jobs.isEmpty());
+                            return jobIds;
+                        }
+                    }));
+                }
+                start.countDown();
+
+                Set<String> all = new HashSet<String>();
+                for (Future<List<String>> f : dispatched) {
+                    for (String jobId : f.get())
+                        assertTrue("Job " + jobId + " dispatched twice", all.add(jobId));
+                }
+                assertEquals(JOBS, all.size());
+            } finally {
+                exec.shutdownNow();
+            }
+        } finally {
+            dropJobTable(txm, claimers[0]);
+        }
+    }
+
+    private SkipLockedJdbcDelegate externalDelegate(TransactionManager txm) throws Exception {
+        return (SkipLockedJdbcDelegate) new ExternalDelegateSupport(txm).delegate();
+    }
+
+    private void createJobTable(TransactionManager txm, JdbcDelegate del) throws Exception {
+        String bigint = del._dialect == JdbcDelegate.Dialect.ORACLE ? "number(19)" : "bigint";
+        String blob = del._dialect == JdbcDelegate.Dialect.POSTGRESQL ? "bytea" : "blob";
+        execute(txm, del, "create table ODE_JOB (jobid char(64) not null, ts " + bigint + " not null, "
+                + "nodeid char(64), scheduled int not null, transacted int not null, instanceId " + bigint + ", "
+                + "mexId varchar(255), processId varchar(255), type varchar(255), channel varchar(255), "
+                + "correlatorId varchar(255), correlationKeySet varchar(255), retryCount int, inMem int, "
+                + "detailsExt " + blob + ", primary key(jobid))");
+    }
+
+    private void dropJobTable(TransactionManager txm, JdbcDelegate del) throws Exception {
+        execute(txm, del, "drop table ODE_JOB");
+    }
+
+    private void execute(TransactionManager txm, JdbcDelegate del, String sql) throws Exception {
+        txm.begin();
+        try {
+            Connection c = del.getConnection();
+            try {
+                c.createStatement().executeUpdate(sql);
+            } finally {
+                c.close();
+            }
+        } finally {
+            txm.commit();
+        }
+    }
+
+    /** Delegate support for the database given by the system properties. */
+    private static class ExternalDelegateSupport extends GeronimoDelegateSupport {
+        ExternalDelegateSupport(TransactionManager txm) throws Exception {
+            super(txm);
+        }
+
+        @Override
+        protected void initialize(TransactionManager txm) throws Exception {
+            _ds = createGeronimoDataSource(txm, System.getProperty(PROP_URL), System.getProperty(PROP_DRIVER),
+                    System.getProperty(PROP_USER), System.getProperty(PROP_PASSWORD));
+            _del = new SkipLockedJdbcDelegate(_ds);
+        }
+    }
+}
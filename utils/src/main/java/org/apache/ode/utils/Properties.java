@@ -57,6 +57,12 @@ public class Properties {
      */
     public static final String PROP_P2P_MEX_TIMEOUT = "p2p.mex.timeout";
 
+    /**
+     * Property used to let process-to-process invocations between in-memory processes run in the transaction of the
+     * invoking process, without going through the scheduler. Default is false.
+     */
+    public static final String PROP_P2P_DIRECT = "p2p.direct";
+
     // its default value
     public static final int DEFAULT_MEX_TIMEOUT = 2 * 60 * 1000;
 
@@ -93,6 +99,37 @@ public class Properties {
     public static final String PROP_JMS_DESTINATION_TYPE = "jms.destination.type";
     public static final String PROP_SEND_WS_ADDRESSING_HEADERS = "ws-addressing.headers";
 
+    /**
+     * Partner endpoint isolation: maximum number of concurrent invocations of the endpoint (0, the default, for no
+     * limit), and number of invocations allowed to wait for one of them. Invocations beyond fail right away.
+     */
+    public static final String PROP_PARTNER_MAX_CONCURRENT_CALLS = "partner.max-concurrent-calls";
+    public static final String PROP_PARTNER_MAX_QUEUED_CALLS = "partner.max-queued-calls";
+    /**
+     * Partner endpoint circuit breaker: number of consecutive communication failures opening the circuit (0, the
+     * default, disables it), and how long (in milliseconds) invocations fail right away before a trial one is sent.
+     */
+    public static final String PROP_PARTNER_CIRCUIT_BREAKER_FAILURES = "partner.circuit-breaker.failures";
+    public static final String PROP_PARTNER_CIRCUIT_BREAKER_OPEN_TIME = "partner.circuit-breaker.open-time";
+    /**
+     * Partner response cache: comma separated names of the (idempotent) operations of the endpoint whose responses are
+     * cached, time to live of a response (in milliseconds), additional time during which an expired response is still
+     * returned while a single invocation refreshes it, and bounds of the cache (number of responses and total size in
+     * bytes, 0 for none). Responses are stored on the heap, or outside of it with the <code>direct</code> store.
+     */
+    public static final String PROP_PARTNER_CACHE_OPERATIONS = "partner.cache.operations";
+    public static final String PROP_PARTNER_CACHE_TTL = "partner.cache.ttl";
+    public static final String PROP_PARTNER_CACHE_STALE_TIME = "partner.cache.stale-time";
+    public static final String PROP_PARTNER_CACHE_MAX_ENTRIES = "partner.cache.max-entries";
+    public static final String PROP_PARTNER_CACHE_MAX_BYTES = "partner.cache.max-bytes";
+    public static final String PROP_PARTNER_CACHE_STORE = "partner.cache.store";
+    /**
+     * SOAP partner endpoints: maximum number of idle service clients kept for reuse, and number of them prepared when
+     * the process is activated.
+     */
+    public static final String PROP_SOAP_CLIENT_POOL_SIZE = "soap.client.pool.size";
+    public static final String PROP_SOAP_CLIENT_POOL_WARMUP = "soap.client.pool.warmup";
+
 
     protected static final Logger log = LoggerFactory.getLogger(Properties.class);
 
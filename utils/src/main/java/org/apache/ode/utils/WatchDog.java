@@ -23,10 +23,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -41,15 +47,22 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * So that {@link WatchDog# check ()} will be called automatically every {@code delay} milliseconds.</li>
  * <li>Invoke {@link WatchDog# check ()} only when you feel like it. If the expiration date previously set is lower than NOW then event
  * callback methods will be invoked accordingly.</li>
+ * <li>Have it checked by the shared background thread ({@link #watchInBackground()}), so that the readers of the
+ * observed object never wait for the resource to be checked or reloaded.</li>
  * </ol>
  *
  * @author <a href="mailto:midon@intalio.com">Alexis Midon</a>
  */
 public class WatchDog<T, C extends WatchDog.Observer> implements Runnable {
     static final public long DEFAULT_DELAY = 30000;
+    /** Period (ms) of the background thread; each watchdog is still only checked once its own delay is over. */
+    static final long BACKGROUND_PERIOD = 1000;
     final Logger log = LoggerFactory.getLogger(WatchDog.class);
 
-    private long expire;
+    private static final List<WeakReference<WatchDog>> __background = new CopyOnWriteArrayList<WeakReference<WatchDog>>();
+    private static ScheduledExecutorService __backgroundChecker;
+
+    private volatile long expire;
     private T lastModif;
     private long delay = DEFAULT_DELAY;
     private boolean existedBefore, warnedAlready, interrupted;
@@ -169,6 +182,63 @@ public class WatchDog<T, C extends WatchDog.Observer> implements Runnable {
         }
     }
 
+    /**
+     * Check this watchdog periodically from the shared background thread. The watchdog is only weakly referenced: it
+     * stops being checked once its owner is gone, or on {@link #stopWatching()}.
+     */
+    public void watchInBackground() {
+        __background.add(new WeakReference<WatchDog>(this));
+        startBackgroundChecker();
+    }
+
+    public void stopWatching() {
+        for (WeakReference<WatchDog> ref : __background) {
+            if (ref.get() == this) __background.remove(ref);
+        }
+    }
+
+    /**
+     * Stop the shared background thread, typically on shutdown. Watchdogs still registered are no longer checked in
+     * the background until the next call to {@link #watchInBackground()} starts the thread again.
+     */
+    public static synchronized void stopBackgroundChecker() {
+        if (__backgroundChecker == null) return;
+        __backgroundChecker.shutdownNow();
+        __backgroundChecker = null;
+    }
+
+    private static synchronized void startBackgroundChecker() {
+        if (__backgroundChecker != null) return;
+        __backgroundChecker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "WatchDog");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        __backgroundChecker.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                checkInBackground();
+            }
+        }, BACKGROUND_PERIOD, BACKGROUND_PERIOD, TimeUnit.MILLISECONDS);
+    }
+
+    static void checkInBackground() {
+        for (WeakReference<WatchDog> ref : __background) {
+            WatchDog dog = ref.get();
+            if (dog == null) {
+                __background.remove(ref);
+                continue;
+            }
+            try {
+                dog.check();
+            } catch (RuntimeException e) {
+                // already logged and reset by check(), the next check will retry
+                dog.log.warn("[" + dog.mutable + "] check failed: " + e.getMessage());
+            }
+        }
+    }
+
     public static <C extends Observer> WatchDog<Long, C> watchFile(File file, C handler) {
         return new WatchDog<Long, C>(new FileMutable(file), handler);
     }
@@ -285,7 +355,8 @@ public class WatchDog<T, C extends WatchDog.Observer> implements Runnable {
     public static class DefaultObserver<A> implements Observer<A> {
 
         protected final ReadWriteLock lock = new ReentrantReadWriteLock();
-        protected A object;
+        /** Published once fully built, so that readers do not need the lock. */
+        protected volatile A object;
 
         /**
          * @return true if the wrapped if not null
@@ -323,12 +394,7 @@ public class WatchDog<T, C extends WatchDog.Observer> implements Runnable {
         }
 
         public A get() {
-            lock.readLock().lock();
-            try {
-                return object;
-            } finally {
-                lock.readLock().unlock();
-            }
+            return object;
         }
     }
 }
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ode.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An engine counter (number of events, or current level when decremented).
+ */
+public class Counter {
+
+    private final String _name;
+
+    private final AtomicLong _count = new AtomicLong();
+
+    Counter(String name) {
+        _name = name;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public void inc() {
+        _count.incrementAndGet();
+    }
+
+    public void inc(long n) {
+        _count.addAndGet(n);
+    }
+
+    public void dec() {
+        _count.decrementAndGet();
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public String toString() {
+        return _name + " count=" + _count.get();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ode.utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values (durations, sizes) kept in power of two buckets: bucket
+ * <code>i</code> counts the values of <code>[2^(i-1), 2^i)</code>. Recording a value is a few
+ * atomic increments and never allocates, so histograms can be updated on every job, reduction
+ * slice or variable access. Percentiles are approximated by the upper bound of their bucket,
+ * i.e. within a factor of two of the exact value, which is enough to tell where time goes.
+ */
+public class Histogram {
+
+    private static final int BUCKETS = 64;
+
+    private final String _name;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong _count = new AtomicLong();
+
+    private final AtomicLong _sum = new AtomicLong();
+
+    private final AtomicLong _max = new AtomicLong();
+
+    Histogram(String name) {
+        _name = name;
+    }
+
+    public String getName() {
+        return _name;
+    }
+
+    public void record(long value) {
+        if (value < 0)
+            value = 0;
+        _buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+        _count.incrementAndGet();
+        _sum.addAndGet(value);
+        long max;
+        while ((max = _max.get()) < value && !_max.compareAndSet(max, value));
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getSum() {
+        return _sum.get();
+    }
+
+    public long getMax() {
+        return _max.get();
+    }
+
+    public long getMean() {
+        long count = _count.get();
+        return count == 0 ? 0 : _sum.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the given percentile, never more than the
+     *         largest recorded value.
+     */
+    public long getPercentile(double percentile) {
+        long count = _count.get();
+        if (count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+        if (rank == 0)
+            rank = 1;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += _buckets.get(i);
+            if (seen >= rank)
+                return Math.min(i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1), _max.get());
+        }
+        return _max.get();
+    }
+
+    public String toString() {
+        return _name + " count=" + getCount() + " mean=" + getMean() + " p50=" + getPercentile(50)
+                + " p99=" + getPercentile(99) + " max=" + getMax();
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ode.utils.metrics;
+
+import java.util.SortedMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes the metrics to the log at info level.
+ */
+public class LoggingMetricsReporter implements MetricsReporter {
+    private static final Logger __log = LoggerFactory.getLogger(LoggingMetricsReporter.class);
+
+    public void report(SortedMap<String, Counter> counters, SortedMap<String, Histogram> histograms) {
+        if (!__log.isInfoEnabled())
+            return;
+        for (Counter counter : counters.values())
+            __log.info(counter.toString());
+        for (Histogram histogram : histograms.values()) {
+            if (histogram.getCount() > 0)
+                __log.info(histogram.toString());
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ode.utils.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Read-only JMX view of a {@link MetricsRegistry}. Every counter is exported as a
+ * <code>&lt;name&gt;</code> attribute and every histogram as <code>&lt;name&gt;.count</code>,
+ * <code>.mean</code>, <code>.p50</code>, <code>.p99</code> and <code>.max</code> attributes.
+ * Metrics created after the registration show up the next time the MBean info is read.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    /** Object name under which the standalone server registers the engine metrics. */
+    public static final String OBJECT_NAME = "org.apache.ode:type=Metrics";
+
+    private static final String[] HISTOGRAM_ATTRIBUTES = { "count", "mean", "p50", "p99", "max" };
+
+    private final MetricsRegistry _registry;
+
+    public MetricsMBean(MetricsRegistry registry) {
+        _registry = registry;
+    }
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException, MBeanException, ReflectionException {
+        Counter counter = _registry.getCounters().get(attribute);
+        if (counter != null)
+            return counter.getCount();
+
+        int dot = attribute.lastIndexOf('.');
+        Histogram histogram = dot < 0 ? null : _registry.getHistograms().get(attribute.substring(0, dot));
+        if (histogram != null) {
+            String stat = attribute.substring(dot + 1);
+            if ("count".equals(stat)) return histogram.getCount();
+            if ("mean".equals(stat)) return histogram.getMean();
+            if ("p50".equals(stat)) return histogram.getPercentile(50);
+            if ("p99".equals(stat)) return histogram.getPercentile(99);
+            if ("max".equals(stat)) return histogram.getMax();
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (Exception e) {
+                // unknown attributes are left out, as specified by DynamicMBean
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attrs = new ArrayList<MBeanAttributeInfo>();
+        for (String name : _registry.getCounters().keySet())
+            attrs.add(new MBeanAttributeInfo(name, Long.class.getName(), "Counter " + name, true, false, false));
+        for (String name : _registry.getHistograms().keySet()) {
+            for (String stat : HISTOGRAM_ATTRIBUTES)
+                attrs.add(new MBeanAttributeInfo(name + "." + stat, Long.class.getName(), "Histogram " + name + " " + stat,
+                        true, false, false));
+        }
+        return new MBeanInfo(getClass().getName(), "ODE engine metrics", attrs.toArray(new MBeanAttributeInfo[attrs.size()]),
+                null, new MBeanOperationInfo[0], null);
+    }
+}
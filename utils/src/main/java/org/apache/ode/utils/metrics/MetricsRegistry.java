@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ode.utils.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Engine wide registry of performance counters and histograms. Metrics are created on first use
+ * and live as long as the registry; the hot paths of the engine keep a reference to their metrics
+ * so that updating them is lock free.
+ *
+ * Durations are recorded in microseconds and sizes in bytes. The registry is exported through
+ * JMX with {@link MetricsMBean} and can periodically be pushed to a {@link MetricsReporter}.
+ */
+public class MetricsRegistry {
+    private static final Logger __log = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private final ConcurrentMap<String, Counter> _counters = new ConcurrentHashMap<String, Counter>();
+
+    private final ConcurrentMap<String, Histogram> _histograms = new ConcurrentHashMap<String, Histogram>();
+
+    private ScheduledExecutorService _reporterExec;
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    public Counter counter(String name) {
+        Counter counter = _counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            Counter existing = _counters.putIfAbsent(name, counter);
+            if (existing != null)
+                counter = existing;
+        }
+        return counter;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = _histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(name);
+            Histogram existing = _histograms.putIfAbsent(name, histogram);
+            if (existing != null)
+                histogram = existing;
+        }
+        return histogram;
+    }
+
+    public SortedMap<String, Counter> getCounters() {
+        return new TreeMap<String, Counter>(_counters);
+    }
+
+    public SortedMap<String, Histogram> getHistograms() {
+        return new TreeMap<String, Histogram>(_histograms);
+    }
+
+    /**
+     * Push the metrics to the given reporter every <code>period</code> milliseconds, replacing
+     * the reporter previously started.
+     */
+    public synchronized void startReporter(final MetricsReporter reporter, long period) {
+        stopReporter();
+        _reporterExec = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "MetricsReporter");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        _reporterExec.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                try {
+                    reporter.report(getCounters(), getHistograms());
+                } catch (Throwable t) {
+                    __log.warn("Error while reporting metrics", t);
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporter() {
+        if (_reporterExec != null) {
+            _reporterExec.shutdown();
+            _reporterExec = null;
+        }
+    }
+
+    /**
+     * Microseconds elapsed since the given {@link System#nanoTime()}.
+     */
+    public static long micros(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        for (Map.Entry<String, Counter> e : getCounters().entrySet())
+            buf.append(e.getValue()).append('\n');
+        for (Map.Entry<String, Histogram> e : getHistograms().entrySet())
+            buf.append(e.getValue()).append('\n');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.ode.utils;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * Test the background checking of {@link WatchDog}.
+ */
+public class WatchDogTest extends TestCase {
+
+    private File file;
+
+    public void setUp() throws Exception {
+        file = File.createTempFile("watchdog", ".endpoint");
+    }
+
+    public void tearDown() {
+        file.delete();
+    }
+
+    static class CountingObserver extends WatchDog.DefaultObserver<Integer> {
+        final AtomicInteger updates = new AtomicInteger();
+
+        public void init() {
+            object = Integer.valueOf(updates.incrementAndGet());
+        }
+    }
+
+    public void testBackgroundCheck() throws Exception {
+        CountingObserver observer = new CountingObserver();
+        WatchDog<Long, CountingObserver> dog = WatchDog.watchFile(file, observer);
+        dog.setDelay(0);
+        dog.watchInBackground();
+        try {
+            WatchDog.checkInBackground();
+            assertEquals(Integer.valueOf(1), observer.get());
+
+            // unchanged file, no reload
+            WatchDog.checkInBackground();
+            assertEquals(Integer.valueOf(1), observer.get());
+
+            file.setLastModified(file.lastModified() - 10000);
+            WatchDog.checkInBackground();
+            assertEquals("Reloaded without any reader check", Integer.valueOf(2), observer.get());
+        } finally {
+            dog.stopWatching();
+        }
+
+        file.setLastModified(file.lastModified() - 10000);
+        WatchDog.checkInBackground();
+        assertEquals("No longer watched", Integer.valueOf(2), observer.get());
+    }
+}
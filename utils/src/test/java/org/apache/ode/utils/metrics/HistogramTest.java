@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.ode.utils.metrics;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+    public void testEmpty() {
+        Histogram h = new Histogram("empty");
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.getMean());
+        assertEquals(0, h.getPercentile(99));
+    }
+
+    public void testStatistics() {
+        Histogram h = new Histogram("test");
+        for (int i = 1; i <= 100; ++i)
+            h.record(i);
+        assertEquals(100, h.getCount());
+        assertEquals(5050, h.getSum());
+        assertEquals(50, h.getMean());
+        assertEquals(100, h.getMax());
+        // percentiles are bucket upper bounds, within a factor of two of the exact value
+        long p50 = h.getPercentile(50);
+        assertTrue(p50 >= 50 && p50 < 100);
+        assertEquals(100, h.getPercentile(99));
+        assertEquals(1, h.getPercentile(0));
+    }
+
+    public void testZeroAndNegative() {
+        Histogram h = new Histogram("zero");
+        h.record(0);
+        h.record(-5);
+        assertEquals(2, h.getCount());
+        assertEquals(0, h.getMax());
+        assertEquals(0, h.getPercentile(100));
+    }
+
+    public void testRegistry() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        assertSame(registry.histogram("a"), registry.histogram("a"));
+        registry.counter("c").inc(3);
+        registry.histogram("a").record(10);
+        MetricsMBean mbean = new MetricsMBean(registry);
+        assertEquals(3L, mbean.getAttribute("c"));
+        assertEquals(1L, mbean.getAttribute("a.count"));
+        assertEquals(10L, mbean.getAttribute("a.max"));
+        assertEquals(6, mbean.getMBeanInfo().getAttributes().length);
+    }
+}